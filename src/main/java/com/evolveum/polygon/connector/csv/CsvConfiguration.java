@@ -228,6 +228,226 @@ public class CsvConfiguration extends AbstractConfiguration {
         return config.getLastLoginDateFormat();
     }
 
+    @ConfigurationProperty(
+            displayMessageKey = "UI_INDEX_ENABLED",
+            helpMessageKey = "UI_INDEX_ENABLED_HELP")
+    public boolean isIndexEnabled() {
+        return config.isIndexEnabled();
+    }
+
+    public void setIndexEnabled(boolean indexEnabled) {
+        config.setIndexEnabled(indexEnabled);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_IN_MEMORY_SORT_LIMIT",
+            helpMessageKey = "UI_IN_MEMORY_SORT_LIMIT_HELP")
+    public int getInMemorySortLimit() {
+        return config.getInMemorySortLimit();
+    }
+
+    public void setInMemorySortLimit(int inMemorySortLimit) {
+        config.setInMemorySortLimit(inMemorySortLimit);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_MAPPED_READER_ENABLED",
+            helpMessageKey = "UI_MAPPED_READER_ENABLED_HELP")
+    public boolean isMappedReaderEnabled() {
+        return config.isMappedReaderEnabled();
+    }
+
+    public void setMappedReaderEnabled(boolean mappedReaderEnabled) {
+        config.setMappedReaderEnabled(mappedReaderEnabled);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_PARALLEL_SCAN_THREADS",
+            helpMessageKey = "UI_PARALLEL_SCAN_THREADS_HELP")
+    public int getParallelScanThreads() {
+        return config.getParallelScanThreads();
+    }
+
+    public void setParallelScanThreads(int parallelScanThreads) {
+        config.setParallelScanThreads(parallelScanThreads);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_PARALLEL_SCAN_PRESERVE_ORDER",
+            helpMessageKey = "UI_PARALLEL_SCAN_PRESERVE_ORDER_HELP")
+    public boolean isParallelScanPreserveOrder() {
+        return config.isParallelScanPreserveOrder();
+    }
+
+    public void setParallelScanPreserveOrder(boolean parallelScanPreserveOrder) {
+        config.setParallelScanPreserveOrder(parallelScanPreserveOrder);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_OBJECT_CACHE_SIZE",
+            helpMessageKey = "UI_OBJECT_CACHE_SIZE_HELP")
+    public int getObjectCacheSize() {
+        return config.getObjectCacheSize();
+    }
+
+    public void setObjectCacheSize(int objectCacheSize) {
+        config.setObjectCacheSize(objectCacheSize);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_APPEND_ON_CREATE",
+            helpMessageKey = "UI_APPEND_ON_CREATE_HELP")
+    public boolean isAppendOnCreate() {
+        return config.isAppendOnCreate();
+    }
+
+    public void setAppendOnCreate(boolean appendOnCreate) {
+        config.setAppendOnCreate(appendOnCreate);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_WRITE_BATCH_SIZE",
+            helpMessageKey = "UI_WRITE_BATCH_SIZE_HELP")
+    public int getWriteBatchSize() {
+        return config.getWriteBatchSize();
+    }
+
+    public void setWriteBatchSize(int writeBatchSize) {
+        config.setWriteBatchSize(writeBatchSize);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_WRITE_BATCH_WINDOW",
+            helpMessageKey = "UI_WRITE_BATCH_WINDOW_HELP")
+    public int getWriteBatchWindow() {
+        return config.getWriteBatchWindow();
+    }
+
+    public void setWriteBatchWindow(int writeBatchWindow) {
+        config.setWriteBatchWindow(writeBatchWindow);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_JOURNAL_ENABLED",
+            helpMessageKey = "UI_JOURNAL_ENABLED_HELP")
+    public boolean isJournalEnabled() {
+        return config.isJournalEnabled();
+    }
+
+    public void setJournalEnabled(boolean journalEnabled) {
+        config.setJournalEnabled(journalEnabled);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_JOURNAL_COMPACTION_THRESHOLD",
+            helpMessageKey = "UI_JOURNAL_COMPACTION_THRESHOLD_HELP")
+    public int getJournalCompactionThreshold() {
+        return config.getJournalCompactionThreshold();
+    }
+
+    public void setJournalCompactionThreshold(int journalCompactionThreshold) {
+        config.setJournalCompactionThreshold(journalCompactionThreshold);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_IN_PLACE_UPDATE_ENABLED",
+            helpMessageKey = "UI_IN_PLACE_UPDATE_ENABLED_HELP")
+    public boolean isInPlaceUpdateEnabled() {
+        return config.isInPlaceUpdateEnabled();
+    }
+
+    public void setInPlaceUpdateEnabled(boolean inPlaceUpdateEnabled) {
+        config.setInPlaceUpdateEnabled(inPlaceUpdateEnabled);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_RAW_RECORD_COPY_ENABLED",
+            helpMessageKey = "UI_RAW_RECORD_COPY_ENABLED_HELP")
+    public boolean isRawRecordCopyEnabled() {
+        return config.isRawRecordCopyEnabled();
+    }
+
+    public void setRawRecordCopyEnabled(boolean rawRecordCopyEnabled) {
+        config.setRawRecordCopyEnabled(rawRecordCopyEnabled);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_TMP_FILE_LOCK_TIMEOUT",
+            helpMessageKey = "UI_TMP_FILE_LOCK_TIMEOUT_HELP")
+    public int getTmpFileLockTimeout() {
+        return config.getTmpFileLockTimeout();
+    }
+
+    public void setTmpFileLockTimeout(int tmpFileLockTimeout) {
+        config.setTmpFileLockTimeout(tmpFileLockTimeout);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_DURABILITY",
+            helpMessageKey = "UI_DURABILITY_HELP")
+    public String getDurability() {
+        return config.getDurability();
+    }
+
+    public void setDurability(String durability) {
+        config.setDurability(durability);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_SORTED_SYNC_DIFF",
+            helpMessageKey = "UI_SORTED_SYNC_DIFF_HELP")
+    public boolean isSortedSyncDiff() {
+        return config.isSortedSyncDiff();
+    }
+
+    public void setSortedSyncDiff(boolean sortedSyncDiff) {
+        config.setSortedSyncDiff(sortedSyncDiff);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_HASH_SYNC_SNAPSHOTS",
+            helpMessageKey = "UI_HASH_SYNC_SNAPSHOTS_HELP")
+    public boolean isHashSyncSnapshots() {
+        return config.isHashSyncSnapshots();
+    }
+
+    public void setHashSyncSnapshots(boolean hashSyncSnapshots) {
+        config.setHashSyncSnapshots(hashSyncSnapshots);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_SYNC_CHANGED_ATTRIBUTES_ONLY",
+            helpMessageKey = "UI_SYNC_CHANGED_ATTRIBUTES_ONLY_HELP")
+    public boolean isSyncChangedAttributesOnly() {
+        return config.isSyncChangedAttributesOnly();
+    }
+
+    public void setSyncChangedAttributesOnly(boolean syncChangedAttributesOnly) {
+        config.setSyncChangedAttributesOnly(syncChangedAttributesOnly);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_SYNC_DIFF_PARTITIONS",
+            helpMessageKey = "UI_SYNC_DIFF_PARTITIONS_HELP")
+    public int getSyncDiffPartitions() {
+        return config.getSyncDiffPartitions();
+    }
+
+    public void setSyncDiffPartitions(int syncDiffPartitions) {
+        config.setSyncDiffPartitions(syncDiffPartitions);
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_SYNC_DIFF_THREADS",
+            helpMessageKey = "UI_SYNC_DIFF_THREADS_HELP")
+    public int getSyncDiffThreads() {
+        return config.getSyncDiffThreads();
+    }
+
+    public void setSyncDiffThreads(int syncDiffThreads) {
+        config.setSyncDiffThreads(syncDiffThreads);
+    }
+
     public void setLastLoginDateAttribute(String lastLoginDateAttribute) {
         config.setLastLoginDateAttribute(lastLoginDateAttribute);
     }
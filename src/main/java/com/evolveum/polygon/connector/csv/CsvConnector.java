@@ -33,8 +33,6 @@ public class CsvConnector implements Connector, TestOp, SchemaOp, SearchOp<Filte
         ResolveUsernameOp, SyncOp, CreateOp, UpdateOp, UpdateAttributeValuesOp, DeleteOp, ScriptOnResourceOp,
         ScriptOnConnectorOp, DiscoverConfigurationOp {
 
-	public static final Integer SYNCH_FILE_LOCK = 0;
-	
     private static final Log LOG = Log.getLog(CsvConnector.class);
 
     private CsvConfiguration configuration;
@@ -121,6 +119,11 @@ public class CsvConnector implements Connector, TestOp, SchemaOp, SearchOp<Filte
             LOG.info("schema finished for {0}", handler.getObjectClass());
         });
 
+        builder.defineOperationOption(OperationOptionInfoBuilder.buildPageSize(), SearchOp.class);
+        builder.defineOperationOption(OperationOptionInfoBuilder.buildPagedResultsOffset(), SearchOp.class);
+        builder.defineOperationOption(OperationOptionInfoBuilder.buildPagedResultsCookie(), SearchOp.class);
+        builder.defineOperationOption(OperationOptionInfoBuilder.buildSortKeys(), SearchOp.class);
+
         Schema schema = builder.build();
         LOG.info(">>> schema finished");
 
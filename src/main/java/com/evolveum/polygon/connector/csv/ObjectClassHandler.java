@@ -1,9 +1,6 @@
 package com.evolveum.polygon.connector.csv;
 
-import com.evolveum.polygon.connector.csv.util.Column;
-import com.evolveum.polygon.connector.csv.util.ConfigurationDetector;
-import com.evolveum.polygon.connector.csv.util.StringAccessor;
-import com.evolveum.polygon.connector.csv.util.Util;
+import com.evolveum.polygon.connector.csv.util.*;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
@@ -13,19 +10,27 @@ import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.common.exceptions.*;
 import org.identityconnectors.framework.common.objects.*;
-import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
-import org.identityconnectors.framework.common.objects.filter.Filter;
-import org.identityconnectors.framework.common.objects.filter.FilterTranslator;
+import org.identityconnectors.framework.common.objects.filter.*;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
 import org.identityconnectors.framework.spi.SyncTokenResultsHandler;
 import org.identityconnectors.framework.spi.operations.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
-import java.text.ParseException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import static com.evolveum.polygon.connector.csv.util.Util.createSyncFileName;
 import static com.evolveum.polygon.connector.csv.util.Util.handleGenericException;
@@ -44,15 +49,80 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 
     private enum Operation {
 
-        DELETE, UPDATE, ADD_ATTR_VALUE, REMOVE_ATTR_VALUE;
+        CREATE, DELETE, UPDATE, ADD_ATTR_VALUE, REMOVE_ATTR_VALUE;
+    }
+
+    /**
+     * Write operation waiting in {@link WriteBatcher}, result is filled in by thread which applies the batch.
+     */
+    private static class PendingWrite {
+
+        private final Operation operation;
+
+        /**
+         * Uid of updated or deleted object, or uid of created object.
+         */
+        private final Uid uid;
+
+        private final Set<Attribute> attributes;
+
+        private boolean found;
+
+        private Uid result;
+
+        private Exception error;
+
+        private PendingWrite(Operation operation, Uid uid, Set<Attribute> attributes) {
+            this.operation = operation;
+            this.uid = uid;
+            this.result = uid;
+            this.attributes = attributes;
+        }
     }
 
     private static final Log LOG = Log.getLog(ObjectClassHandler.class);
 
+    /**
+     * Maximum number of files which have shared index, object cache or write batcher, see {@link FileRegistry}.
+     */
+    private static final int MAX_SHARED_FILES = 32;
+
+    /**
+     * Record indexes shared by all connector instances, connector is not poolable so handlers live only
+     * for one operation. Key is created by {@link #createIndexKey()}.
+     */
+    static final FileRegistry<AtomicReference<RecordIndex>> INDEXES = new FileRegistry<>(MAX_SHARED_FILES);
+
+    /**
+     * Write batchers shared by all connector instances, same as {@link #INDEXES}. Key is created by
+     * {@link #createWriteBatchKey()}.
+     */
+    static final FileRegistry<WriteBatcher<PendingWrite>> WRITE_BATCHERS = new FileRegistry<>(MAX_SHARED_FILES);
+
+    /**
+     * Object caches shared by all connector instances, same as {@link #INDEXES}. Key is created by
+     * {@link #createObjectCacheKey()}.
+     */
+    private static final FileRegistry<ObjectCache> OBJECT_CACHES = new FileRegistry<>(MAX_SHARED_FILES);
+
+    private static final int MAX_SNAPSHOT_ATTEMPTS = 10;
+
     private final ObjectClassHandlerConfiguration configuration;
 
     private Map<String, Column> header;
 
+    private RowDecoder decoder;
+
+    /**
+     * Version of the file read by current search, see {@link #readSnapshot(Supplier)}.
+     */
+    private FileSnapshot snapshot;
+
+    /**
+     * Journal read together with the snapshot, null if there's no journal file.
+     */
+    private Journal snapshotJournal;
+
     public ObjectClassHandler(ObjectClassHandlerConfiguration configuration) {
         this.configuration = configuration;
     }
@@ -64,31 +134,38 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
         return header;
     }
 
-    private Map<String, Column> initHeader(File csvFile) {
-        synchronized (CsvConnector.SYNCH_FILE_LOCK) {
-            CSVFormat csv = Util.createCsvFormat(configuration);
-            try (Reader reader = Util.createReader(csvFile, configuration)) {
-                CSVParser parser = csv.parse(reader);
-                Iterator<CSVRecord> iterator = parser.iterator();
+    private RowDecoder getDecoder() {
+        if (decoder == null) {
+            this.decoder = new RowDecoder(configuration, getHeader());
+        }
+        return decoder;
+    }
 
-                CSVRecord record = null;
-                while (iterator.hasNext()) {
-                    record = iterator.next();
-                    if (!isRecordEmpty(record)) {
-                        break;
-                    }
-                }
+    private Map<String, Column> initHeader(File csvFile) {
+        CSVFormat csv = Util.createCsvFormat(configuration);
+        boolean pinned = snapshot != null && csvFile.equals(configuration.getFilePath());
+        try (Reader reader = pinned ? snapshot.createReader(configuration.getEncoding())
+                : Util.createReader(csvFile, configuration)) {
+            CSVParser parser = csv.parse(reader);
+            Iterator<CSVRecord> iterator = parser.iterator();
 
-                if (record == null) {
-                    throw new ConfigurationException("Couldn't initialize headers, nothing in csv file for object class "
-                            + configuration.getObjectClass());
+            CSVRecord record = null;
+            while (iterator.hasNext()) {
+                record = iterator.next();
+                if (!isRecordEmpty(record)) {
+                    break;
                 }
+            }
 
-                return createHeader(record);
-            } catch (IOException ex) {
-                throw new ConnectorIOException("Couldn't initialize connector for object class "
-                        + configuration.getObjectClass(), ex);
+            if (record == null) {
+                throw new ConfigurationException("Couldn't initialize headers, nothing in csv file for object class "
+                        + configuration.getObjectClass());
             }
+
+            return createHeader(record);
+        } catch (IOException ex) {
+            throw new ConnectorIOException("Couldn't initialize connector for object class "
+                    + configuration.getObjectClass(), ex);
         }
     }
 
@@ -280,7 +357,7 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 
     @Override
     public Uid authenticate(ObjectClass oc, String username, GuardedString password, OperationOptions oo) {
-        return resolveUsername(username, password, oo, true);
+        return readSnapshot(() -> resolveUsername(username, password, oo, true));
     }
 
     @Override
@@ -294,57 +371,179 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
         String uidValue = findUidValue(attributes);
         Uid uid = new Uid(uidValue);
 
-        FileLock lock = Util.obtainTmpFileLock(configuration);
-        Reader reader = null;
-        Writer writer = null;
-        try {
-            synchronized (CsvConnector.SYNCH_FILE_LOCK) {
-                reader = Util.createReader(configuration);
-                writer = new BufferedWriter(Channels.newWriter(lock.channel(), configuration.getEncoding()));
+        if (configuration.isJournalEnabled()) {
+            return writeToJournal(Operation.CREATE, uid, attributes);
+        }
 
-                CSVFormat csv = Util.createCsvFormat(configuration);
-                CSVParser parser = csv.parse(reader);
+        compactJournalIfNeeded();
+
+        if (isWriteBatched() && !configuration.isAppendOnCreate()) {
+            return submitWrite(new PendingWrite(Operation.CREATE, uid, attributes));
+        }
+
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
 
-                csv = Util.createCsvFormat(configuration);
-                CSVPrinter printer = csv.print(writer);
+        FileLock lock = Util.obtainTmpFileLock(configuration);
+        try {
+            if (configuration.isAppendOnCreate() && appendNewRecord(uid, attributes)) {
+                return uid;
+            }
 
-                Iterator<CSVRecord> iterator = parser.iterator();
+            try (RecordRewriter rewriter = RecordRewriter.create(configuration, lock.channel())) {
+                CsvRow record = rewriter.next();
                 // we don't want to skip header in any case, but if it's there just
                 // write it to tmp file as "standard" record. We can't handle first row
                 // as header in case there are more columns with the same name.
-                if (configuration.isHeaderExists() && iterator.hasNext()) {
-                    CSVRecord record = iterator.next();
-                    printer.printRecord(record);
+                if (configuration.isHeaderExists() && record != null) {
+                    rewriter.copy();
+                    record = rewriter.next();
                 }
 
                 // handling real records
-                while (iterator.hasNext()) {
-                    CSVRecord record = iterator.next();
-                    ConnectorObject obj = createConnectorObject(record);
-
-                    if (uid.equals(obj.getUid())) {
+                for (; record != null; record = rewriter.next()) {
+                    if (uidIndex < record.size() && uid.getUidValue().equals(record.get(uidIndex))) {
                         throw new AlreadyExistsException("Account already exists '" + uid.getUidValue() + "'.");
                     }
 
-                    printer.printRecord(record);
+                    rewriter.copy();
                 }
 
-                printer.printRecord(createNewRecord(attributes));
-
-                writer.close();
-                reader.close();
-
-                moveTmpToOrig();
+                rewriter.write(createNewRecord(attributes));
+                rewriter.finish();
             }
+
+            moveTmpToOrig();
         } catch (Exception ex) {
             handleGenericException(ex, "Error during account '" + uid + "' create");
         } finally {
-            Util.cleanupResources(writer, reader, lock, configuration);
+            Util.cleanupResources(null, null, lock, configuration);
         }
 
         return uid;
     }
 
+    /**
+     * Appends new record to the end of CSV file, existing records are only read to check uniqueness (using
+     * record index if possible). Caller has to hold tmp file lock.
+     *
+     * @return false if record can't be appended and the file has to be rewritten
+     */
+    private boolean appendNewRecord(Uid uid, Set<Attribute> attributes) throws IOException {
+        if (!Util.isByteScanSupported(configuration)) {
+            return false;
+        }
+
+        File file = configuration.getFilePath();
+        FileFingerprint fingerprint = FileFingerprint.of(file);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+
+            long size = channel.size();
+            if (!endsWithLineBreak(channel, size)) {
+                // previous write could have been interrupted, rewrite will parse the whole file
+                LOG.ok("File {0} doesn't end with line break, new record won't be appended", file);
+                return false;
+            }
+
+            if (containsUid(uid.getUidValue())) {
+                throw new AlreadyExistsException("Account already exists '" + uid.getUidValue() + "'.");
+            }
+
+            StringWriter writer = new StringWriter();
+            CSVPrinter printer = Util.createCsvFormat(configuration).print(writer);
+            printer.printRecord(createNewRecord(attributes));
+
+            String record = writer.toString();
+            Charset charset = Charset.forName(configuration.getEncoding());
+            int length = record.substring(0, record.length() - configuration.getRecordSeparator().length())
+                    .getBytes(charset).length;
+
+            ByteBuffer buffer = ByteBuffer.wrap(record.getBytes(charset));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, size + buffer.position());
+            }
+            channel.force(true);
+
+            appendToIndex(channel, fingerprint, size, length);
+        }
+
+        return true;
+    }
+
+    private boolean endsWithLineBreak(FileChannel channel, long size) throws IOException {
+        if (size == 0) {
+            return false;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        if (channel.read(buffer, size - 1) != 1) {
+            return false;
+        }
+
+        byte last = buffer.get(0);
+        return last == '\n' || last == '\r';
+    }
+
+    /**
+     * Checks whether record with unique attribute value exists, values are compared the same way as when
+     * the file is rewritten.
+     */
+    private boolean containsUid(String uid) throws IOException {
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+
+        List<CSVRecord> records = readRecordsUsingUidIndex(uid);
+        if (records != null) {
+            return records.stream().anyMatch(record -> uid.equals(record.get(uidIndex)));
+        }
+
+        try (CsvRowReader reader = createRowReader()) {
+            CsvRow record;
+            while ((record = reader.next()) != null) {
+                if (skipRecord(record)) {
+                    continue;
+                }
+
+                checkColumnCount(record);
+
+                if (uid.equals(record.get(uidIndex))) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Adds appended record to record index, so it doesn't have to be rebuilt. Record is parsed from the file,
+     * index contains the same values as if it was built from the whole file.
+     *
+     * @param fingerprint fingerprint of the file before the record was appended
+     */
+    private void appendToIndex(FileChannel channel, FileFingerprint fingerprint, long offset, int length)
+            throws IOException {
+        AtomicReference<RecordIndex> reference = configuration.isIndexEnabled()
+                ? INDEXES.get(configuration.getFilePath(), createIndexKey()) : null;
+        RecordIndex index = reference != null ? reference.get() : null;
+        if (index == null || !fingerprint.equals(index.getFingerprint())) {
+            return;
+        }
+
+        RecordRange range = new RecordRange(offset, length, index.getLastRecordNumber() + 1);
+        CSVRecord record = Util.readRecord(channel, range, configuration);
+        if (record == null || record.size() != getHeader().size()) {
+            LOG.warn("Appended record in {0} can't be parsed, record index will be rebuilt",
+                    configuration.getFilePath());
+            return;
+        }
+
+        String uid = record.get(getHeader().get(configuration.getUniqueAttribute()).getIndex());
+        String name = record.get(getHeader().get(configuration.getNameAttribute()).getIndex());
+
+        index.append(fingerprint, FileFingerprint.of(configuration.getFilePath()), range, uid, name);
+    }
+
     private void moveTmpToOrig() throws IOException {
         // moving existing file
         String path = configuration.getFilePath().getPath();
@@ -352,7 +551,24 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 
         File tmp = Util.createTmpPath(configuration);
 
-        Files.move(tmp.toPath(), orig.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        // content has to be durable before it replaces the old file, otherwise both can be lost
+        boolean durable = configuration.getDurabilityMode() != Durability.NONE;
+        if (durable) {
+            Util.force(tmp);
+        }
+
+        // readers don't lock the file, they must never see it missing, see FileSnapshot
+        try {
+            Files.move(tmp.toPath(), orig.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            LOG.warn("Atomic move from {0} to {1} is not supported, readers can fail while file is replaced",
+                    tmp, orig);
+            Files.move(tmp.toPath(), orig.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        if (durable) {
+            Util.forceDirectory(orig.getAbsoluteFile().getParentFile());
+        }
     }
 
     private boolean isPassword(String column) {
@@ -423,7 +639,7 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 
     @Override
     public Uid resolveUsername(ObjectClass oc, String username, OperationOptions oo) {
-        return resolveUsername(username, null, oo, false);
+        return readSnapshot(() -> resolveUsername(username, null, oo, false));
     }
 
     @Override
@@ -433,6 +649,10 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
     }
 
     private boolean skipRecord(CSVRecord record) {
+        return skipRecord(CsvRow.of(record));
+    }
+
+    private boolean skipRecord(CsvRow record) {
         if (configuration.isHeaderExists() && record.getRecordNumber() == 1) {
             return true;
         }
@@ -446,140 +666,1074 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 
     @Override
     public void executeQuery(ObjectClass oc, Filter filter, ResultsHandler handler, OperationOptions oo) {
-        CSVFormat csv = Util.createCsvFormatReader(configuration);
-        try (Reader reader = Util.createReader(configuration)) {
+        readSnapshot(() -> {
+            executeQuery(filter, handler, oo);
+            return null;
+        });
+    }
 
-            CSVParser parser = csv.parse(reader);
-            Iterator<CSVRecord> iterator = parser.iterator();
-            while (iterator.hasNext()) {
-                CSVRecord record = iterator.next();
-                if (skipRecord(record)) {
-                    continue;
-                }
+    /**
+     * Runs read operation on snapshot of the file, see {@link FileSnapshot}. All reads of the operation (header,
+     * journal, records, index lookups) see the same version of the file, even if writers replace it meanwhile.
+     * Readers don't take file locks, so they never wait for writers and writers never wait for them.
+     */
+    private <T> T readSnapshot(Supplier<T> operation) {
+        if (snapshot != null) {
+            return operation.get();
+        }
 
-                ConnectorObject obj = createConnectorObject(record);
+        try {
+            pinSnapshot();
+        } catch (Exception ex) {
+            releaseSnapshot();
+            handleGenericException(ex, "Couldn't open file " + configuration.getFilePath());
+        }
 
-                String uid = extractUidFromFilter(filter);
+        try {
+            return operation.get();
+        } finally {
+            releaseSnapshot();
+        }
+    }
 
-                if (uid == null) {
-                    if (filter == null || filter.accept(obj)) {
-                        if (!handler.handle(obj)) {
-                            break;
-                        }
-                    }
-                    continue;
-                }
+    /**
+     * Opens snapshot of the file and reads journal. Journal is read after the file is opened and compaction
+     * replaces the file before it removes the journal, so if the file is still the same after journal was read,
+     * journal belongs to the snapshot. Otherwise both are read again.
+     */
+    private void pinSnapshot() throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            snapshot = FileSnapshot.open(configuration.getFilePath());
+            snapshotJournal = readJournalFile();
+
+            if (snapshot.isCurrent() || attempt == MAX_SNAPSHOT_ATTEMPTS) {
+                return;
+            }
 
-                if (!uidMatches(uid, obj.getUid().getUidValue(), configuration.isIgnoreIdentifierCase())) {
-                    continue;
-                }
+            releaseSnapshot();
+        }
+    }
 
-                if (!handler.handle(obj)) {
-                    break;
+    private void releaseSnapshot() {
+        Util.closeQuietly(snapshot);
+        snapshot = null;
+        snapshotJournal = null;
+    }
+
+    private void executeQuery(Filter filter, ResultsHandler handler, OperationOptions oo) {
+        String uid = extractUidFromFilter(filter);
+
+        Predicate<CsvRow> predicate = null;
+        boolean exact = false;
+        if (uid == null && filter != null) {
+            FilterCompiler compiler = new FilterCompiler(getDecoder());
+
+            predicate = compiler.compile(filter);
+            exact = predicate != null;
+            if (!exact) {
+                predicate = compiler.compilePrefilter(filter);
+            }
+        }
+
+        // attributes used only by compiled filter don't have to be converted
+        boolean[] projection = createProjection(uid == null && !exact ? filter : null, oo);
+
+        Journal journal = null;
+        try {
+            journal = readJournal();
+            if (uid != null && journal != null && journal.contains(uid)) {
+                String[] values = journal.get(uid);
+                if (values != null) {
+                    handler.handle(createConnectorObject(CsvRow.of(values, 0), projection));
                 }
+                return;
             }
         } catch (Exception ex) {
             handleGenericException(ex, "Error during query execution");
         }
-    }
 
-    private String extractUidFromFilter(Filter filter) {
-        if (!(filter instanceof EqualsFilter eq)) {
-            return null;
-        }
-        if (Uid.NAME.equals(eq.getName())) {
-            List<Object> values = eq.getAttribute().getValue();
-            if (values == null || values.isEmpty()) {
-                return null;
+        // cached objects don't contain changes from journal
+        boolean journaled = journal != null && !journal.isEmpty();
+        ObjectCache cache = !journaled ? getObjectCache() : null;
+        if (uid != null && cache != null) {
+            try {
+                executeQueryUsingCache(cache, uid, projection, handler);
+            } catch (Exception ex) {
+                handleGenericException(ex, "Error during query execution");
             }
-            if (values.size() > 1) {
-                throw new IllegalArgumentException("Illegal search filter for CSV connector, requesting multiple UID values");
+            return;
+        }
+
+        try {
+            if (uid != null && executeQueryUsingIndex(uid, projection, handler)) {
+                return;
             }
-            return (String) values.get(0);
-        } else {
-            return null;
+        } catch (Exception ex) {
+            handleGenericException(ex, "Error during query execution");
         }
-    }
 
-    private boolean uidMatches(String uid1, String uid2, boolean ignoreCase) {
-        return uid1.equals(uid2) || ignoreCase && uid1.equalsIgnoreCase(uid2);
-    }
+        Comparator<CsvRow> comparator = uid == null && oo != null ? createSortComparator(oo.getSortKeys()) : null;
+        if (comparator != null) {
+            try {
+                executeSortedQuery(filter, predicate, exact, projection, comparator, handler, oo, journal);
+            } catch (Exception ex) {
+                handleGenericException(ex, "Error during sorted query execution");
+            }
+            return;
+        }
 
-    private void validateAuthenticationInputs(String username, GuardedString password, boolean authenticate) {
-        if (StringUtil.isEmpty(username)) {
-            throw new InvalidCredentialException("Username must not be empty");
+        if (uid == null && oo != null && oo.getPageSize() != null && oo.getPageSize() > 0) {
+            try {
+                if (journaled) {
+                    executeJournalPagedQuery(filter, predicate, exact, projection, handler, oo);
+                } else {
+                    executePagedQuery(filter, predicate, exact, projection, handler, oo);
+                }
+            } catch (Exception ex) {
+                handleGenericException(ex, "Error during paged query execution");
+            }
+            return;
         }
 
-        if (authenticate && StringUtil.isEmpty(configuration.getPasswordAttribute())) {
-            throw new ConfigurationException("Password attribute not defined in configuration");
+        try {
+            if (uid == null && cache != null && executeQueryUsingCachedObjects(cache, filter, projection, handler)) {
+                return;
+            }
+        } catch (Exception ex) {
+            handleGenericException(ex, "Error during query execution");
         }
 
-        if (authenticate && password == null) {
-            throw new InvalidPasswordException("Password is not defined");
+        // journal can't be applied to parts of the file, it's applied by sequential scan
+        if (uid == null && !journaled && configuration.getParallelScanThreads() > 1
+                && Util.isByteScanSupported(configuration)) {
+            try {
+                executeParallelQuery(filter, predicate, exact, projection, handler);
+            } catch (Exception ex) {
+                handleGenericException(ex, "Error during parallel query execution");
+            }
+            return;
         }
-    }
 
-    private Uid resolveUsername(String username, GuardedString password, OperationOptions oo, boolean authenticate) {
-        validateAuthenticationInputs(username, password, authenticate);
+        // scan without filter reads all objects, they're cached if they fit
+        List<ConnectorObject> all = uid == null && filter == null && cache != null ? new ArrayList<>() : null;
+        try {
+            FileFingerprint fingerprint = snapshot.getFingerprint();
 
-        CSVFormat csv = Util.createCsvFormatReader(configuration);
-        try (Reader reader = Util.createReader(configuration)) {
+            try (CsvRowReader reader = createRowReader()) {
 
-            ConnectorObject object = null;
+                CsvRow record;
+                while ((record = reader.next()) != null) {
+                    if (skipRecord(record)) {
+                        continue;
+                    }
 
-            CSVParser parser = csv.parse(reader);
-            Iterator<CSVRecord> iterator = parser.iterator();
-            while (iterator.hasNext()) {
-                CSVRecord record = iterator.next();
-                if (skipRecord(record)) {
-                    continue;
-                }
+                    if (predicate != null) {
+                        checkColumnCount(record);
 
-                ConnectorObject obj = createConnectorObject(record);
+                        if (!predicate.test(record)) {
+                            continue;
+                        }
+                    }
 
-                Name name = obj.getName();
-                if (name != null && username.equals(AttributeUtil.getStringValue(name))) {
-                    object = obj;
-                    break;
-                }
-            }
+                    ConnectorObject obj;
+                    if (all != null) {
+                        obj = createConnectorObject(record, null);
+                        all.add(obj);
+                        if (all.size() > cache.getMaxSize()) {
+                            all = null;
+                        }
+                        obj = getDecoder().project(obj, projection);
+                    } else {
+                        obj = createConnectorObject(record, projection);
+                    }
 
-            if (object == null) {
-                String message = authenticate ? "Invalid username and/or password" : "Invalid username";
-                throw new InvalidCredentialException(message);
-            }
+                    if (uid == null) {
+                        if (filter == null || exact || filter.accept(obj)) {
+                            if (!handler.handle(obj)) {
+                                all = null;
+                                break;
+                            }
+                        }
+                        continue;
+                    }
 
-            if (authenticate) {
-                authenticate(username, password, object);
-            }
+                    if (!uidMatches(uid, obj.getUid().getUidValue(), configuration.isIgnoreIdentifierCase())) {
+                        continue;
+                    }
 
-            Uid uid = object.getUid();
-            if (uid == null) {
-                throw new UnknownUidException("Unique attribute doesn't have value for account '" + username + "'");
+                    if (!handler.handle(obj)) {
+                        break;
+                    }
+                }
             }
 
-            return uid;
+            if (all != null) {
+                cache.putAll(fingerprint, all);
+            }
         } catch (Exception ex) {
-            handleGenericException(ex, "Error during authentication");
+            handleGenericException(ex, "Error during query execution");
         }
-
-        return null;
     }
 
-    private void authenticate(String username, GuardedString password, ConnectorObject foundObject) {
-        GuardedString objPassword = AttributeUtil.getPasswordValue(foundObject.getAttributes());
-        if (objPassword == null) {
-            throw new InvalidPasswordException("Password not defined for username '" + username + "'");
+    /**
+     * @return cache of objects shared by all handlers with the same configuration, or null if it's disabled.
+     * Cache of the file created for other configuration (e.g. other cache size) is dropped.
+     */
+    public ObjectCache getObjectCache() {
+        if (configuration.getObjectCacheSize() <= 0) {
+            return null;
         }
 
-        // we don't want to authenticate against empty password
-        StringAccessor acc = new StringAccessor();
-        objPassword.access(acc);
-        if (StringUtil.isEmpty(acc.getValue())) {
-            throw new InvalidPasswordException("Password not defined for username '" + username + "'");
-        }
+        return OBJECT_CACHES.computeIfAbsent(configuration.getFilePath(), createObjectCacheKey(),
+                () -> new ObjectCache(configuration.getObjectCacheSize(), configuration.isIgnoreIdentifierCase()));
+    }
 
-        if (!objPassword.equals(password)) {
+    /**
+     * Objects depend on the same configuration as index and on the way attribute values are created.
+     */
+    private String createObjectCacheKey() {
+        return String.join("|", createIndexKey(), configuration.getPasswordAttribute(),
+                configuration.getMultivalueDelimiter(), configuration.getLastLoginDateAttribute(),
+                configuration.getLastLoginDateFormat(), Boolean.toString(configuration.isTrailingDelimiter()),
+                Integer.toString(configuration.getObjectCacheSize()));
+    }
+
+    private void executeQueryUsingCache(ObjectCache cache, String uid, boolean[] projection, ResultsHandler handler)
+            throws IOException {
+        FileFingerprint fingerprint = snapshot.getFingerprint();
+
+        List<ConnectorObject> objects = cache.get(fingerprint, uid);
+        if (objects == null) {
+            objects = findByUid(uid);
+            cache.put(fingerprint, uid, objects);
+        }
+
+        for (ConnectorObject object : objects) {
+            if (!handler.handle(getDecoder().project(object, projection))) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return false if all objects of the file aren't cached
+     */
+    private boolean executeQueryUsingCachedObjects(ObjectCache cache, Filter filter, boolean[] projection,
+                                                   ResultsHandler handler) throws IOException {
+        List<ConnectorObject> objects = cache.getAll(snapshot.getFingerprint());
+        if (objects == null) {
+            return false;
+        }
+
+        for (ConnectorObject object : objects) {
+            if (filter != null && !filter.accept(object)) {
+                continue;
+            }
+
+            if (!handler.handle(getDecoder().project(object, projection))) {
+                break;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return objects with all attributes which have the unique attribute value, found using index if possible
+     */
+    private List<ConnectorObject> findByUid(String uid) throws IOException {
+        List<ConnectorObject> objects = new ArrayList<>();
+
+        List<CSVRecord> records = readRecordsUsingUidIndex(uid);
+        if (records != null) {
+            for (CSVRecord record : records) {
+                objects.add(createConnectorObject(record));
+            }
+            return objects;
+        }
+
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+
+        try (CsvRowReader reader = createRowReader()) {
+            CsvRow record;
+            while ((record = reader.next()) != null) {
+                if (skipRecord(record)) {
+                    continue;
+                }
+
+                checkColumnCount(record);
+
+                if (uidMatches(uid, record.get(uidIndex), configuration.isIgnoreIdentifierCase())) {
+                    objects.add(createConnectorObject(record, null));
+                }
+            }
+        }
+
+        return objects;
+    }
+
+    /**
+     * Full scan done by more threads, see {@link ParallelScan}. Records are filtered and converted to objects
+     * by worker threads, handler is called from this thread.
+     */
+    private void executeParallelQuery(Filter filter, Predicate<CsvRow> predicate, boolean exact,
+                                      boolean[] projection, ResultsHandler handler) throws Exception {
+        // header and decoder are created lazily, they have to exist before workers use them
+        getDecoder();
+
+        ParallelScan scan = new ParallelScan(configuration, configuration.getParallelScanThreads(),
+                configuration.isParallelScanPreserveOrder());
+
+        scan.execute(snapshot.getChannel(), snapshot.getSize(), (rows, stopped) -> {
+            List<ConnectorObject> objects = new ArrayList<>();
+
+            CsvRow record;
+            while (!stopped.getAsBoolean() && (record = rows.next()) != null) {
+                if (skipRecord(record)) {
+                    continue;
+                }
+
+                if (predicate != null) {
+                    checkColumnCount(record);
+
+                    if (!predicate.test(record)) {
+                        continue;
+                    }
+                }
+
+                ConnectorObject obj = createConnectorObject(record, projection);
+                if (filter == null || exact || filter.accept(obj)) {
+                    objects.add(obj);
+                }
+            }
+
+            return objects;
+        }, handler::handle);
+    }
+
+    /**
+     * @return reader of CSV file with changes from journal applied
+     */
+    private CsvRowReader createRowReader() throws IOException {
+        Journal journal = readJournal();
+        if (journal == null || journal.isEmpty()) {
+            return createFileRowReader();
+        }
+
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+
+        return new JournalRowReader(createFileRowReader(), journal, uidIndex, configuration.isHeaderExists());
+    }
+
+    /**
+     * @return reader of CSV file, memory-mapped if it's enabled and records can be found on bytes
+     */
+    private CsvRowReader createFileRowReader() throws IOException {
+        if (configuration.isMappedReaderEnabled()) {
+            if (Util.isByteScanSupported(configuration)) {
+                return snapshot != null
+                        ? new MappedCsvReader(snapshot.getChannel(), configuration, 0, snapshot.getSize(), 0)
+                        : new MappedCsvReader(configuration.getFilePath(), configuration);
+            }
+
+            LOG.ok("Memory-mapped reader can't be used for encoding {0}, file will be parsed",
+                    configuration.getEncoding());
+        }
+
+        CSVFormat csv = Util.createCsvFormatReader(configuration);
+        return CsvRowReader.of(csv.parse(createFileReader()));
+    }
+
+    /**
+     * @return reader of snapshot if it's pinned, otherwise of the current file
+     */
+    private Reader createFileReader() throws IOException {
+        return snapshot != null ? snapshot.createReader(configuration.getEncoding()) : Util.createReader(configuration);
+    }
+
+    /**
+     * @return comparator of records, or null if there's nothing to sort by (no sort keys or only attributes
+     * which objects don't have)
+     */
+    private Comparator<CsvRow> createSortComparator(SortKey[] sortKeys) {
+        if (sortKeys == null) {
+            return null;
+        }
+
+        Comparator<CsvRow> result = null;
+        for (SortKey sortKey : sortKeys) {
+            int column = getDecoder().findStringColumn(sortKey.getField());
+            if (column == RowDecoder.UNSUPPORTED) {
+                throw new InvalidAttributeValueException("Sorting by attribute " + sortKey.getField()
+                        + " is not supported");
+            }
+
+            if (column == RowDecoder.ABSENT) {
+                continue;
+            }
+
+            // in ascending order records without value are after records with value
+            Comparator<CsvRow> comparator = Comparator.comparing(record -> record.get(column),
+                    Comparator.comparing(StringUtil::isEmpty).thenComparing(Comparator.naturalOrder()));
+            if (!sortKey.isAscendingOrder()) {
+                comparator = comparator.reversed();
+            }
+
+            result = result == null ? comparator : result.thenComparing(comparator);
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads all matching records and sorts them, see {@link RecordSorter}. If only one page is requested,
+     * only records up to the end of the page are kept. Paged results cookie isn't supported, records are
+     * returned from the position given by paged results offset.
+     * <p>
+     * Records changed by journal are skipped in the file, their current values are sorted in memory (journal
+     * is limited by compaction threshold) and merged with sorted records of the file.
+     */
+    private void executeSortedQuery(Filter filter, Predicate<CsvRow> predicate, boolean exact,
+                                    boolean[] projection, Comparator<CsvRow> comparator, ResultsHandler handler,
+                                    OperationOptions oo, Journal journal) throws IOException {
+
+        boolean paged = oo.getPageSize() != null && oo.getPageSize() > 0;
+        int offset = paged && oo.getPagedResultsOffset() != null ? Math.max(oo.getPagedResultsOffset() - 1, 0) : 0;
+
+        int topLimit = -1;
+        if (paged && (long) offset + oo.getPageSize() <= configuration.getInMemorySortLimit()) {
+            topLimit = offset + oo.getPageSize();
+        }
+
+        boolean journaled = journal != null && !journal.isEmpty();
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+
+        String runPrefix = configuration.getFilePath().getName() + ".";
+
+        CSVFormat csv = Util.createCsvFormatReader(configuration);
+        try (RecordSorter sorter = new RecordSorter(Comparator.comparing(CsvRow::of, comparator),
+                configuration.getInMemorySortLimit(), configuration.getTmpFolder(), runPrefix, topLimit);
+             Reader reader = createFileReader()) {
+
+            CSVParser parser = csv.parse(reader);
+            for (CSVRecord record : parser) {
+                if (skipRecord(record)) {
+                    continue;
+                }
+
+                if (journaled && uidIndex < record.size() && journal.contains(record.get(uidIndex))) {
+                    continue;
+                }
+
+                if (acceptRecord(CsvRow.of(record), filter, predicate, exact, projection)) {
+                    sorter.add(record);
+                }
+            }
+
+            List<CsvRow> journalRecords = new ArrayList<>();
+            if (journaled) {
+                for (String[] values : journal.getRecords().values()) {
+                    if (values == null) {
+                        continue;
+                    }
+
+                    CsvRow record = CsvRow.of(values, 0);
+                    if (acceptRecord(record, filter, predicate, exact, projection)) {
+                        journalRecords.add(record);
+                    }
+                }
+                journalRecords.sort(comparator);
+            }
+
+            int skip = offset;
+            int count = 0;
+
+            Iterator<CSVRecord> iterator = sorter.sorted();
+            Iterator<CsvRow> journalIterator = journalRecords.iterator();
+            CSVRecord next = iterator.hasNext() ? iterator.next() : null;
+            CsvRow nextJournal = journalIterator.hasNext() ? journalIterator.next() : null;
+
+            while ((next != null || nextJournal != null) && (!paged || count < oo.getPageSize())) {
+                CsvRow record;
+                if (nextJournal == null || next != null && comparator.compare(CsvRow.of(next), nextJournal) <= 0) {
+                    record = CsvRow.of(next);
+                    next = iterator.hasNext() ? iterator.next() : null;
+                } else {
+                    record = nextJournal;
+                    nextJournal = journalIterator.hasNext() ? journalIterator.next() : null;
+                }
+
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+
+                count++;
+                if (!handler.handle(createConnectorObject(record, projection))) {
+                    break;
+                }
+            }
+
+            if (paged) {
+                long remaining = Math.max(sorter.getCount() + journalRecords.size() - offset - count, 0);
+                handleSearchResult(handler, new SearchResult(null, (int) Math.min(remaining, Integer.MAX_VALUE)));
+            }
+        }
+    }
+
+    /**
+     * @return true if record matches compiled filter and filter (if it isn't exact)
+     */
+    private boolean acceptRecord(CsvRow record, Filter filter, Predicate<CsvRow> predicate, boolean exact,
+                                 boolean[] projection) {
+        if (predicate != null) {
+            checkColumnCount(record);
+
+            if (!predicate.test(record)) {
+                return false;
+            }
+        }
+
+        return filter == null || exact || filter.accept(createConnectorObject(record, projection));
+    }
+
+    /**
+     * Returns one page of results with changes from journal applied. Positions of records in the file don't
+     * match the records returned, so paged results cookie isn't created and records before paged results
+     * offset are parsed and skipped.
+     */
+    private void executeJournalPagedQuery(Filter filter, Predicate<CsvRow> predicate, boolean exact,
+                                          boolean[] projection, ResultsHandler handler, OperationOptions oo)
+            throws IOException {
+
+        if (oo.getPagedResultsCookie() != null) {
+            throw new ConnectorException("File " + configuration.getFilePath() + " changed, paged results cookie '"
+                    + oo.getPagedResultsCookie() + "' is not valid anymore");
+        }
+
+        int skip = oo.getPagedResultsOffset() != null ? Math.max(oo.getPagedResultsOffset() - 1, 0) : 0;
+        int count = 0;
+
+        try (CsvRowReader reader = createRowReader()) {
+            CsvRow record;
+            while (count < oo.getPageSize() && (record = reader.next()) != null) {
+                if (skipRecord(record) || !acceptRecord(record, filter, predicate, exact, projection)) {
+                    continue;
+                }
+
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+
+                count++;
+                if (!handler.handle(createConnectorObject(record, projection))) {
+                    break;
+                }
+            }
+        }
+
+        handleSearchResult(handler, new SearchResult(null, -1));
+    }
+
+    /**
+     * Returns one page of results. Parsing starts at the position from paged results cookie, or at the record
+     * from paged results offset if it can be found in index (only without filter). Otherwise records before
+     * the offset are parsed and skipped.
+     * <p>
+     * Cookie for the next page is created only if record boundaries can be found on bytes, see
+     * {@link RecordScanner}. Remaining results are known only if index is available and there's no filter.
+     */
+    private void executePagedQuery(Filter filter, Predicate<CsvRow> predicate, boolean exact,
+                                   boolean[] projection, ResultsHandler handler, OperationOptions oo)
+            throws IOException {
+
+        File file = configuration.getFilePath();
+        int pageSize = oo.getPageSize();
+        boolean byteScan = Util.isByteScanSupported(configuration);
+
+        RecordIndex index = filter == null ? getIndex() : null;
+
+        FileChannel channel = snapshot.getChannel();
+        FileFingerprint fingerprint = snapshot.getFingerprint();
+        if (index != null && !index.getFingerprint().equals(fingerprint)) {
+            index = null;
+        }
+
+        long position = 0;
+        long recordNumber = 1;
+        int skip = 0;
+
+        if (oo.getPagedResultsCookie() != null) {
+            PagedResultsCookie cookie = PagedResultsCookie.decode(oo.getPagedResultsCookie());
+            if (!byteScan || cookie.fingerprint() != fingerprint.checksum()) {
+                throw new ConnectorException("File " + file + " changed, paged results cookie '"
+                        + oo.getPagedResultsCookie() + "' is not valid anymore");
+            }
+
+            position = cookie.position();
+            recordNumber = cookie.recordNumber();
+        } else if (oo.getPagedResultsOffset() != null && oo.getPagedResultsOffset() > 1) {
+            skip = oo.getPagedResultsOffset() - 1;
+
+            if (index != null) {
+                if (skip >= index.getRecordCount()) {
+                    handleSearchResult(handler, new SearchResult(null, 0));
+                    return;
+                }
+
+                RecordRange range = index.getRecord(skip);
+                position = range.offset();
+                recordNumber = range.recordNumber();
+                skip = 0;
+            }
+        }
+
+        long size = snapshot.getSize();
+        Reader reader = new BufferedReader(new InputStreamReader(new ChannelInputStream(channel, position, size),
+                configuration.getEncoding()));
+        CSVParser parser = new CSVParser(reader, Util.createCsvFormatReader(configuration), 0, recordNumber);
+
+        RecordScanner scanner = byteScan ? new RecordScanner(new ChannelInputStream(channel, position, size),
+                configuration, position, recordNumber - 1) : null;
+
+        int count = 0;
+        long lastRecordNumber = 0;
+
+        Iterator<CSVRecord> iterator = parser.iterator();
+        while (count < pageSize && iterator.hasNext()) {
+            CSVRecord record = iterator.next();
+
+            if (scanner != null) {
+                RecordRange range = scanner.next();
+                if (range == null || range.recordNumber() != record.getRecordNumber()) {
+                    LOG.warn("Couldn't match record positions in {0}, paged results cookie won't be created",
+                            file);
+                    scanner = null;
+                }
+            }
+
+            if (skipRecord(record)) {
+                continue;
+            }
+
+            if (predicate != null) {
+                checkColumnCount(record);
+
+                if (!predicate.test(CsvRow.of(record))) {
+                    continue;
+                }
+            }
+
+            ConnectorObject obj = null;
+            if (filter != null && !exact) {
+                obj = createConnectorObject(record, projection);
+                if (!filter.accept(obj)) {
+                    continue;
+                }
+            }
+
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+
+            if (obj == null) {
+                obj = createConnectorObject(record, projection);
+            }
+
+            count++;
+            lastRecordNumber = record.getRecordNumber();
+
+            if (!handler.handle(obj)) {
+                break;
+            }
+        }
+
+        String nextCookie = null;
+        int remaining = -1;
+
+        if (scanner != null && count > 0) {
+            long nextPosition = scanner.getPosition();
+
+            if (index != null) {
+                remaining = index.countRecordsFrom(nextPosition);
+            }
+
+            if (remaining != 0 && scanner.next() != null) {
+                nextCookie = new PagedResultsCookie(nextPosition, lastRecordNumber + 1, fingerprint.checksum())
+                        .encode();
+            }
+        } else if (index != null) {
+            remaining = 0;
+        }
+
+        handleSearchResult(handler, new SearchResult(nextCookie, remaining));
+    }
+
+    private void handleSearchResult(ResultsHandler handler, SearchResult result) {
+        if (handler instanceof SearchResultsHandler) {
+            ((SearchResultsHandler) handler).handleResult(result);
+        }
+    }
+
+    /**
+     * @return false if index can't be used (it's disabled, not supported for configured encoding or the file
+     * changed while reading), search has to scan the whole file in that case
+     */
+    private boolean executeQueryUsingIndex(String uid, boolean[] projection, ResultsHandler handler)
+            throws IOException {
+        List<CSVRecord> records = readRecordsUsingUidIndex(uid);
+        if (records == null) {
+            return false;
+        }
+
+        List<ConnectorObject> objects = new ArrayList<>();
+        for (CSVRecord record : records) {
+            objects.add(createConnectorObject(record, projection));
+        }
+
+        for (ConnectorObject object : objects) {
+            if (!handler.handle(object)) {
+                break;
+            }
+        }
+
+        return true;
+    }
+
+    private List<CSVRecord> readRecordsUsingUidIndex(String uid) throws IOException {
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+
+        return readRecordsUsingIndex(index -> index.findUid(uid),
+                record -> uidMatches(uid, record.get(uidIndex), configuration.isIgnoreIdentifierCase()));
+    }
+
+    /**
+     * Reads records from positions found in index. Every record is checked by matcher, if it doesn't match
+     * (index doesn't belong to the file that was opened) no records are returned.
+     *
+     * @return matching records in file order, or null if index can't be used
+     */
+    private List<CSVRecord> readRecordsUsingIndex(Function<RecordIndex, List<RecordRange>> lookup,
+                                                  Predicate<CSVRecord> matcher) throws IOException {
+        RecordIndex index = getIndex();
+        if (index == null) {
+            return null;
+        }
+
+        File file = configuration.getFilePath();
+
+        if (snapshot != null) {
+            if (!index.getFingerprint().equals(snapshot.getFingerprint())) {
+                LOG.ok("File {0} changed, index can't be used", file);
+                return null;
+            }
+
+            return readRecordsUsingIndex(snapshot.getChannel(), index, lookup, matcher);
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (!index.getFingerprint().matches(file)) {
+                LOG.ok("File {0} changed, index can't be used", file);
+                return null;
+            }
+
+            return readRecordsUsingIndex(channel, index, lookup, matcher);
+        }
+    }
+
+    private List<CSVRecord> readRecordsUsingIndex(FileChannel channel, RecordIndex index,
+                                                  Function<RecordIndex, List<RecordRange>> lookup,
+                                                  Predicate<CSVRecord> matcher) throws IOException {
+        List<CSVRecord> records = new ArrayList<>();
+        for (RecordRange range : lookup.apply(index)) {
+            CSVRecord record = Util.readRecord(channel, range, configuration);
+            if (record == null || record.size() != getHeader().size() || !matcher.test(record)) {
+                LOG.warn("Record index for {0} doesn't match file content, index can't be used",
+                        configuration.getFilePath());
+                return null;
+            }
+
+            records.add(record);
+        }
+
+        return records;
+    }
+
+    /**
+     * @return index for the current version of the file, or null if index is disabled or can't be built
+     */
+    private RecordIndex getIndex() {
+        if (!configuration.isIndexEnabled() || !Util.isByteScanSupported(configuration)) {
+            return null;
+        }
+
+        File file = configuration.getFilePath();
+
+        AtomicReference<RecordIndex> reference = INDEXES.computeIfAbsent(file, createIndexKey(),
+                AtomicReference::new);
+
+        RecordIndex index = reference.get();
+        if (index != null && index.getFingerprint().matches(file)) {
+            return index;
+        }
+
+        synchronized (reference) {
+            index = reference.get();
+            if (index == null || !index.getFingerprint().matches(file)) {
+                index = buildIndex();
+                reference.set(index);
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Index content depends on file and on everything that changes how the file is parsed.
+     */
+    private String createIndexKey() {
+        String path;
+        try {
+            path = configuration.getFilePath().getCanonicalPath();
+        } catch (IOException ex) {
+            path = configuration.getFilePath().getAbsolutePath();
+        }
+
+        return String.join("|", path, configuration.getEncoding(), configuration.getFieldDelimiter(),
+                configuration.getQuote(), configuration.getEscape(), configuration.getCommentMarker(),
+                Boolean.toString(configuration.isIgnoreEmptyLines()),
+                Boolean.toString(configuration.isIgnoreSurroundingSpaces()),
+                Boolean.toString(configuration.isTrim()), Boolean.toString(configuration.isHeaderExists()),
+                configuration.getUniqueAttribute(), configuration.getNameAttribute(),
+                Boolean.toString(configuration.isIgnoreIdentifierCase()));
+    }
+
+    private RecordIndex buildIndex() {
+        File file = configuration.getFilePath();
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+        int nameIndex = getHeader().get(configuration.getNameAttribute()).getIndex();
+
+        LOG.ok("Building record index for {0}", file);
+
+        try {
+            FileFingerprint fingerprint = FileFingerprint.of(file);
+            RecordIndex index = new RecordIndex(fingerprint, configuration.isIgnoreIdentifierCase(),
+                    isUniqueAndNameAttributeEqual());
+
+            CSVFormat csv = Util.createCsvFormatReader(configuration);
+            try (Reader reader = Util.createReader(configuration);
+                 RecordScanner scanner = new RecordScanner(new FileInputStream(file), configuration)) {
+
+                CSVParser parser = csv.parse(reader);
+                for (CSVRecord record : parser) {
+                    RecordRange range = scanner.next();
+                    if (range == null || range.recordNumber() != record.getRecordNumber()) {
+                        LOG.warn("Couldn't match record positions in {0}, record index won't be used", file);
+                        return null;
+                    }
+
+                    if (skipRecord(record)) {
+                        continue;
+                    }
+
+                    checkColumnCount(record);
+
+                    index.addRecord(range);
+
+                    String uid = record.get(uidIndex);
+                    if (StringUtil.isNotEmpty(uid)) {
+                        index.addUid(uid, range);
+                    }
+
+                    String name = record.get(nameIndex);
+                    if (StringUtil.isNotEmpty(name)) {
+                        index.addName(name, range);
+                    }
+                }
+
+                if (scanner.next() != null) {
+                    LOG.warn("Couldn't match record positions in {0}, record index won't be used", file);
+                    return null;
+                }
+
+                index.setLastRecordNumber(parser.getRecordNumber());
+            }
+
+            if (!fingerprint.matches(file)) {
+                LOG.ok("File {0} changed while building record index", file);
+                return null;
+            }
+
+            LOG.ok("Record index for {0} created, {1} unique values", file, index.size());
+
+            return index;
+        } catch (Exception ex) {
+            handleGenericException(ex, "Couldn't create record index");
+        }
+
+        return null;
+    }
+
+    /**
+     * Columns which have to be converted to attributes to return attributes requested in options and to
+     * evaluate filter. Unique and name columns are always converted, connector object can't be created
+     * without them.
+     *
+     * @return flags indexed by column index, or null if all columns are needed
+     */
+    private boolean[] createProjection(Filter filter, OperationOptions oo) {
+        if (oo == null || oo.getAttributesToGet() == null || Boolean.TRUE.equals(oo.getReturnDefaultAttributes())) {
+            return null;
+        }
+
+        Set<String> names = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        names.addAll(Arrays.asList(oo.getAttributesToGet()));
+
+        if (filter != null && !collectFilterAttributes(filter, names)) {
+            return null;
+        }
+
+        return getDecoder().createProjection(names);
+    }
+
+    /**
+     * @return false if filter contains unknown filter type, all attributes have to be available in that case
+     */
+    private boolean collectFilterAttributes(Filter filter, Set<String> names) {
+        if (filter instanceof AttributeFilter af) {
+            names.add(af.getName());
+            return true;
+        }
+
+        if (filter instanceof NotFilter nf) {
+            return collectFilterAttributes(nf.getFilter(), names);
+        }
+
+        if (filter instanceof CompositeFilter cf) {
+            for (Filter f : cf.getFilters()) {
+                if (!collectFilterAttributes(f, names)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    private String extractUidFromFilter(Filter filter) {
+        if (!(filter instanceof EqualsFilter eq)) {
+            return null;
+        }
+        if (Uid.NAME.equals(eq.getName())) {
+            List<Object> values = eq.getAttribute().getValue();
+            if (values == null || values.isEmpty()) {
+                return null;
+            }
+            if (values.size() > 1) {
+                throw new IllegalArgumentException("Illegal search filter for CSV connector, requesting multiple UID values");
+            }
+            return (String) values.get(0);
+        } else {
+            return null;
+        }
+    }
+
+    private boolean uidMatches(String uid1, String uid2, boolean ignoreCase) {
+        return uid1.equals(uid2) || ignoreCase && uid1.equalsIgnoreCase(uid2);
+    }
+
+    private void validateAuthenticationInputs(String username, GuardedString password, boolean authenticate) {
+        if (StringUtil.isEmpty(username)) {
+            throw new InvalidCredentialException("Username must not be empty");
+        }
+
+        if (authenticate && StringUtil.isEmpty(configuration.getPasswordAttribute())) {
+            throw new ConfigurationException("Password attribute not defined in configuration");
+        }
+
+        if (authenticate && password == null) {
+            throw new InvalidPasswordException("Password is not defined");
+        }
+    }
+
+    private Uid resolveUsername(String username, GuardedString password, OperationOptions oo, boolean authenticate) {
+        validateAuthenticationInputs(username, password, authenticate);
+
+        try {
+            ConnectorObject object = findByName(username);
+            if (object == null) {
+                String message = authenticate ? "Invalid username and/or password" : "Invalid username";
+                throw new InvalidCredentialException(message);
+            }
+
+            if (authenticate) {
+                authenticate(username, password, object);
+            }
+
+            Uid uid = object.getUid();
+            if (uid == null) {
+                throw new UnknownUidException("Unique attribute doesn't have value for account '" + username + "'");
+            }
+
+            return uid;
+        } catch (Exception ex) {
+            handleGenericException(ex, "Error during authentication");
+        }
+
+        return null;
+    }
+
+    /**
+     * @return first object with the name (in file order), or null if it wasn't found
+     */
+    private ConnectorObject findByName(String username) throws IOException {
+        int nameIndex = getHeader().get(configuration.getNameAttribute()).getIndex();
+
+        // index doesn't contain changes from journal
+        Journal journal = readJournal();
+        List<CSVRecord> records = journal == null || journal.isEmpty() ?
+                readRecordsUsingIndex(index -> index.findName(username),
+                        record -> username.equals(record.get(nameIndex))) : null;
+        if (records != null) {
+            return records.isEmpty() ? null : createConnectorObject(records.get(0));
+        }
+
+        try (CsvRowReader reader = createRowReader()) {
+            CsvRow record;
+            while ((record = reader.next()) != null) {
+                if (skipRecord(record)) {
+                    continue;
+                }
+
+                ConnectorObject obj = createConnectorObject(record, null);
+
+                Name name = obj.getName();
+                if (name != null && username.equals(AttributeUtil.getStringValue(name))) {
+                    return obj;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private void authenticate(String username, GuardedString password, ConnectorObject foundObject) {
+        GuardedString objPassword = AttributeUtil.getPasswordValue(foundObject.getAttributes());
+        if (objPassword == null) {
+            throw new InvalidPasswordException("Password not defined for username '" + username + "'");
+        }
+
+        // we don't want to authenticate against empty password
+        StringAccessor acc = new StringAccessor();
+        objPassword.access(acc);
+        if (StringUtil.isEmpty(acc.getValue())) {
+            throw new InvalidPasswordException("Password not defined for username '" + username + "'");
+        }
+
+        if (!objPassword.equals(password)) {
             throw new InvalidPasswordException("Invalid username and/or password");
         }
     }
@@ -596,7 +1750,7 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
     @Override
     public void sync(ObjectClass oc, SyncToken token, SyncResultsHandler handler, OperationOptions oo) {
         File syncLockFile = Util.createSyncLockFile(configuration);
-        FileLock lock = Util.obtainTmpFileLock(syncLockFile);
+        FileLock lock = Util.obtainTmpFileLock(syncLockFile, configuration.getTmpFileLockTimeout());
 
         try {
             long tokenLongValue = getTokenValue(token);
@@ -610,10 +1764,15 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
                 return;
             }
 
-            doSync(tokenLongValue, handler);
+            boolean[] projection = createProjection(null, oo);
+
+            // new sync file and changed records are read from the same version of the file
+            readSnapshot(() -> {
+                doSync(tokenLongValue, projection, handler);
+                return null;
+            });
         } finally {
-            Util.closeQuietly(lock);
-            syncLockFile.delete();
+            Util.releaseTmpFileLock(lock, syncLockFile);
         }
     }
 
@@ -635,14 +1794,15 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
         return oldCsv;
     }
 
-    private void doSync(long token, SyncResultsHandler handler) {
+    /**
+     * @param projection columns returned in deltas, see {@link #createProjection(Filter, OperationOptions)}
+     */
+    private void doSync(long token, boolean[] projection, SyncResultsHandler handler) {
         String newToken = createNewSyncFile();
         SyncToken newSyncToken = new SyncToken(newToken);
 
         File newCsv = Util.createSyncFileName(Long.parseLong(newToken), configuration);
 
-        Integer uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
-
         File oldCsv = findOldCsv(token, newToken, handler);
         if (oldCsv == null) {
             LOG.error("Couldn't find old csv file to create diff, finishing synchronization.");
@@ -652,6 +1812,35 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
         LOG.ok("Comparing files. Old {0} (exists: {1}, size: {2}) with new {3} (exists: {4}, size: {5})",
                 oldCsv.getName(), oldCsv.exists(), oldCsv.length(), newCsv.getName(), newCsv.exists(), newCsv.length());
 
+        try {
+            int changesCount;
+            if (configuration.isHashSyncSnapshots() || SyncSnapshot.isSnapshot(oldCsv)) {
+                changesCount = doHashSyncDiff(oldCsv, newCsv, newSyncToken, projection, handler);
+            } else if (configuration.getSyncDiffPartitions() > 1) {
+                changesCount = doPartitionedSyncDiff(oldCsv, newCsv, newSyncToken, projection, handler);
+            } else if (configuration.isSortedSyncDiff()) {
+                changesCount = doSortedSyncDiff(oldCsv, newCsv, newSyncToken, projection, handler);
+            } else {
+                changesCount = doSyncDiff(oldCsv, newCsv, newSyncToken, projection, handler);
+            }
+
+            if (changesCount == 0) {
+                handleJustNewToken(new SyncToken(newToken), handler);
+            }
+        } catch (Exception ex) {
+            handleGenericException(ex, "Error during synchronization");
+        } finally {
+            cleanupOldSyncFiles();
+        }
+    }
+
+    /**
+     * @return number of deltas passed to handler
+     */
+    private int doSyncDiff(File oldCsv, File newCsv, SyncToken newSyncToken, boolean[] projection,
+                           SyncResultsHandler handler) throws IOException {
+        Integer uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+
         try (Reader reader = Util.createReader(newCsv, configuration)) {
             Map<String, CSVRecord> oldData = loadOldSyncFile(oldCsv);
 
@@ -677,7 +1866,7 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
                             + record.getRecordNumber() + " in " + newCsv.getName());
                 }
 
-                SyncDelta delta = doSyncCreateOrUpdate(record, uid, oldData, oldUsedOids, newSyncToken, handler);
+                SyncDelta delta = doSyncCreateOrUpdate(record, uid, oldData, oldUsedOids, newSyncToken, projection);
                 if (delta == null) {
                     continue;
                 }
@@ -690,26 +1879,403 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
             }
 
             if (shouldContinue) {
-                changesCount += doSyncDeleted(oldData, oldUsedOids, newSyncToken, handler);
+                changesCount += doSyncDeleted(oldData, oldUsedOids, newSyncToken, projection, handler);
+            }
+
+            return changesCount;
+        }
+    }
+
+    /**
+     * Compares sync files sorted by unique attribute value (see {@link RecordSorter}) in one pass over both of
+     * them, like merge join. Only records which don't fit into in-memory sort limit are kept in memory, the rest
+     * is in sorted runs in tmp folder. Deltas are passed to handler in order of unique attribute values.
+     *
+     * @return number of deltas passed to handler
+     */
+    private int doSortedSyncDiff(File oldCsv, File newCsv, SyncToken newSyncToken, boolean[] projection,
+                                 SyncResultsHandler handler) throws IOException {
+        checkSyncFileHeader(oldCsv);
+
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+        Comparator<CSVRecord> comparator = Comparator.comparing(record -> record.get(uidIndex));
+
+        try (RecordSorter oldSorter = sortSyncFile(oldCsv, comparator);
+             RecordSorter newSorter = sortSyncFile(newCsv, comparator)) {
+
+            LOG.ok("Comparing {0} old and {1} new records sorted by unique attribute", oldSorter.getCount(),
+                    newSorter.getCount());
+
+            Iterator<CSVRecord> oldRecords = oldSorter.sorted();
+            Iterator<CSVRecord> newRecords = newSorter.sorted();
+
+            CSVRecord oldRecord = nextSortedRecord(oldRecords, null, uidIndex, oldCsv);
+            CSVRecord newRecord = nextSortedRecord(newRecords, null, uidIndex, newCsv);
+
+            int changesCount = 0;
+            while (oldRecord != null || newRecord != null) {
+                int result;
+                if (oldRecord == null) {
+                    result = 1;
+                } else if (newRecord == null) {
+                    result = -1;
+                } else {
+                    result = comparator.compare(oldRecord, newRecord);
+                }
+
+                SyncDelta delta = null;
+                if (result < 0) {
+                    delta = buildSyncDelta(SyncDeltaType.DELETE, newSyncToken, oldRecord, projection);
+                    oldRecord = nextSortedRecord(oldRecords, oldRecord, uidIndex, oldCsv);
+                } else if (result > 0) {
+                    delta = buildSyncDelta(SyncDeltaType.CREATE, newSyncToken, newRecord, projection);
+                    newRecord = nextSortedRecord(newRecords, newRecord, uidIndex, newCsv);
+                } else {
+                    delta = buildUpdateSyncDelta(newSyncToken, oldRecord, newRecord, projection);
+                    oldRecord = nextSortedRecord(oldRecords, oldRecord, uidIndex, oldCsv);
+                    newRecord = nextSortedRecord(newRecords, newRecord, uidIndex, newCsv);
+                }
+
+                if (delta == null) {
+                    continue;
+                }
+
+                LOG.ok("Created delta {0}", delta);
+
+                changesCount++;
+                if (!handler.handle(delta)) {
+                    break;
+                }
+            }
+
+            return changesCount;
+        }
+    }
+
+    /**
+     * Compares hashes of records in sync files (see {@link SyncSnapshot}), either of them can be CSV file which
+     * is hashed in memory. Records with different hash are then read from the new CSV file (or from the pinned
+     * version of the file with journal applied if new sync file is snapshot) and passed to handler in file order,
+     * deletes follow them. Deleted records aren't stored in snapshot, delete deltas contain only uid. Hashes are
+     * kept by column, so updates are filtered and reduced to changed columns the same way as in other diffs.
+     *
+     * @return number of deltas passed to handler
+     */
+    private int doHashSyncDiff(File oldCsv, File newCsv, SyncToken newSyncToken, boolean[] projection,
+                               SyncResultsHandler handler) throws IOException {
+        Map<String, SyncDeltaType> changed = new HashMap<>();
+        // changed columns of updated records, see RowDecoder#createChangeProjection
+        Map<String, boolean[]> changedColumns = new HashMap<>();
+        List<String> deleted = new ArrayList<>();
+
+        try (SyncSnapshot.EntryReader oldEntries = openSyncSnapshot(oldCsv);
+             SyncSnapshot.EntryReader newEntries = openSyncSnapshot(newCsv)) {
+
+            SyncSnapshot.Entry oldEntry = oldEntries.next();
+            SyncSnapshot.Entry newEntry = newEntries.next();
+            while (oldEntry != null || newEntry != null) {
+                int result;
+                if (oldEntry == null) {
+                    result = 1;
+                } else if (newEntry == null) {
+                    result = -1;
+                } else {
+                    result = oldEntry.uid().compareTo(newEntry.uid());
+                }
+
+                if (result < 0) {
+                    deleted.add(oldEntry.uid());
+                    oldEntry = oldEntries.next();
+                } else if (result > 0) {
+                    changed.put(newEntry.uid(), SyncDeltaType.CREATE);
+                    newEntry = newEntries.next();
+                } else {
+                    if (!oldEntry.valuesEqual(newEntry)) {
+                        boolean[] columns = getDecoder().createChangeProjection(oldEntry.hashes(),
+                                newEntry.hashes(), projection);
+                        if (columns != null) {
+                            changed.put(newEntry.uid(), SyncDeltaType.UPDATE);
+                            changedColumns.put(newEntry.uid(), columns);
+                        }
+                    }
+                    oldEntry = oldEntries.next();
+                    newEntry = newEntries.next();
+                }
+            }
+        }
+
+        LOG.ok("Found {0} created or updated and {1} deleted records", changed.size(), deleted.size());
+
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+        int changesCount = 0;
+
+        if (!changed.isEmpty()) {
+            try (CsvRowReader reader = SyncSnapshot.isSnapshot(newCsv) ? createRowReader()
+                    : CsvRowReader.of(Util.createCsvFormatReader(configuration)
+                    .parse(Util.createReader(newCsv, configuration)))) {
+
+                CsvRow record;
+                while ((record = reader.next()) != null) {
+                    if (skipRecord(record)) {
+                        continue;
+                    }
+
+                    String uid = record.get(uidIndex);
+                    SyncDeltaType type = changed.remove(uid);
+                    if (type == null) {
+                        continue;
+                    }
+
+                    SyncDelta delta;
+                    if (type == SyncDeltaType.UPDATE) {
+                        delta = buildUpdateSyncDelta(newSyncToken, record, changedColumns.get(uid), projection);
+                    } else {
+                        delta = buildSyncDelta(type, newSyncToken, record, projection);
+                    }
+                    LOG.ok("Created delta {0}", delta);
+
+                    changesCount++;
+                    if (!handler.handle(delta)) {
+                        return changesCount;
+                    }
+
+                    if (changed.isEmpty()) {
+                        break;
+                    }
+                }
+            }
+
+            if (!changed.isEmpty()) {
+                // sync file was replaced by newer version of csv, records will be compared again by next sync
+                LOG.warn("{0} created or updated records weren't found in {1}, they were removed meanwhile: {2}",
+                        changed.size(), newCsv.getName(), changed.keySet());
+            }
+        }
+
+        for (String uid : deleted) {
+            SyncDeltaBuilder builder = new SyncDeltaBuilder();
+            builder.setDeltaType(SyncDeltaType.DELETE);
+            builder.setObjectClass(ObjectClass.ACCOUNT);
+            builder.setToken(newSyncToken);
+            builder.setUid(new Uid(uid));
+
+            SyncDelta delta = builder.build();
+            LOG.ok("Created delta {0}", delta);
+
+            changesCount++;
+            if (!handler.handle(delta)) {
+                break;
+            }
+        }
+
+        return changesCount;
+    }
+
+    /**
+     * @return entries of snapshot, or of CSV sync file hashed in memory
+     */
+    private SyncSnapshot.EntryReader openSyncSnapshot(File file) throws IOException {
+        if (!SyncSnapshot.isSnapshot(file)) {
+            checkSyncFileHeader(file);
+
+            try (CsvRowReader reader = CsvRowReader.of(Util.createCsvFormatReader(configuration)
+                    .parse(Util.createReader(file, configuration)))) {
+                return buildSyncSnapshot(reader, file.getName()).reader();
+            }
+        }
+
+        SyncSnapshot.FileEntryReader reader = SyncSnapshot.open(file);
+        if (reader.getHeaderHash() != hashHeader()) {
+            reader.close();
+            throw new ConnectorException("Headers of sync file '" + file + "' and current csv don't match");
+        }
+
+        return reader;
+    }
+
+    private SyncSnapshot.Builder buildSyncSnapshot(CsvRowReader reader, String fileName) throws IOException {
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+
+        SyncSnapshot.Builder builder = new SyncSnapshot.Builder(fileName);
+
+        CsvRow record;
+        while ((record = reader.next()) != null) {
+            if (skipRecord(record)) {
+                continue;
+            }
+
+            String uid = record.get(uidIndex);
+            if (StringUtil.isEmpty(uid)) {
+                throw new ConnectorException("Unique attribute not defined for record number "
+                        + record.getRecordNumber() + " in " + fileName);
+            }
+
+            builder.add(uid, record);
+        }
+
+        return builder;
+    }
+
+    private long hashHeader() {
+        String[] columns = new String[getHeader().size()];
+        getHeader().forEach((name, column) -> columns[column.getIndex()] = name);
+
+        return SyncSnapshot.hashHeader(Arrays.asList(columns));
+    }
+
+    /**
+     * Splits both sync files to partitions by hash of unique attribute value (see {@link RecordPartitioner}) and
+     * compares matching partitions by more threads, the same way as {@link #doSyncDiff(File, File, SyncToken,
+     * boolean[], SyncResultsHandler)} compares whole files. Only old records of partitions which are being
+     * compared are kept in memory. Deltas are passed to handler in the calling thread, partition by partition.
+     *
+     * @return number of deltas passed to handler
+     */
+    private int doPartitionedSyncDiff(File oldCsv, File newCsv, SyncToken newSyncToken, boolean[] projection,
+                                      SyncResultsHandler handler) throws Exception {
+        checkSyncFileHeader(oldCsv);
+
+        int partitions = configuration.getSyncDiffPartitions();
+        int threads = configuration.getSyncDiffThreads() > 0 ? configuration.getSyncDiffThreads()
+                : Runtime.getRuntime().availableProcessors();
+        // at most two partitions per thread are in memory, see RecordPartitioner#process
+        threads = Math.min(partitions, threads);
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+
+        // decoder is created before worker threads use it
+        getDecoder();
+
+        try (RecordPartitioner oldPartitions = partitionSyncFile(oldCsv, "old.");
+             RecordPartitioner newPartitions = partitionSyncFile(newCsv, "new.")) {
+
+            LOG.ok("Comparing {0} old and {1} new records in {2} partitions using {3} threads",
+                    oldPartitions.getCount(), newPartitions.getCount(), partitions, threads);
+
+            int[] changesCount = {0};
+            RecordPartitioner.process(partitions, threads, partition -> {
+                Map<String, CSVRecord> oldData = new HashMap<>();
+                try (CSVParser parser = oldPartitions.open(partition)) {
+                    for (CSVRecord record : parser) {
+                        if (oldData.put(record.get(uidIndex), record) != null) {
+                            throw new ConnectorException("Unique attribute value '" + record.get(uidIndex)
+                                    + "' is not unique in " + oldCsv.getName());
+                        }
+                    }
+                }
+
+                List<SyncDelta> deltas = new ArrayList<>();
+                Set<String> oldUsedOids = new HashSet<>();
+                try (CSVParser parser = newPartitions.open(partition)) {
+                    for (CSVRecord record : parser) {
+                        SyncDelta delta = doSyncCreateOrUpdate(record, record.get(uidIndex), oldData, oldUsedOids,
+                                newSyncToken, projection);
+                        if (delta != null) {
+                            deltas.add(delta);
+                        }
+                    }
+                }
+
+                doSyncDeleted(oldData, oldUsedOids, newSyncToken, projection, deltas::add);
+
+                return deltas;
+            }, delta -> {
+                changesCount[0]++;
+                return handler.handle(delta);
+            });
+
+            return changesCount[0];
+        }
+    }
+
+    private RecordPartitioner partitionSyncFile(File file, String prefix) throws IOException {
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+        String partitionPrefix = configuration.getFilePath().getName() + ".sync-diff." + prefix;
+
+        RecordPartitioner partitioner = new RecordPartitioner(configuration.getSyncDiffPartitions(),
+                configuration.getTmpFolder(), partitionPrefix);
+
+        CSVFormat csv = Util.createCsvFormatReader(configuration);
+        try (Reader reader = Util.createReader(file, configuration)) {
+            for (CSVRecord record : csv.parse(reader)) {
+                if (skipRecord(record)) {
+                    continue;
+                }
+
+                String uid = record.get(uidIndex);
+                if (StringUtil.isEmpty(uid)) {
+                    throw new ConnectorException("Unique attribute not defined for record number "
+                            + record.getRecordNumber() + " in " + file.getName());
+                }
+
+                partitioner.add(uid, record);
+            }
+
+            partitioner.finish();
+        } catch (IOException | RuntimeException ex) {
+            partitioner.close();
+            throw ex;
+        }
+
+        return partitioner;
+    }
+
+    private RecordSorter sortSyncFile(File file, Comparator<CSVRecord> comparator) throws IOException {
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+        String runPrefix = configuration.getFilePath().getName() + ".sync-diff.";
+
+        RecordSorter sorter = new RecordSorter(comparator, configuration.getInMemorySortLimit(),
+                configuration.getTmpFolder(), runPrefix, -1);
+
+        CSVFormat csv = Util.createCsvFormatReader(configuration);
+        try (Reader reader = Util.createReader(file, configuration)) {
+            for (CSVRecord record : csv.parse(reader)) {
+                if (skipRecord(record)) {
+                    continue;
+                }
+
+                if (StringUtil.isEmpty(record.get(uidIndex))) {
+                    throw new ConnectorException("Unique attribute not defined for record number "
+                            + record.getRecordNumber() + " in " + file.getName());
+                }
+
+                sorter.add(record);
             }
+        } catch (IOException | RuntimeException ex) {
+            sorter.close();
+            throw ex;
+        }
+
+        return sorter;
+    }
+
+    /**
+     * @return next record from sorted records, or null if there are no more records
+     */
+    private CSVRecord nextSortedRecord(Iterator<CSVRecord> records, CSVRecord previous, int uidIndex, File file) {
+        if (!records.hasNext()) {
+            return null;
+        }
 
-            if (changesCount == 0) {
-                handleJustNewToken(new SyncToken(newToken), handler);
-            }
-        } catch (Exception ex) {
-            handleGenericException(ex, "Error during synchronization");
-        } finally {
-            cleanupOldSyncFiles();
+        CSVRecord record = records.next();
+        if (previous != null && previous.get(uidIndex).equals(record.get(uidIndex))) {
+            throw new ConnectorException("Unique attribute value '" + record.get(uidIndex) + "' is not unique in "
+                    + file.getName());
         }
+
+        return record;
     }
 
-    private Map<String, CSVRecord> loadOldSyncFile(File oldCsv) {
+    private void checkSyncFileHeader(File oldCsv) {
         Map<String, Column> header = initHeader(oldCsv);
         if (!this.getHeader().equals(header)) {
             throw new ConnectorException("Headers of sync file '" + oldCsv + "' and current csv don't match");
         }
+    }
 
-        Integer uidIndex = header.get(configuration.getUniqueAttribute()).getIndex();
+    private Map<String, CSVRecord> loadOldSyncFile(File oldCsv) {
+        checkSyncFileHeader(oldCsv);
+
+        Integer uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
 
         Map<String, CSVRecord> oldData = new HashMap<>();
 
@@ -766,25 +2332,21 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
     }
 
     private SyncDelta doSyncCreateOrUpdate(CSVRecord newRecord, String newRecordUid, Map<String, CSVRecord> oldData,
-                                           Set<String> oldUsedOids, SyncToken newSyncToken, SyncResultsHandler handler) {
+                                           Set<String> oldUsedOids, SyncToken newSyncToken, boolean[] projection) {
         SyncDelta delta;
 
         CSVRecord oldRecord = oldData.get(newRecordUid);
         if (oldRecord == null) {
             // newRecord is new account
-            delta = buildSyncDelta(SyncDeltaType.CREATE, newSyncToken, newRecord);
+            delta = buildSyncDelta(SyncDeltaType.CREATE, newSyncToken, newRecord, projection);
         } else {
             oldUsedOids.add(newRecordUid);
 
-            // this will be an update if records aren't equal
-            List old = Util.copyOf(oldRecord.iterator());
-            List _new = Util.copyOf(newRecord.iterator());
-            if (old.equals(_new)) {
-                // record are equal, no update
+            // this will be an update if returned columns aren't equal
+            delta = buildUpdateSyncDelta(newSyncToken, oldRecord, newRecord, projection);
+            if (delta == null) {
                 return null;
             }
-
-            delta = buildSyncDelta(SyncDeltaType.UPDATE, newSyncToken, newRecord);
         }
 
         LOG.ok("Created delta {0}", delta);
@@ -793,7 +2355,7 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
     }
 
     private int doSyncDeleted(Map<String, CSVRecord> oldData, Set<String> oldUsedOids, SyncToken newSyncToken,
-                              SyncResultsHandler handler) {
+                              boolean[] projection, SyncResultsHandler handler) {
 
         int changesCount = 0;
 
@@ -804,7 +2366,7 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 
             // deleted record
             CSVRecord deleted = oldData.get(oldUid);
-            SyncDelta delta = buildSyncDelta(SyncDeltaType.DELETE, newSyncToken, deleted);
+            SyncDelta delta = buildSyncDelta(SyncDeltaType.DELETE, newSyncToken, deleted, projection);
 
             LOG.ok("Created delta {0}", delta);
             changesCount++;
@@ -814,311 +2376,907 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
             }
         }
 
-        return changesCount;
+        return changesCount;
+    }
+
+    /**
+     * Records which differ only in columns which aren't returned don't produce update delta. If
+     * {@link ObjectClassHandlerConfiguration#isSyncChangedAttributesOnly()} is set, delta object contains only
+     * changed attributes and identifiers.
+     *
+     * @return update delta, or null if none of the returned columns changed
+     */
+    private SyncDelta buildUpdateSyncDelta(SyncToken token, CSVRecord oldRecord, CSVRecord newRecord,
+                                           boolean[] projection) {
+        boolean[] changed = getDecoder().createChangeProjection(oldRecord, newRecord, projection);
+        if (changed == null) {
+            return null;
+        }
+
+        return buildUpdateSyncDelta(token, CsvRow.of(newRecord), changed, projection);
+    }
+
+    /**
+     * @param changed changed columns, see {@link RowDecoder#createChangeProjection(CSVRecord, CSVRecord, boolean[])}
+     */
+    private SyncDelta buildUpdateSyncDelta(SyncToken token, CsvRow newRecord, boolean[] changed,
+                                           boolean[] projection) {
+        return buildSyncDelta(SyncDeltaType.UPDATE, token, newRecord,
+                configuration.isSyncChangedAttributesOnly() ? changed : projection);
+    }
+
+    private SyncDelta buildSyncDelta(SyncDeltaType type, SyncToken token, CSVRecord record, boolean[] projection) {
+        return buildSyncDelta(type, token, CsvRow.of(record), projection);
+    }
+
+    private SyncDelta buildSyncDelta(SyncDeltaType type, SyncToken token, CsvRow record, boolean[] projection) {
+        SyncDeltaBuilder builder = new SyncDeltaBuilder();
+        builder.setDeltaType(type);
+        builder.setObjectClass(ObjectClass.ACCOUNT);
+        builder.setToken(token);
+
+        ConnectorObject object = createConnectorObject(record, projection);
+        builder.setObject(object);
+
+        return builder.build();
+    }
+
+    private long getTokenValue(SyncToken token) {
+        if (token == null || token.getValue() == null) {
+            return -1;
+        }
+        String object = token.getValue().toString();
+        if (!object.matches("[0-9]{13}")) {
+            return -1;
+        }
+
+        return Long.parseLong(object);
+    }
+
+    private String createNewSyncFile() {
+        long timestamp = System.currentTimeMillis();
+
+        String token = null;
+        try {
+            File real = configuration.getFilePath();
+
+            File last = Util.createSyncFileName(timestamp, configuration);
+
+            Journal journal = readJournal();
+
+            LOG.info("Creating new sync file {0} file {1}", timestamp, last.getName());
+            if (configuration.isHashSyncSnapshots()) {
+                writeSyncSnapshot(last);
+            } else if (journal != null && !journal.isEmpty()) {
+                writeSyncFile(last);
+            } else if (snapshot != null) {
+                copySnapshot(last);
+            } else {
+                Files.copy(real.toPath(), last.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            LOG.ok("New sync file created, name {0}, size {1}", last.getName(), last.length());
+
+            token = Long.toString(timestamp);
+        } catch (IOException ex) {
+            handleGenericException(ex, "Error occurred while creating new sync file " + timestamp);
+        }
+
+        return token;
+    }
+
+    /**
+     * Writes snapshot to tmp file first, sync file appears only when it's complete.
+     */
+    private void writeSyncSnapshot(File file) throws IOException {
+        SyncSnapshot.Builder builder;
+        try (CsvRowReader reader = createRowReader()) {
+            builder = buildSyncSnapshot(reader, configuration.getFilePath().getName());
+        }
+
+        File tmp = new File(file.getPath() + "." + Util.TMP_EXTENSION);
+        try {
+            builder.write(tmp, hashHeader());
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+
+        LOG.ok("Sync snapshot with {0} records written", builder.size());
+    }
+
+    /**
+     * Writes records with changes from journal applied, sync file contains the same records as searches return.
+     */
+    private void writeSyncFile(File file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), Charset.forName(configuration.getEncoding()));
+             CsvRowReader reader = createRowReader()) {
+
+            printRecords(reader, Util.createCsvFormat(configuration).print(writer));
+        }
+    }
+
+    private void copySnapshot(File file) throws IOException {
+        try (FileChannel target = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            FileChannel source = snapshot.getChannel();
+
+            long position = 0;
+            while (position < snapshot.getSize()) {
+                position += source.transferTo(position, snapshot.getSize() - position, target);
+            }
+        }
+    }
+
+    @Override
+    public SyncToken getLatestSyncToken(ObjectClass oc) {
+        String token;
+        LOG.info("Creating token, synchronizing from \"now\".");
+        // sync file is written from the same version of the file and journal
+        token = readSnapshot(this::createNewSyncFile);
+
+        return new SyncToken(token);
+    }
+
+    @Override
+    public void test() {
+        configuration.validate();
+
+        initHeader(configuration.getFilePath());
+    }
+
+    @Override
+    public void testPartialConfiguration() {
+        configuration.validateCsvFile();
+    }
+
+    @Override
+    public Map<String, SuggestedValues> discoverConfiguration() {
+        Map<String, SuggestedValues> suggestions = new HashMap<>();
+        ConfigurationDetector detector = new ConfigurationDetector(configuration);
+
+        suggestions.putAll(detector.detectDelimiters());
+        suggestions.putAll(detector.detectAttributes(suggestions));
+
+        return suggestions;
+    }
+
+    @Override
+    public Uid addAttributeValues(ObjectClass oc, Uid uid, Set<Attribute> set, OperationOptions oo) {
+        if (configuration.isReadOnly()) {
+            throw new ConnectorException("Can't add attribute values. Readonly set to true.");
+        }
+
+        return update(Operation.ADD_ATTR_VALUE, oc, uid, set, oo);
+    }
+
+    @Override
+    public Uid removeAttributeValues(ObjectClass oc, Uid uid, Set<Attribute> set, OperationOptions oo) {
+        if (configuration.isReadOnly()) {
+            throw new ConnectorException("Can't add attribute values. Readonly set to true.");
+        }
+
+        return update(Operation.REMOVE_ATTR_VALUE, oc, uid, set, oo);
+    }
+
+    @Override
+    public Uid update(ObjectClass oc, Uid uid, Set<Attribute> set, OperationOptions oo) {
+        if (configuration.isReadOnly()) {
+            throw new ConnectorException("Can't add attribute values. Readonly set to true.");
+        }
+
+        return update(Operation.UPDATE, oc, uid, set, oo);
+    }
+
+    private boolean isRecordEmpty(CSVRecord record) {
+        return isRecordEmpty(CsvRow.of(record));
+    }
+
+    private boolean isRecordEmpty(CsvRow record) {
+        if (!configuration.isIgnoreEmptyLines()) {
+            return false;
+        }
+
+        for (int i = 0; i < record.size(); i++) {
+            if (!record.isBlank(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private ConnectorObject createConnectorObject(CSVRecord record) {
+        return createConnectorObject(record, null);
+    }
+
+    /**
+     * @param projection columns which should be converted to attributes, null means all columns,
+     *                   see {@link #createProjection(Filter, OperationOptions)}
+     */
+    private ConnectorObject createConnectorObject(CSVRecord record, boolean[] projection) {
+        return getDecoder().decode(record, projection);
+    }
+
+    private ConnectorObject createConnectorObject(CsvRow record, boolean[] projection) {
+        return getDecoder().decode(record, projection);
+    }
+
+    private void checkColumnCount(CSVRecord record) {
+        checkColumnCount(CsvRow.of(record));
+    }
+
+    private void checkColumnCount(CsvRow record) {
+        if (getHeader().size() != record.size()) {
+            throw new ConnectorException("Number of columns in header (" + getHeader().size()
+                    + ") doesn't match number of columns for record (" + record.size()
+                    + "). File row number: " + record.getRecordNumber());
+        }
+    }
+
+    private boolean isUniqueAndNameAttributeEqual() {
+        String uniqueAttribute = configuration.getUniqueAttribute();
+        String nameAttribute = configuration.getNameAttribute();
+
+        return uniqueAttribute == null ? nameAttribute == null : uniqueAttribute.equals(nameAttribute);
+    }
+
+    private Uid update(Operation operation, ObjectClass objectClass, Uid uid, Set<Attribute> attributes,
+                       OperationOptions oo) {
+
+        Util.notNull(uid, "Uid must not be null");
+
+        if ((Operation.ADD_ATTR_VALUE.equals(operation) || Operation.REMOVE_ATTR_VALUE.equals(operation))
+                && attributes.isEmpty()) {
+            return uid;
+        }
+
+        attributes = normalize(attributes);
+
+        if (configuration.isJournalEnabled()) {
+            return writeToJournal(operation, uid, attributes);
+        }
+
+        compactJournalIfNeeded();
+
+        if (configuration.isInPlaceUpdateEnabled() && !Operation.DELETE.equals(operation)) {
+            Uid updated = updateInPlace(operation, uid, attributes);
+            if (updated != null) {
+                return updated;
+            }
+        }
+
+        if (isWriteBatched()) {
+            return submitWrite(new PendingWrite(operation, uid, attributes));
+        }
+
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+
+        FileLock lock = Util.obtainTmpFileLock(configuration);
+        try {
+            boolean found = false;
+
+            try (RecordRewriter rewriter = RecordRewriter.create(configuration, lock.channel())) {
+                CsvRow record;
+                while ((record = rewriter.next()) != null) {
+                    // only unique attribute column is read, other records are copied as they are
+                    String recordUidValue = uidIndex < record.size() ? record.get(uidIndex) : null;
+                    if (StringUtil.isEmpty(recordUidValue)) {
+                        continue;
+                    }
+
+                    if (!uidMatches(uid.getUidValue(), recordUidValue, configuration.isIgnoreIdentifierCase())) {
+                        rewriter.copy();
+                        continue;
+                    }
+
+                    found = true;
+
+                    if (!Operation.DELETE.equals(operation)) {
+                        List<Object> updated = updateObject(operation, record, attributes);
+
+                        Object newUidValue = updated.get(uidIndex);
+                        uid = new Uid(newUidValue.toString());
+
+                        rewriter.write(updated);
+                    }
+                }
+
+                rewriter.finish();
+            }
+
+            if (!found) {
+                throw new UnknownUidException("Account '" + uid + "' not found");
+            }
+
+            moveTmpToOrig();
+        } catch (Exception ex) {
+            handleGenericException(ex, "Error during account '" + uid + "' " + operation.name());
+        } finally {
+            Util.cleanupResources(null, null, lock, configuration);
+        }
+        return uid;
+    }
+
+    /**
+     * Appends change to journal instead of rewriting CSV file. Changed records are found using journal and
+     * record index (if it's enabled), so the file doesn't have to be read. Journal is compacted when it reaches
+     * the threshold.
+     */
+    private Uid writeToJournal(Operation operation, Uid uid, Set<Attribute> attributes) {
+        Uid result = uid;
+
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+
+        FileLock lock = Util.obtainTmpFileLock(configuration);
+        try {
+            Journal journal = readJournal();
+            List<CsvRow> records = readCurrentRecords(uid.getUidValue(), journal);
+
+            List<List<Object>> entries = new ArrayList<>();
+            if (Operation.CREATE.equals(operation)) {
+                if (records.stream().anyMatch(record -> uidMatches(uid.getUidValue(), record.get(uidIndex),
+                        configuration.isIgnoreIdentifierCase()))) {
+                    throw new AlreadyExistsException("Account already exists '" + uid.getUidValue() + "'.");
+                }
+
+                entries.add(Journal.createUpsert(null, createNewRecord(attributes)));
+                records = Collections.emptyList();
+            } else if (records.isEmpty()) {
+                throw new UnknownUidException("Account '" + uid + "' not found");
+            }
+
+            for (CsvRow record : records) {
+                String recordUid = record.get(uidIndex);
+                if (Operation.DELETE.equals(operation)) {
+                    entries.add(Journal.createDelete(recordUid));
+                    continue;
+                }
+
+                List<Object> updated = updateObject(operation, record, attributes);
+                result = new Uid(updated.get(uidIndex).toString());
+
+                entries.add(Journal.createUpsert(recordUid, updated));
+            }
+
+            File file = Util.createJournalPath(configuration);
+            Journal.append(file, entries);
+
+            int size = journal != null ? journal.size() : 0;
+            if (size + entries.size() >= configuration.getJournalCompactionThreshold()) {
+                compactJournal(lock);
+            }
+        } catch (Exception ex) {
+            handleGenericException(ex, "Error during account '" + uid + "' " + operation.name());
+        } finally {
+            Util.cleanupResources(null, null, lock, configuration);
+        }
+
+        return result;
     }
 
-    private SyncDelta buildSyncDelta(SyncDeltaType type, SyncToken token, CSVRecord record) {
-        SyncDeltaBuilder builder = new SyncDeltaBuilder();
-        builder.setDeltaType(type);
-        builder.setObjectClass(ObjectClass.ACCOUNT);
-        builder.setToken(token);
+    /**
+     * @return journal which belongs to the pinned snapshot or the current journal, null if there's no journal file
+     */
+    private Journal readJournal() throws IOException {
+        return snapshot != null ? snapshotJournal : readJournalFile();
+    }
 
-        ConnectorObject object = createConnectorObject(record);
-        builder.setObject(object);
+    private Journal readJournalFile() throws IOException {
+        File file = Util.createJournalPath(configuration);
+        if (!file.exists()) {
+            return null;
+        }
 
-        return builder.build();
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+
+        return Journal.read(file, configuration.isIgnoreIdentifierCase(), uidIndex);
     }
 
-    private long getTokenValue(SyncToken token) {
-        if (token == null || token.getValue() == null) {
-            return -1;
+    /**
+     * @return records with unique attribute value, with changes from journal applied
+     */
+    private List<CsvRow> readCurrentRecords(String uid, Journal journal) throws IOException {
+        List<CsvRow> result = new ArrayList<>();
+
+        if (journal != null && journal.contains(uid)) {
+            String[] values = journal.get(uid);
+            if (values != null) {
+                result.add(CsvRow.of(values, 0));
+            }
+            return result;
         }
-        String object = token.getValue().toString();
-        if (!object.matches("[0-9]{13}")) {
-            return -1;
+
+        // record isn't in journal, file contains its current values
+        List<CSVRecord> records = readRecordsUsingUidIndex(uid);
+        if (records != null) {
+            records.forEach(record -> result.add(CsvRow.of(record)));
+            return result;
         }
 
-        return Long.parseLong(object);
-    }
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
 
-    private String createNewSyncFile() {
-        long timestamp = System.currentTimeMillis();
+        try (CsvRowReader reader = createRowReader()) {
+            CsvRow record;
+            while ((record = reader.next()) != null) {
+                if (skipRecord(record)) {
+                    continue;
+                }
 
-        String token = null;
-        try {
-            File real = configuration.getFilePath();
+                checkColumnCount(record);
 
-            File last = Util.createSyncFileName(timestamp, configuration);
+                if (uidMatches(uid, record.get(uidIndex), configuration.isIgnoreIdentifierCase())) {
+                    // rows can be reused by reader
+                    String[] values = new String[record.size()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = record.get(i);
+                    }
+                    result.add(CsvRow.of(values, record.getRecordNumber()));
+                }
+            }
+        }
 
-            LOG.info("Creating new sync file {0} file {1}", timestamp, last.getName());
-            Files.copy(real.toPath(), last.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            LOG.ok("New sync file created, name {0}, size {1}", last.getName(), last.length());
+        return result;
+    }
 
-            token = Long.toString(timestamp);
-        } catch (IOException ex) {
-            handleGenericException(ex, "Error occurred while creating new sync file " + timestamp);
+    /**
+     * Writes changes from journal to CSV file, used before writes which rewrite the file directly (reads apply
+     * journal using {@link JournalRowReader}). If snapshot is pinned, it's compacted only if the snapshot has
+     * journal and the snapshot is pinned again afterwards.
+     */
+    private void compactJournalIfNeeded() {
+        boolean pinned = snapshot != null;
+        if (pinned ? snapshotJournal == null : !Util.createJournalPath(configuration).exists()) {
+            return;
         }
 
-        return token;
-    }
+        if (pinned) {
+            releaseSnapshot();
+        }
 
-    @Override
-    public SyncToken getLatestSyncToken(ObjectClass oc) {
-        String token;
-        LOG.info("Creating token, synchronizing from \"now\".");
-        token = createNewSyncFile();
+        FileLock lock = Util.obtainTmpFileLock(configuration);
+        try {
+            compactJournal(lock);
 
-        return new SyncToken(token);
+            if (pinned) {
+                pinSnapshot();
+            }
+        } catch (Exception ex) {
+            handleGenericException(ex, "Error during journal compaction");
+        } finally {
+            Util.cleanupResources(null, null, lock, configuration);
+        }
     }
 
-    @Override
-    public void test() {
-        configuration.validate();
+    /**
+     * Rewrites CSV file with changes from journal applied and removes the journal. If this is interrupted after
+     * the file was replaced, journal is applied again by the next compaction, which doesn't change the file.
+     * Caller has to hold tmp file lock.
+     */
+    private void compactJournal(FileLock lock) throws IOException {
+        File file = Util.createJournalPath(configuration);
 
-        initHeader(configuration.getFilePath());
-    }
+        Journal journal = readJournalFile();
+        if (journal == null) {
+            return;
+        }
 
-    @Override
-    public void testPartialConfiguration() {
-        configuration.validateCsvFile();
-    }
+        if (!journal.isEmpty()) {
+            LOG.ok("Compacting journal {0} with {1} entries", file, journal.size());
 
-    @Override
-    public Map<String, SuggestedValues> discoverConfiguration() {
-        Map<String, SuggestedValues> suggestions = new HashMap<>();
-        ConfigurationDetector detector = new ConfigurationDetector(configuration);
+            Writer writer = new BufferedWriter(Channels.newWriter(lock.channel(), configuration.getEncoding()));
+            CSVPrinter printer = Util.createCsvFormat(configuration).print(writer);
 
-        suggestions.putAll(detector.detectDelimiters());
-        suggestions.putAll(detector.detectAttributes(suggestions));
+            int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+            try (CsvRowReader reader = new JournalRowReader(createFileRowReader(), journal, uidIndex,
+                    configuration.isHeaderExists())) {
 
-        return suggestions;
-    }
+                printRecords(reader, printer);
+            }
 
-    @Override
-    public Uid addAttributeValues(ObjectClass oc, Uid uid, Set<Attribute> set, OperationOptions oo) {
-        if (configuration.isReadOnly()) {
-            throw new ConnectorException("Can't add attribute values. Readonly set to true.");
+            writer.close();
+
+            moveTmpToOrig();
         }
 
-        return update(Operation.ADD_ATTR_VALUE, oc, uid, set, oo);
+        Files.delete(file.toPath());
     }
 
-    @Override
-    public Uid removeAttributeValues(ObjectClass oc, Uid uid, Set<Attribute> set, OperationOptions oo) {
-        if (configuration.isReadOnly()) {
-            throw new ConnectorException("Can't add attribute values. Readonly set to true.");
+    private void printRecords(CsvRowReader reader, CSVPrinter printer) throws IOException {
+        CsvRow record;
+        while ((record = reader.next()) != null) {
+            for (int i = 0; i < record.size(); i++) {
+                printer.print(record.get(i));
+            }
+            printer.println();
         }
-
-        return update(Operation.REMOVE_ATTR_VALUE, oc, uid, set, oo);
+        printer.flush();
     }
 
-    @Override
-    public Uid update(ObjectClass oc, Uid uid, Set<Attribute> set, OperationOptions oo) {
-        if (configuration.isReadOnly()) {
-            throw new ConnectorException("Can't add attribute values. Readonly set to true.");
+    /**
+     * Overwrites updated records in the file if they aren't longer than the original ones, see
+     * {@link #formatInPlace(List, int)}. Records are found using record index, which stays valid, because
+     * positions of records, unique attribute and name values don't change.
+     *
+     * @return uid of updated object, or null if records can't be updated in place and the file has to be rewritten
+     */
+    private Uid updateInPlace(Operation operation, Uid uid, Set<Attribute> attributes) {
+        if (!Util.isByteScanSupported(configuration)) {
+            return null;
         }
 
-        return update(Operation.UPDATE, oc, uid, set, oo);
-    }
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+        int nameIndex = getHeader().get(configuration.getNameAttribute()).getIndex();
 
-    private boolean isRecordEmpty(CSVRecord record) {
-        if (!configuration.isIgnoreEmptyLines()) {
-            return false;
-        }
+        Uid result = null;
 
-        for (int i = 0; i < record.size(); i++) {
-            String value = record.get(i);
-            if (StringUtil.isNotBlank(value)) {
-                return false;
+        FileLock lock = Util.obtainTmpFileLock(configuration);
+        try {
+            RecordIndex index = getIndex();
+            if (index == null) {
+                return null;
             }
-        }
-
-        return true;
-    }
 
-    private Map<Integer, String> reverseHeaderMap() {
-        Map<Integer, String> reversed = new HashMap<>();
-        this.getHeader().forEach((key, value) -> {
+            File file = configuration.getFilePath();
+            FileFingerprint fingerprint = FileFingerprint.of(file);
 
-            reversed.put(value.getIndex(), key);
-        });
+            List<RecordRange> ranges = index.findUid(uid.getUidValue());
+            if (ranges.isEmpty() || !fingerprint.equals(index.getFingerprint())) {
+                return null;
+            }
 
-        return reversed;
-    }
+            // readers of open snapshots would see records being overwritten, file is rewritten then
+            long claim = FileSnapshot.tryClaimInPlace(file);
+            if (claim == 0) {
+                LOG.ok("File {0} is being read, it can't be updated in place", file);
+                return null;
+            }
 
-    private ConnectorObject createConnectorObject(CSVRecord record) {
-        ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
 
-        Map<Integer, String> header = reverseHeaderMap();
+                List<ByteBuffer> buffers = new ArrayList<>();
+                for (RecordRange range : ranges) {
+                    CSVRecord record = Util.readRecord(channel, range, configuration);
+                    if (record == null || record.size() != getHeader().size()
+                            || !uidMatches(uid.getUidValue(), record.get(uidIndex),
+                            configuration.isIgnoreIdentifierCase())) {
+                        return null;
+                    }
 
-        if (header.size() != record.size()) {
-            throw new ConnectorException("Number of columns in header (" + header.size()
-                    + ") doesn't match number of columns for record (" + record.size()
-                    + "). File row number: " + record.getRecordNumber());
-        }
+                    List<Object> updated = updateObject(operation, CsvRow.of(record), attributes);
+                    if (!record.get(uidIndex).equals(updated.get(uidIndex))
+                            || !record.get(nameIndex).equals(updated.get(nameIndex))) {
+                        return null;
+                    }
 
-        for (int i = 0; i < record.size(); i++) {
-            String name = header.get(i);
-            String value = record.get(i);
+                    byte[] bytes = formatInPlace(updated, range.length());
+                    if (bytes == null) {
+                        return null;
+                    }
 
-            if (StringUtil.isEmpty(value)) {
-                continue;
-            }
+                    buffers.add(ByteBuffer.wrap(bytes));
+                    result = new Uid(record.get(uidIndex));
+                }
 
-            if (name.equals(configuration.getUniqueAttribute())) {
-                builder.setUid(value);
+                for (int i = 0; i < ranges.size(); i++) {
+                    ByteBuffer buffer = buffers.get(i);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer, ranges.get(i).offset() + buffer.position());
+                    }
+                }
+                channel.force(true);
 
-                if (!isUniqueAndNameAttributeEqual()) {
-                    continue;
+                // size doesn't change, modification time has to
+                FileFingerprint updated = FileFingerprint.of(file);
+                if (updated.equals(fingerprint)) {
+                    updated = changeLastModified(file, fingerprint);
                 }
-            }
 
-            if (name.equals(configuration.getNameAttribute())) {
-                builder.setName(new Name(value));
-                continue;
-            }
+                if (updated.equals(fingerprint)) {
+                    LOG.warn("Modification time of {0} couldn't be changed, cached objects are dropped", file);
 
-            if (name.equals(configuration.getPasswordAttribute())) {
-                builder.addAttribute(OperationalAttributes.PASSWORD_NAME, new GuardedString(value.toCharArray()));
-                continue;
-            }
+                    ObjectCache cache = getObjectCache();
+                    if (cache != null) {
+                        cache.clear();
+                    }
+                }
 
-            if (name.equals(configuration.getLastLoginDateAttribute())) {
-                builder.addAttribute(PredefinedAttributes.LAST_LOGIN_DATE_NAME, createLastLoginDateValue(value));
-                continue;
+                // positions, unique attribute and name values are the same, index is valid either way
+                index.update(fingerprint, updated);
+            } finally {
+                FileSnapshot.releaseInPlace(file, claim);
             }
 
-            builder.addAttribute(name, createAttributeValues(value));
+            LOG.ok("Updated {0} records of {1} in place", ranges.size(), file);
+        } catch (Exception ex) {
+            handleGenericException(ex, "Error during account '" + uid + "' " + operation.name());
+        } finally {
+            Util.cleanupResources(null, null, lock, configuration);
         }
 
-        return builder.build();
+        return result;
     }
 
-    private Long createLastLoginDateValue(String value) {
-        if (StringUtil.isEmpty(value)) {
-            return null;
+    /**
+     * Moves modification time forward, so the fingerprint changes. Filesystems with coarse resolution (seconds
+     * on HFS+ and some NFS servers, two seconds on FAT) drop the milliseconds, so bigger step is tried too.
+     *
+     * @return fingerprint after the change, equal to the old one if modification time wasn't changed
+     */
+    private FileFingerprint changeLastModified(File file, FileFingerprint fingerprint) throws IOException {
+        FileFingerprint updated = fingerprint;
+        for (long step : new long[]{1, 2000}) {
+            Files.setLastModifiedTime(file.toPath(),
+                    FileTime.fromMillis(fingerprint.lastModified().toMillis() + step));
+
+            updated = FileFingerprint.of(file);
+            if (!updated.equals(fingerprint)) {
+                break;
+            }
         }
 
-        if (configuration.getLastLoginDateFormat() == null) {
-            try {
-                return Long.parseLong(value);
-            } catch (NumberFormatException ex) {
-                throw new InvalidAttributeValueException("Value " + value + " for last login date ("
-                        + configuration.getLastLoginDateAttribute() + ") is not a number (long)", ex);
-            }
+        return updated;
+    }
+
+    /**
+     * Formats record to exactly the given number of bytes. Shorter record is padded by spaces after the last
+     * value, which is quoted if surrounding spaces aren't ignored, parser ignores whitespace after quoted value.
+     *
+     * @return bytes of the record without record separator, or null if it doesn't fit
+     */
+    private byte[] formatInPlace(List<Object> values, int length) throws IOException {
+        Charset charset = Charset.forName(configuration.getEncoding());
+        CSVFormat csv = Util.createCsvFormat(configuration);
+
+        StringWriter writer = new StringWriter();
+        CSVPrinter printer = csv.print(writer);
+        for (Object value : values) {
+            printer.print(value);
+        }
+        if (configuration.isTrailingDelimiter()) {
+            writer.append(configuration.getFieldDelimiter());
         }
 
-        try {
-            return configuration.getLastLoginDateFormatInstance().parse(value).getTime();
-        } catch (ParseException ex) {
-            throw new InvalidAttributeValueException("Value " + value + " for last login date ("
-                    + configuration.getLastLoginDateAttribute() + ") doesn't have proper format (" + configuration.getLastLoginDateFormat() + ")", ex);
+        byte[] bytes = writer.toString().getBytes(charset);
+        if (bytes.length == length) {
+            return bytes;
         }
-    }
 
-    private boolean isUniqueAndNameAttributeEqual() {
-        String uniqueAttribute = configuration.getUniqueAttribute();
-        String nameAttribute = configuration.getNameAttribute();
+        if (bytes.length > length || configuration.isTrailingDelimiter()
+                || " ".equals(configuration.getFieldDelimiter())) {
+            return null;
+        }
 
-        return uniqueAttribute == null ? nameAttribute == null : uniqueAttribute.equals(nameAttribute);
-    }
+        if (!configuration.isTrim() && !configuration.isIgnoreSurroundingSpaces()) {
+            Object last = values.get(values.size() - 1);
+            String value = last != null ? last.toString() : "";
 
-    private List<String> createAttributeValues(String attributeValue) {
-        List<String> values = new ArrayList<>();
+            String quote = configuration.getQuote();
+            String escape = configuration.getEscape();
+            if (StringUtil.isEmpty(quote) || StringUtil.isNotEmpty(escape) && value.contains(escape)) {
+                return null;
+            }
 
-        if (StringUtil.isEmpty(configuration.getMultivalueDelimiter())) {
-            values.add(attributeValue);
-        } else {
-            String[] array = attributeValue.split(configuration.getMultivalueDelimiter());
-            for (String item : array) {
-                if (StringUtil.isEmpty(item)) {
-                    continue;
-                }
+            writer = new StringWriter();
+            printer = csv.print(writer);
+            for (Object v : values.subList(0, values.size() - 1)) {
+                printer.print(v);
+            }
+            if (values.size() > 1) {
+                writer.append(configuration.getFieldDelimiter());
+            }
+            writer.append(quote).append(value.replace(quote, quote + quote)).append(quote);
 
-                values.add(item);
+            bytes = writer.toString().getBytes(charset);
+            if (bytes.length > length) {
+                return null;
             }
         }
 
-        return values;
+        byte[] padded = Arrays.copyOf(bytes, length);
+        Arrays.fill(padded, bytes.length, length, (byte) ' ');
+
+        return padded;
     }
 
-    private Uid update(Operation operation, ObjectClass objectClass, Uid uid, Set<Attribute> attributes,
-                       OperationOptions oo) {
+    /**
+     * @return true if writes are applied in batches, either because batch size is configured or because of
+     * group commit
+     */
+    private boolean isWriteBatched() {
+        return configuration.getWriteBatchSize() > 1
+                || configuration.getDurabilityMode() == Durability.GROUP_COMMIT;
+    }
 
-        Util.notNull(uid, "Uid must not be null");
+    private Uid submitWrite(PendingWrite write) {
+        // group commit takes all waiting writes, unless batch size is configured
+        int batchSize = configuration.getWriteBatchSize() > 1 ? configuration.getWriteBatchSize() : Integer.MAX_VALUE;
 
-        if ((Operation.ADD_ATTR_VALUE.equals(operation) || Operation.REMOVE_ATTR_VALUE.equals(operation))
-                && attributes.isEmpty()) {
-            return uid;
+        // batcher replaced by other configuration still applies writes submitted to it, tmp file lock
+        // serializes its batches with batches of the new one
+        WriteBatcher<PendingWrite> batcher = WRITE_BATCHERS.computeIfAbsent(configuration.getFilePath(),
+                createWriteBatchKey(), () -> new WriteBatcher<>(batchSize, configuration.getWriteBatchWindow()));
+
+        try {
+            batcher.submit(write, this::applyWrites);
+        } catch (RuntimeException ex) {
+            handleGenericException(ex, "Error during account '" + write.uid + "' " + write.operation.name());
         }
 
-        Map<Integer, String> header = reverseHeaderMap();
+        if (write.error != null) {
+            handleGenericException(write.error, "Error during account '" + write.uid + "' "
+                    + write.operation.name());
+        }
 
-        attributes = normalize(attributes);
+        return write.result;
+    }
 
-        FileLock lock = Util.obtainTmpFileLock(configuration);
-        Reader reader = null;
-        Writer writer = null;
-        try {
-            synchronized (CsvConnector.SYNCH_FILE_LOCK) {
-                reader = Util.createReader(configuration);
-                writer = new BufferedWriter(Channels.newWriter(lock.channel(), configuration.getEncoding()));
+    /**
+     * Writes in one batch can be applied by any handler with the same key, they have to parse and write records
+     * the same way.
+     */
+    private String createWriteBatchKey() {
+        return String.join("|", createIndexKey(), configuration.getPasswordAttribute(),
+                configuration.getMultivalueDelimiter(), Boolean.toString(configuration.isTrailingDelimiter()),
+                configuration.getQuoteMode(), configuration.getRecordSeparator(),
+                Integer.toString(configuration.getWriteBatchSize()),
+                Integer.toString(configuration.getWriteBatchWindow()), configuration.getDurabilityMode().name());
+    }
 
-                boolean found = false;
+    /**
+     * Applies batch of writes by one rewrite of the file. Every record goes through all writes in order, so
+     * result is the same as if writes were applied one by one. Records of created objects are written at the end
+     * of the file and go through writes submitted after the create. Failed writes don't change anything, other
+     * writes in the batch are still applied.
+     */
+    private void applyWrites(List<PendingWrite> writes) {
+        LOG.ok("Applying batch of {0} writes to {1}", writes.size(), configuration.getFilePath());
 
-                CSVFormat csv = Util.createCsvFormat(configuration);
-                CSVParser parser = csv.parse(reader);
+        // records without unique attribute value are removed by update, not by create
+        boolean dropEmpty = writes.stream().anyMatch(write -> write.operation != Operation.CREATE);
 
-                csv = Util.createCsvFormat(configuration);
-                CSVPrinter printer = csv.print(writer);
+        // every failure has to be stored in writes, otherwise writes of other threads would look applied
+        FileLock lock = null;
+        try {
+            int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
 
-                Iterator<CSVRecord> iterator = parser.iterator();
-                while (iterator.hasNext()) {
-                    CSVRecord record = iterator.next();
+            lock = Util.obtainTmpFileLock(configuration);
 
-                    Map<String, String> data = new HashMap<>();
-                    for (int i = 0; i < record.size(); i++) {
-                        data.put(header.get(i), record.get(i));
-                    }
+            try (RecordRewriter rewriter = RecordRewriter.create(configuration, lock.channel())) {
+                CsvRow record = rewriter.next();
+                if (configuration.isHeaderExists() && record != null) {
+                    rewriter.copy();
+                    record = rewriter.next();
+                }
 
-                    String recordUidValue = data.get(configuration.getUniqueAttribute());
-                    if (StringUtil.isEmpty(recordUidValue)) {
+                for (; record != null; record = rewriter.next()) {
+                    if (uidIndex >= record.size() || StringUtil.isEmpty(record.get(uidIndex))) {
+                        if (!dropEmpty) {
+                            rewriter.copy();
+                        }
                         continue;
                     }
 
-                    if (!uidMatches(uid.getUidValue(), recordUidValue, configuration.isIgnoreIdentifierCase())) {
-                        printer.printRecord(record);
+                    if (!isWritten(writes, record.get(uidIndex))) {
+                        rewriter.copy();
                         continue;
                     }
 
-                    found = true;
+                    List<Object> values = new ArrayList<>(record.size());
+                    for (int i = 0; i < record.size(); i++) {
+                        values.add(record.get(i));
+                    }
 
-                    if (!Operation.DELETE.equals(operation)) {
-                        List<Object> updated = updateObject(operation, data, attributes);
+                    values = applyWrites(writes, 0, values);
+                    if (values != null) {
+                        rewriter.write(values);
+                    }
+                }
 
-                        int uidIndex = this.getHeader().get(configuration.getUniqueAttribute()).getIndex();
-                        Object newUidValue = updated.get(uidIndex);
-                        uid = new Uid(newUidValue.toString());
+                for (int i = 0; i < writes.size(); i++) {
+                    PendingWrite write = writes.get(i);
+                    if (write.operation != Operation.CREATE || write.error != null) {
+                        continue;
+                    }
+
+                    List<Object> values;
+                    try {
+                        values = createNewRecord(write.attributes);
+                    } catch (Exception ex) {
+                        write.error = ex;
+                        continue;
+                    }
 
-                        printer.printRecord(updated);
+                    values = applyWrites(writes, i + 1, values);
+                    if (values != null) {
+                        rewriter.write(values);
                     }
                 }
 
-                writer.close();
-                reader.close();
+                rewriter.finish();
+            }
 
-                if (!found) {
-                    throw new UnknownUidException("Account '" + uid + "' not found");
+            boolean changed = false;
+            for (PendingWrite write : writes) {
+                if (write.error == null && write.operation != Operation.CREATE && !write.found) {
+                    write.error = new UnknownUidException("Account '" + write.uid + "' not found");
                 }
 
+                changed |= write.error == null;
+            }
+
+            if (changed) {
                 moveTmpToOrig();
             }
         } catch (Exception ex) {
-            handleGenericException(ex, "Error during account '" + uid + "' " + operation.name());
+            for (PendingWrite write : writes) {
+                if (write.error == null) {
+                    write.error = ex;
+                }
+            }
         } finally {
-            Util.cleanupResources(writer, reader, lock, configuration);
+            Util.cleanupResources(null, null, lock, configuration);
         }
-        return uid;
+    }
+
+    /**
+     * @return true if any write in the batch targets record with the unique attribute value, other records
+     * are copied without building their values
+     */
+    private boolean isWritten(List<PendingWrite> writes, String uid) {
+        for (PendingWrite write : writes) {
+            if (write.operation == Operation.CREATE ? write.uid.getUidValue().equals(uid)
+                    : uidMatches(write.uid.getUidValue(), uid, configuration.isIgnoreIdentifierCase())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Applies writes starting at index to one record.
+     *
+     * @return updated record values, or null if the record was deleted
+     */
+    private List<Object> applyWrites(List<PendingWrite> writes, int from, List<Object> values) {
+        int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+
+        for (int i = from; i < writes.size(); i++) {
+            PendingWrite write = writes.get(i);
+            if (write.error != null) {
+                continue;
+            }
+
+            Object value = values.get(uidIndex);
+            String uid = value != null ? value.toString() : null;
+
+            if (write.operation == Operation.CREATE) {
+                if (write.uid.getUidValue().equals(uid)) {
+                    write.error = new AlreadyExistsException("Account already exists '" + uid + "'.");
+                }
+                continue;
+            }
+
+            if (!uidMatches(write.uid.getUidValue(), uid, configuration.isIgnoreIdentifierCase())) {
+                continue;
+            }
+
+            write.found = true;
+
+            if (write.operation == Operation.DELETE) {
+                return null;
+            }
+
+            try {
+                values = updateObject(write.operation, values.toArray(), write.attributes);
+                write.result = new Uid(values.get(uidIndex).toString());
+            } catch (Exception ex) {
+                write.error = ex;
+            }
+        }
+
+        return values;
     }
 
     private Set<Attribute> normalize(Set<Attribute> attributes) {
@@ -1182,14 +3340,21 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
         return configuration.getNameAttribute().equals(column);
     }
 
-    private List<Object> updateObject(Operation operation, Map<String, String> data, Set<Attribute> attributes) {
-        Object[] result = new Object[getHeader().size()];
-
-        // prefill actual data
-        for (String column : getHeader().keySet()) {
-            result[getHeader().get(column).getIndex()] = data.get(column);
+    private List<Object> updateObject(Operation operation, CsvRow record, Set<Attribute> attributes) {
+        Object[] values = new Object[Math.min(record.size(), getHeader().size())];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = record.get(i);
         }
 
+        return updateObject(operation, values, attributes);
+    }
+
+    /**
+     * @param values actual record values, values of columns not in header are ignored
+     */
+    private List<Object> updateObject(Operation operation, Object[] values, Set<Attribute> attributes) {
+        Object[] result = Arrays.copyOf(values, getHeader().size());
+
         // update data based on attributes parameter
         switch (operation) {
             case UPDATE:
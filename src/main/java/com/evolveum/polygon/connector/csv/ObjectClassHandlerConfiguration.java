@@ -1,5 +1,6 @@
 package com.evolveum.polygon.connector.csv;
 
+import com.evolveum.polygon.connector.csv.util.Durability;
 import com.evolveum.polygon.connector.csv.util.Util;
 import org.apache.commons.csv.QuoteMode;
 import org.identityconnectors.common.StringUtil;
@@ -11,6 +12,7 @@ import java.io.File;
 import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
@@ -62,6 +64,46 @@ public class ObjectClassHandlerConfiguration {
 
     private DateFormat lastLoginDateFormatInstance;
 
+    private boolean indexEnabled = false;
+
+    private int inMemorySortLimit = 100000;
+
+    private boolean mappedReaderEnabled = false;
+
+    private int parallelScanThreads = 1;
+
+    private boolean parallelScanPreserveOrder = true;
+
+    private int objectCacheSize = 0;
+
+    private boolean appendOnCreate = false;
+
+    private int writeBatchSize = 1;
+
+    private int writeBatchWindow = 0;
+
+    private boolean journalEnabled = false;
+
+    private int journalCompactionThreshold = 1000;
+
+    private boolean inPlaceUpdateEnabled = false;
+
+    private boolean rawRecordCopyEnabled = false;
+
+    private int tmpFileLockTimeout = 5000;
+
+    private String durability = Durability.NONE.name();
+
+    private boolean sortedSyncDiff = false;
+
+    private boolean hashSyncSnapshots = false;
+
+    private boolean syncChangedAttributesOnly = false;
+
+    private int syncDiffPartitions = 1;
+
+    private int syncDiffThreads = 0;
+
     public ObjectClassHandlerConfiguration() {
         this(ObjectClass.ACCOUNT, null);
     }
@@ -102,6 +144,27 @@ public class ObjectClassHandlerConfiguration {
 
         setLastLoginDateAttribute(Util.getSafeValue(values, "lastLoginDateAttribute", null));
         setLastLoginDateFormat(Util.getSafeValue(values, "lastLoginDateFormat", null));
+
+        setIndexEnabled(Util.getSafeValue(values, "indexEnabled", false, Boolean.class));
+        setInMemorySortLimit(Util.getSafeValue(values, "inMemorySortLimit", 100000, Integer.class));
+        setMappedReaderEnabled(Util.getSafeValue(values, "mappedReaderEnabled", false, Boolean.class));
+        setParallelScanThreads(Util.getSafeValue(values, "parallelScanThreads", 1, Integer.class));
+        setParallelScanPreserveOrder(Util.getSafeValue(values, "parallelScanPreserveOrder", true, Boolean.class));
+        setObjectCacheSize(Util.getSafeValue(values, "objectCacheSize", 0, Integer.class));
+        setAppendOnCreate(Util.getSafeValue(values, "appendOnCreate", false, Boolean.class));
+        setWriteBatchSize(Util.getSafeValue(values, "writeBatchSize", 1, Integer.class));
+        setWriteBatchWindow(Util.getSafeValue(values, "writeBatchWindow", 0, Integer.class));
+        setJournalEnabled(Util.getSafeValue(values, "journalEnabled", false, Boolean.class));
+        setJournalCompactionThreshold(Util.getSafeValue(values, "journalCompactionThreshold", 1000, Integer.class));
+        setInPlaceUpdateEnabled(Util.getSafeValue(values, "inPlaceUpdateEnabled", false, Boolean.class));
+        setRawRecordCopyEnabled(Util.getSafeValue(values, "rawRecordCopyEnabled", false, Boolean.class));
+        setTmpFileLockTimeout(Util.getSafeValue(values, "tmpFileLockTimeout", 5000, Integer.class));
+        setDurability(Util.getSafeValue(values, "durability", Durability.NONE.name()));
+        setSortedSyncDiff(Util.getSafeValue(values, "sortedSyncDiff", false, Boolean.class));
+        setHashSyncSnapshots(Util.getSafeValue(values, "hashSyncSnapshots", false, Boolean.class));
+        setSyncChangedAttributesOnly(Util.getSafeValue(values, "syncChangedAttributesOnly", false, Boolean.class));
+        setSyncDiffPartitions(Util.getSafeValue(values, "syncDiffPartitions", 1, Integer.class));
+        setSyncDiffThreads(Util.getSafeValue(values, "syncDiffThreads", 0, Integer.class));
     }
 
     public void recompute() {
@@ -336,6 +399,171 @@ public class ObjectClassHandlerConfiguration {
         this.ignoreIdentifierCase = ignoreIdentifierCase;
     }
 
+    public boolean isIndexEnabled() {
+        return indexEnabled;
+    }
+
+    public void setIndexEnabled(boolean indexEnabled) {
+        this.indexEnabled = indexEnabled;
+    }
+
+    public int getInMemorySortLimit() {
+        return inMemorySortLimit;
+    }
+
+    public void setInMemorySortLimit(int inMemorySortLimit) {
+        this.inMemorySortLimit = inMemorySortLimit;
+    }
+
+    public boolean isMappedReaderEnabled() {
+        return mappedReaderEnabled;
+    }
+
+    public void setMappedReaderEnabled(boolean mappedReaderEnabled) {
+        this.mappedReaderEnabled = mappedReaderEnabled;
+    }
+
+    public int getParallelScanThreads() {
+        return parallelScanThreads;
+    }
+
+    public void setParallelScanThreads(int parallelScanThreads) {
+        this.parallelScanThreads = parallelScanThreads;
+    }
+
+    public boolean isParallelScanPreserveOrder() {
+        return parallelScanPreserveOrder;
+    }
+
+    public void setParallelScanPreserveOrder(boolean parallelScanPreserveOrder) {
+        this.parallelScanPreserveOrder = parallelScanPreserveOrder;
+    }
+
+    public int getObjectCacheSize() {
+        return objectCacheSize;
+    }
+
+    public void setObjectCacheSize(int objectCacheSize) {
+        this.objectCacheSize = objectCacheSize;
+    }
+
+    public boolean isAppendOnCreate() {
+        return appendOnCreate;
+    }
+
+    public void setAppendOnCreate(boolean appendOnCreate) {
+        this.appendOnCreate = appendOnCreate;
+    }
+
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    public void setWriteBatchSize(int writeBatchSize) {
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    public int getWriteBatchWindow() {
+        return writeBatchWindow;
+    }
+
+    public void setWriteBatchWindow(int writeBatchWindow) {
+        this.writeBatchWindow = writeBatchWindow;
+    }
+
+    public boolean isJournalEnabled() {
+        return journalEnabled;
+    }
+
+    public void setJournalEnabled(boolean journalEnabled) {
+        this.journalEnabled = journalEnabled;
+    }
+
+    public int getJournalCompactionThreshold() {
+        return journalCompactionThreshold;
+    }
+
+    public void setJournalCompactionThreshold(int journalCompactionThreshold) {
+        this.journalCompactionThreshold = journalCompactionThreshold;
+    }
+
+    public boolean isInPlaceUpdateEnabled() {
+        return inPlaceUpdateEnabled;
+    }
+
+    public void setInPlaceUpdateEnabled(boolean inPlaceUpdateEnabled) {
+        this.inPlaceUpdateEnabled = inPlaceUpdateEnabled;
+    }
+
+    public boolean isRawRecordCopyEnabled() {
+        return rawRecordCopyEnabled;
+    }
+
+    public void setRawRecordCopyEnabled(boolean rawRecordCopyEnabled) {
+        this.rawRecordCopyEnabled = rawRecordCopyEnabled;
+    }
+
+    public int getTmpFileLockTimeout() {
+        return tmpFileLockTimeout;
+    }
+
+    public void setTmpFileLockTimeout(int tmpFileLockTimeout) {
+        this.tmpFileLockTimeout = tmpFileLockTimeout;
+    }
+
+    public String getDurability() {
+        return durability;
+    }
+
+    public void setDurability(String durability) {
+        this.durability = durability;
+    }
+
+    public Durability getDurabilityMode() {
+        Durability mode = Durability.of(durability);
+        return mode != null ? mode : Durability.NONE;
+    }
+
+    public boolean isSortedSyncDiff() {
+        return sortedSyncDiff;
+    }
+
+    public void setSortedSyncDiff(boolean sortedSyncDiff) {
+        this.sortedSyncDiff = sortedSyncDiff;
+    }
+
+    public boolean isHashSyncSnapshots() {
+        return hashSyncSnapshots;
+    }
+
+    public void setHashSyncSnapshots(boolean hashSyncSnapshots) {
+        this.hashSyncSnapshots = hashSyncSnapshots;
+    }
+
+    public boolean isSyncChangedAttributesOnly() {
+        return syncChangedAttributesOnly;
+    }
+
+    public void setSyncChangedAttributesOnly(boolean syncChangedAttributesOnly) {
+        this.syncChangedAttributesOnly = syncChangedAttributesOnly;
+    }
+
+    public int getSyncDiffPartitions() {
+        return syncDiffPartitions;
+    }
+
+    public void setSyncDiffPartitions(int syncDiffPartitions) {
+        this.syncDiffPartitions = syncDiffPartitions;
+    }
+
+    public int getSyncDiffThreads() {
+        return syncDiffThreads;
+    }
+
+    public void setSyncDiffThreads(int syncDiffThreads) {
+        this.syncDiffThreads = syncDiffThreads;
+    }
+
     public void validate() {
         LOG.ok("Validating configuration for {0}", objectClass);
 
@@ -353,6 +581,47 @@ public class ObjectClassHandlerConfiguration {
         Util.notEmpty(commentMarker, "Comment marker character is not defined");
         Util.notEmpty(quote, "Quote character is not defined");
 
+        if (inMemorySortLimit <= 0) {
+            throw new ConfigurationException("In-memory sort limit must be greater than zero");
+        }
+
+        if (parallelScanThreads <= 0) {
+            throw new ConfigurationException("Number of parallel scan threads must be greater than zero");
+        }
+
+        if (objectCacheSize < 0) {
+            throw new ConfigurationException("Object cache size can't be negative");
+        }
+
+        if (writeBatchSize <= 0) {
+            throw new ConfigurationException("Write batch size must be greater than zero");
+        }
+
+        if (writeBatchWindow < 0) {
+            throw new ConfigurationException("Write batch window can't be negative");
+        }
+
+        if (journalCompactionThreshold <= 0) {
+            throw new ConfigurationException("Journal compaction threshold must be greater than zero");
+        }
+
+        if (tmpFileLockTimeout <= 0) {
+            throw new ConfigurationException("Tmp file lock timeout must be greater than zero");
+        }
+
+        if (syncDiffPartitions <= 0) {
+            throw new ConfigurationException("Sync diff partitions must be greater than zero");
+        }
+
+        if (syncDiffThreads < 0) {
+            throw new ConfigurationException("Sync diff threads can't be negative");
+        }
+
+        if (hashSyncSnapshots && (sortedSyncDiff || syncDiffPartitions > 1)) {
+            throw new ConfigurationException("Hash sync snapshots can't be used together with sorted or "
+                    + "partitioned sync diff");
+        }
+
         Util.notEmpty(quoteMode, "Quote mode is not defined");
         boolean found = false;
         for (QuoteMode qm : QuoteMode.values()) {
@@ -372,6 +641,11 @@ public class ObjectClassHandlerConfiguration {
                     + sb + "]");
         }
 
+        if (Durability.of(durability) == null) {
+            throw new ConfigurationException("Durability '" + durability + "' is not supported, supported values: "
+                    + Arrays.toString(Durability.values()));
+        }
+
         Util.notEmpty(recordSeparator, "Record separator is not defined");
 
         if (multivalueAttributes != null && multivalueDelimiter == null) {
@@ -398,10 +672,8 @@ public class ObjectClassHandlerConfiguration {
     public void validateCsvFile() {
         Util.checkCanReadFile(filePath);
 
-        synchronized (CsvConnector.SYNCH_FILE_LOCK) {
-            if (!readOnly && !filePath.canWrite()) {
-                throw new ConfigurationException("Can't write to file '" + filePath.getAbsolutePath() + "'");
-            }
+        if (!readOnly && !filePath.canWrite()) {
+            throw new ConfigurationException("Can't write to file '" + filePath.getAbsolutePath() + "'");
         }
     }
 
@@ -0,0 +1,58 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads file channel from the given position using positional reads, so more streams can read the same
+ * channel independently. Closing the stream doesn't close the channel. Stream can be limited to a part of
+ * the file, it ends at the limit offset then.
+ */
+public class ChannelInputStream extends InputStream {
+
+    private final FileChannel channel;
+
+    private long position;
+
+    private final long limit;
+
+    public ChannelInputStream(FileChannel channel, long position) {
+        this(channel, position, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param limit offset where the stream ends
+     */
+    public ChannelInputStream(FileChannel channel, long position, long limit) {
+        this.channel = channel;
+        this.position = position;
+        this.limit = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (position >= limit) {
+            return -1;
+        }
+        len = (int) Math.min(len, limit - position);
+
+        int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+        if (read > 0) {
+            position += read;
+        }
+
+        return read;
+    }
+}
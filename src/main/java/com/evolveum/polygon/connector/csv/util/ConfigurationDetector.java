@@ -2,7 +2,6 @@ package com.evolveum.polygon.connector.csv.util;
 
 
 import com.evolveum.polygon.connector.csv.CsvConfiguration;
-import com.evolveum.polygon.connector.csv.CsvConnector;
 import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
 import com.evolveum.polygon.connector.csv.util.Util.ParametersForDiscovery;
 import org.apache.commons.csv.CSVRecord;
@@ -308,27 +307,25 @@ public class ConfigurationDetector {
 
         List<Character> characters = new ArrayList<>();
 
-        synchronized (CsvConnector.SYNCH_FILE_LOCK) {
-            int r;
-            boolean previousIsNewLine = false;
-            while ((r = reader.read()) != -1
-                    && (countOfRow < MAX_PROCESSED_ROW || (countOfRow == MAX_PROCESSED_ROW && previousIsNewLine))) {
-                char ch = (char) r;
-                if (isNewLineChar(ch)) {
-                    if (!previousIsNewLine) {
-                        countOfRow++;
-                        previousIsNewLine = true;
-                    }
-                } else {
-                    previousIsNewLine = false;
-                    if (countOfRow == MAX_PROCESSED_ROW) {
-                        continue;
-                    }
+        int r;
+        boolean previousIsNewLine = false;
+        while ((r = reader.read()) != -1
+                && (countOfRow < MAX_PROCESSED_ROW || (countOfRow == MAX_PROCESSED_ROW && previousIsNewLine))) {
+            char ch = (char) r;
+            if (isNewLineChar(ch)) {
+                if (!previousIsNewLine) {
+                    countOfRow++;
+                    previousIsNewLine = true;
+                }
+            } else {
+                previousIsNewLine = false;
+                if (countOfRow == MAX_PROCESSED_ROW) {
+                    continue;
                 }
-                characters.add(ch);
             }
-            reader.close();
+            characters.add(ch);
         }
+        reader.close();
         return characters;
     }
 
@@ -340,10 +337,8 @@ public class ConfigurationDetector {
 
             String firstLine;
 
-            synchronized (CsvConnector.SYNCH_FILE_LOCK) {
-                firstLine = reader.readLine();
-                reader.close();
-            }
+            firstLine = reader.readLine();
+            reader.close();
 
             List<String> attributes = getAttributes(firstLine);
             List<String> potentialIdentifiers = getPotentialIdentifiers(attributes, suggestedDelimiters);
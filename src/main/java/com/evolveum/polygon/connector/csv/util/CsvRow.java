@@ -0,0 +1,64 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.apache.commons.csv.CSVRecord;
+import org.identityconnectors.common.StringUtil;
+
+/**
+ * Values of one CSV record. Implemented by {@link CSVRecord} adapter and by {@link MappedCsvReader}, which
+ * decodes values only when they're read.
+ */
+public interface CsvRow {
+
+    int size();
+
+    String get(int index);
+
+    /**
+     * @return record number as counted by CSV parser, header is record 1
+     */
+    long getRecordNumber();
+
+    default boolean isBlank(int index) {
+        return StringUtil.isBlank(get(index));
+    }
+
+    static CsvRow of(CSVRecord record) {
+        return new CsvRow() {
+
+            @Override
+            public int size() {
+                return record.size();
+            }
+
+            @Override
+            public String get(int index) {
+                return record.get(index);
+            }
+
+            @Override
+            public long getRecordNumber() {
+                return record.getRecordNumber();
+            }
+        };
+    }
+
+    static CsvRow of(String[] values, long recordNumber) {
+        return new CsvRow() {
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+
+            @Override
+            public String get(int index) {
+                return values[index];
+            }
+
+            @Override
+            public long getRecordNumber() {
+                return recordNumber;
+            }
+        };
+    }
+}
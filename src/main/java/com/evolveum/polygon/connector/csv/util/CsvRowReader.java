@@ -0,0 +1,37 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Reads CSV records one by one. Returned row may be reused by the reader, it's valid only until next call
+ * of {@link #next()}.
+ */
+public interface CsvRowReader extends Closeable {
+
+    /**
+     * @return next record, or null if there are no more records
+     */
+    CsvRow next() throws IOException;
+
+    static CsvRowReader of(CSVParser parser) {
+        Iterator<CSVRecord> iterator = parser.iterator();
+
+        return new CsvRowReader() {
+
+            @Override
+            public CsvRow next() {
+                return iterator.hasNext() ? CsvRow.of(iterator.next()) : null;
+            }
+
+            @Override
+            public void close() throws IOException {
+                parser.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,37 @@
+package com.evolveum.polygon.connector.csv.util;
+
+/**
+ * When rewritten CSV file is forced to the storage device. Appended records, records updated in place and
+ * journal entries are always forced.
+ */
+public enum Durability {
+
+    /**
+     * File is written and moved without force, durability depends on the operating system.
+     */
+    NONE,
+
+    /**
+     * Every operation forces tmp file before it's moved and directory after the move.
+     */
+    OPERATION,
+
+    /**
+     * Concurrent writes of the same file are applied in one batch (see {@link WriteBatcher}), which forces tmp
+     * file and directory once for all of them. Writes are acknowledged together when the batch is durable.
+     */
+    GROUP_COMMIT;
+
+    /**
+     * @return durability with the name (case is ignored), or null if there's no such durability
+     */
+    public static Durability of(String name) {
+        for (Durability durability : values()) {
+            if (durability.name().equalsIgnoreCase(name)) {
+                return durability;
+            }
+        }
+
+        return null;
+    }
+}
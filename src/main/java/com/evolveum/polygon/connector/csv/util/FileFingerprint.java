@@ -0,0 +1,41 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Identifies one version of a file: file key (inode where available), size and last modification time.
+ * Rewrites done through tmp file and atomic move always change the file key, in-place changes are caught
+ * by size or modification time.
+ */
+public record FileFingerprint(Object fileKey, long size, FileTime lastModified) {
+
+    public static FileFingerprint of(File file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        return new FileFingerprint(attrs.fileKey(), attrs.size(), attrs.lastModifiedTime());
+    }
+
+    /**
+     * @return value which can be stored outside of JVM (e.g. in paged results cookie) and compared later
+     */
+    public long checksum() {
+        long result = Objects.hashCode(fileKey);
+        result = 31 * result + size;
+        result = 31 * result + lastModified.to(TimeUnit.NANOSECONDS);
+
+        return result;
+    }
+
+    public boolean matches(File file) {
+        try {
+            return equals(of(file));
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JVM-wide queues of CSV files, shared by all connector instances. Writers obtain tmp file of the CSV file
+ * (see {@link Util#obtainTmpFileLock(File, File, int)}) and threads waiting for it wait in fair queue, they get
+ * their tmp file in order of arrival, one at a time. Writers of CSV file wait in queue of the CSV file
+ * (identified by its canonical path), so writers of one file don't block writers of other files and only one
+ * writer of the file works at a time. Only the first thread in queue competes for the tmp file with other
+ * processes. Readers don't wait in queues, they read snapshot of the file (see {@link FileSnapshot}).
+ */
+public final class FileLocks {
+
+    private static final Map<String, Semaphore> TMP_FILE_QUEUES = new ConcurrentHashMap<>();
+
+    private static final LockWaitStatistics TMP_FILE_WAITS = new LockWaitStatistics();
+
+    private FileLocks() {
+    }
+
+    /**
+     * Waits in queue until all threads which came before leave it, see {@link #leaveTmpFileQueue(File)}.
+     *
+     * @param file file which identifies the queue, CSV file or tmp file
+     *
+     * @return false if the thread wasn't first in queue before timeout
+     */
+    static boolean enterTmpFileQueue(File file, long timeout, TimeUnit unit) throws InterruptedException {
+        Semaphore queue = TMP_FILE_QUEUES.computeIfAbsent(createKey(file), key -> new Semaphore(1, true));
+
+        return queue.tryAcquire(timeout, unit);
+    }
+
+    /**
+     * Passes the queue to the next thread. Can be called from different thread than the one which
+     * entered the queue.
+     */
+    static void leaveTmpFileQueue(File file) {
+        Semaphore queue = TMP_FILE_QUEUES.get(createKey(file));
+        if (queue != null) {
+            queue.release();
+        }
+    }
+
+    /**
+     * @return time which write operations spent waiting for tmp files, including waiting for other processes
+     */
+    public static LockWaitStatistics getTmpFileWaitStatistics() {
+        return TMP_FILE_WAITS;
+    }
+
+    static void recordTmpFileWait(long waitNanos, boolean timedOut) {
+        if (timedOut) {
+            TMP_FILE_WAITS.recordTimeout(waitNanos);
+        } else {
+            TMP_FILE_WAITS.record(waitNanos);
+        }
+    }
+
+    /**
+     * @return key of the file, the same for all paths of the file
+     */
+    static String createKey(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException ex) {
+            return file.getAbsolutePath();
+        }
+    }
+}
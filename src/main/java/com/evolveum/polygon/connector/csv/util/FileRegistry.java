@@ -0,0 +1,78 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Values shared by all connector instances per CSV file (record indexes, object caches, write batchers).
+ * Connector is not poolable, so handlers live only for one operation and can't own them.
+ * <p>
+ * Every file (identified by its canonical path) has at most one value, created for one configuration key.
+ * If handler of the file asks for value with different key (connector was reconfigured), the old value is
+ * dropped and replaced, so old configurations don't keep their values. Number of files is limited too, value
+ * of the least recently used file is dropped when the limit is exceeded. Handlers which still use dropped
+ * value can finish with it, it's only not shared anymore.
+ */
+public class FileRegistry<T> {
+
+    private record Entry<T>(String key, T value) {
+    }
+
+    private final Map<String, Entry<T>> entries;
+
+    /**
+     * @param maxFiles maximum number of files which have value
+     */
+    public FileRegistry(int maxFiles) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<T>> eldest) {
+                return size() > maxFiles;
+            }
+        };
+    }
+
+    /**
+     * @param factory creates value if the file doesn't have value for the key, called while registry is locked
+     * @return value of the file for the key
+     */
+    public synchronized T computeIfAbsent(File file, String key, Supplier<T> factory) {
+        String path = FileLocks.createKey(file);
+
+        Entry<T> entry = entries.get(path);
+        if (entry == null || !entry.key().equals(key)) {
+            entry = new Entry<>(key, factory.get());
+            entries.put(path, entry);
+        }
+
+        return entry.value();
+    }
+
+    /**
+     * @return value of the file for the key, or null if there's none
+     */
+    public synchronized T get(File file, String key) {
+        Entry<T> entry = entries.get(FileLocks.createKey(file));
+
+        return entry != null && entry.key().equals(key) ? entry.value() : null;
+    }
+
+    /**
+     * @return value of the file for any key, or null if there's none
+     */
+    public synchronized T get(File file) {
+        Entry<T> entry = entries.get(FileLocks.createKey(file));
+
+        return entry != null ? entry.value() : null;
+    }
+
+    /**
+     * @return number of files which have value
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,141 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.identityconnectors.common.logging.Log;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * One version of CSV file pinned by open file channel. Writers publish new versions by atomic move of tmp file,
+ * so the channel keeps reading the version that was current when the snapshot was opened, no matter how many
+ * times the file was replaced since then. Reads are limited to the size of the file at that time, so records
+ * appended later aren't visible either.
+ * <p>
+ * Only changes made in place (in-place update) would be visible, so they are made only while no snapshot of the
+ * file is open, see {@link #tryClaimInPlace(File)}. Snapshot opened while the file is being changed in place
+ * waits until the change is done.
+ * <p>
+ * Readers of the snapshot use positional reads and don't close the channel, it's closed with the snapshot.
+ */
+public class FileSnapshot implements Closeable {
+
+    private static final Log LOG = Log.getLog(FileSnapshot.class);
+
+    private static final int MAX_ATTEMPTS = 10;
+
+    /**
+     * Open snapshots of every file hold read lock, in-place update holds write lock. Stamps aren't bound to
+     * threads, so snapshot can be closed by any thread.
+     */
+    private static final Map<String, StampedLock> PINS = new ConcurrentHashMap<>();
+
+    private final File file;
+
+    private final FileChannel channel;
+
+    private final FileFingerprint fingerprint;
+
+    private final StampedLock pin;
+
+    private long stamp;
+
+    private FileSnapshot(File file, FileChannel channel, FileFingerprint fingerprint, StampedLock pin, long stamp) {
+        this.file = file;
+        this.channel = channel;
+        this.fingerprint = fingerprint;
+        this.pin = pin;
+        this.stamp = stamp;
+    }
+
+    /**
+     * Opens the current version of the file. Fingerprint is read before and after the file is opened, if they
+     * differ, the file was replaced meanwhile and it's opened again.
+     */
+    public static FileSnapshot open(File file) throws IOException {
+        StampedLock pin = getPin(file);
+        long stamp = pin.readLock();
+
+        try {
+            for (int attempt = 1; ; attempt++) {
+                FileFingerprint fingerprint = FileFingerprint.of(file);
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+                if (fingerprint.matches(file) || attempt == MAX_ATTEMPTS) {
+                    return new FileSnapshot(file, channel, fingerprint, pin, stamp);
+                }
+
+                LOG.ok("File {0} changed while it was opened, opening again", file);
+                channel.close();
+            }
+        } catch (IOException | RuntimeException ex) {
+            pin.unlockRead(stamp);
+            throw ex;
+        }
+    }
+
+    /**
+     * Claims the file for in-place update, snapshots can't be opened until the claim is released by
+     * {@link #releaseInPlace(File, long)}.
+     *
+     * @return stamp of the claim, or 0 if a snapshot of the file is open
+     */
+    public static long tryClaimInPlace(File file) {
+        return getPin(file).tryWriteLock();
+    }
+
+    public static void releaseInPlace(File file, long stamp) {
+        getPin(file).unlockWrite(stamp);
+    }
+
+    private static StampedLock getPin(File file) {
+        return PINS.computeIfAbsent(FileLocks.createKey(file), key -> new StampedLock());
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    public FileFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return size of the file when the snapshot was opened
+     */
+    public long getSize() {
+        return fingerprint.size();
+    }
+
+    /**
+     * @return true if the file wasn't changed since the snapshot was opened
+     */
+    public boolean isCurrent() {
+        return fingerprint.matches(file);
+    }
+
+    public BufferedReader createReader(String encoding) throws IOException {
+        return new BufferedReader(new InputStreamReader(new ChannelInputStream(channel, 0, getSize()), encoding));
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            synchronized (this) {
+                if (stamp != 0) {
+                    pin.unlockRead(stamp);
+                    stamp = 0;
+                }
+            }
+        }
+    }
+}
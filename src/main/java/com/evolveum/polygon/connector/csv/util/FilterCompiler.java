@@ -0,0 +1,201 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.framework.common.objects.filter.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Compiles ConnId filters to predicates over CSV records ({@link CsvRow}), so records which don't match can be
+ * skipped without creating connector objects. Compiled predicates give the same result as {@link Filter#accept} would give for
+ * connector object created by {@link RowDecoder} from the record.
+ * <p>
+ * Supported filters are equals, starts with, contains, ends with and their and/or/not combinations over
+ * string attributes. Password and last login date attributes aren't supported.
+ */
+public class FilterCompiler {
+
+    private final RowDecoder decoder;
+
+    public FilterCompiler(RowDecoder decoder) {
+        this.decoder = decoder;
+    }
+
+    /**
+     * @return predicate equivalent to the filter, or null if some part of the filter can't be compiled
+     */
+    public Predicate<CsvRow> compile(Filter filter) {
+        Compiled compiled = compileFilter(filter);
+        return compiled != null && compiled.exact() ? compiled.predicate() : null;
+    }
+
+    /**
+     * Used when filter can't be fully compiled, e.g. and filter with one unsupported condition.
+     *
+     * @return predicate which matches at least all records matching the filter, or null if there's no such
+     * predicate cheaper than the filter itself
+     */
+    public Predicate<CsvRow> compilePrefilter(Filter filter) {
+        Compiled compiled = compileFilter(filter);
+        return compiled != null ? compiled.predicate() : null;
+    }
+
+    /**
+     * @param exact true if predicate matches exactly the same records as filter, otherwise it's prefilter only
+     */
+    private record Compiled(Predicate<CsvRow> predicate, boolean exact) {
+    }
+
+    private Compiled compileFilter(Filter filter) {
+        if (filter instanceof EqualsFilter) {
+            return compileEquals((EqualsFilter) filter);
+        } else if (filter instanceof StringFilter) {
+            return compileString((StringFilter) filter);
+        } else if (filter instanceof AndFilter) {
+            return compileAnd((AndFilter) filter);
+        } else if (filter instanceof OrFilter) {
+            return compileOr((OrFilter) filter);
+        } else if (filter instanceof NotFilter) {
+            Compiled compiled = compileFilter(((NotFilter) filter).getFilter());
+            if (compiled == null || !compiled.exact()) {
+                return null;
+            }
+
+            return new Compiled(compiled.predicate().negate(), true);
+        }
+
+        return null;
+    }
+
+    private Compiled compileAnd(AndFilter filter) {
+        List<Predicate<CsvRow>> predicates = new ArrayList<>();
+        boolean exact = true;
+
+        for (Filter f : filter.getFilters()) {
+            Compiled compiled = compileFilter(f);
+            if (compiled == null) {
+                exact = false;
+                continue;
+            }
+
+            predicates.add(compiled.predicate());
+            exact &= compiled.exact();
+        }
+
+        if (predicates.isEmpty()) {
+            return null;
+        }
+
+        return new Compiled(record -> {
+            for (Predicate<CsvRow> predicate : predicates) {
+                if (!predicate.test(record)) {
+                    return false;
+                }
+            }
+            return true;
+        }, exact);
+    }
+
+    private Compiled compileOr(OrFilter filter) {
+        List<Predicate<CsvRow>> predicates = new ArrayList<>();
+        boolean exact = true;
+
+        for (Filter f : filter.getFilters()) {
+            Compiled compiled = compileFilter(f);
+            if (compiled == null) {
+                // any record can match this branch
+                return null;
+            }
+
+            predicates.add(compiled.predicate());
+            exact &= compiled.exact();
+        }
+
+        return new Compiled(record -> {
+            for (Predicate<CsvRow> predicate : predicates) {
+                if (predicate.test(record)) {
+                    return true;
+                }
+            }
+            return false;
+        }, exact);
+    }
+
+    /**
+     * Attribute has to be present and have exactly the same values in the same order. Missing attribute matches
+     * only filter without values.
+     */
+    private Compiled compileEquals(EqualsFilter filter) {
+        int column = decoder.findStringColumn(filter.getName());
+        if (column == RowDecoder.UNSUPPORTED) {
+            return null;
+        }
+
+        List<Object> expected = filter.getAttribute().getValue();
+        if (column == RowDecoder.ABSENT) {
+            boolean result = expected == null;
+            return new Compiled(record -> result, true);
+        }
+
+        if (expected != null && expected.size() == 1 && !decoder.isMultiValue(column)) {
+            Object value = expected.get(0);
+            return new Compiled(record -> {
+                String actual = record.get(column);
+                return !StringUtil.isEmpty(actual) && actual.equals(value);
+            }, true);
+        }
+
+        return new Compiled(record -> {
+            List<String> values = decoder.decodeValues(record, column);
+            return values == null ? expected == null : values.equals(expected);
+        }, true);
+    }
+
+    /**
+     * Only the first value of attribute is compared, same as in {@link StringFilter#accept}.
+     */
+    private Compiled compileString(StringFilter filter) {
+        String expected;
+        try {
+            expected = filter.getValue();
+        } catch (RuntimeException ex) {
+            return null;
+        }
+
+        Predicate<String> matcher;
+        if (expected == null) {
+            return null;
+        } else if (filter instanceof StartsWithFilter) {
+            matcher = value -> value.startsWith(expected);
+        } else if (filter instanceof EndsWithFilter) {
+            matcher = value -> value.endsWith(expected);
+        } else if (filter instanceof ContainsFilter) {
+            matcher = value -> value.contains(expected);
+        } else {
+            return null;
+        }
+
+        int column = decoder.findStringColumn(filter.getName());
+        if (column == RowDecoder.UNSUPPORTED) {
+            return null;
+        }
+
+        if (column == RowDecoder.ABSENT) {
+            return new Compiled(record -> false, true);
+        }
+
+        if (!decoder.isMultiValue(column)) {
+            return new Compiled(record -> {
+                String actual = record.get(column);
+                return !StringUtil.isEmpty(actual) && matcher.test(actual);
+            }, true);
+        }
+
+        return new Compiled(record -> {
+            List<String> values = decoder.decodeValues(record, column);
+            return values != null && !values.isEmpty() && matcher.test(values.get(0));
+        }, true);
+    }
+}
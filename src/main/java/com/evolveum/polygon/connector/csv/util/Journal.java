@@ -0,0 +1,218 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.csv.QuoteMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Changes of CSV file which weren't written to the file yet. Journal is stored in a sidecar file, every entry
+ * contains operation, unique attribute value of changed record and all values of the record after the change.
+ * <p>
+ * Entries are written in UTF-8 with escaped line breaks, one entry per line, so entry torn by crash doesn't end
+ * with line break and it's dropped. Entries contain whole records, so applying journal again to the file it was
+ * already compacted into doesn't change the file.
+ */
+public class Journal {
+
+    private static final CSVFormat FORMAT = CSVFormat.DEFAULT.builder()
+            .setDelimiter(';')
+            .setQuote((Character) null)
+            .setEscape('\\')
+            .setQuoteMode(QuoteMode.NONE)
+            .setIgnoreEmptyLines(false)
+            .setRecordSeparator('\n')
+            .build();
+
+    private static final String UPSERT = "U";
+
+    private static final String DELETE = "D";
+
+    private final boolean ignoreCase;
+
+    private final int uidIndex;
+
+    /**
+     * Latest values of changed records by normalized unique attribute value, null for deleted records.
+     */
+    private final Map<String, String[]> records = new LinkedHashMap<>();
+
+    private int size;
+
+    private Journal(boolean ignoreCase, int uidIndex) {
+        this.ignoreCase = ignoreCase;
+        this.uidIndex = uidIndex;
+    }
+
+    /**
+     * @param uidIndex index of unique attribute column in record values
+     */
+    public static Journal read(File file, boolean ignoreCase, int uidIndex) throws IOException {
+        Journal journal = new Journal(ignoreCase, uidIndex);
+        if (!file.exists()) {
+            return journal;
+        }
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+
+        int length = bytes.length;
+        while (length > 0 && bytes[length - 1] != '\n') {
+            length--;
+        }
+
+        try (CSVParser parser = FORMAT.parse(new StringReader(new String(bytes, 0, length, StandardCharsets.UTF_8)))) {
+            for (CSVRecord record : parser) {
+                journal.apply(record);
+            }
+        }
+
+        return journal;
+    }
+
+    /**
+     * @param uid    unique attribute value of the record before the change, null for created record
+     * @param values all values of the record after the change
+     */
+    public static List<Object> createUpsert(String uid, List<Object> values) {
+        List<Object> entry = new ArrayList<>();
+        entry.add(UPSERT);
+        entry.add(uid);
+        entry.addAll(values);
+
+        return entry;
+    }
+
+    public static List<Object> createDelete(String uid) {
+        return Arrays.asList(DELETE, uid);
+    }
+
+    /**
+     * Appends entries to the journal file and forces them to disk. Torn entry at the end of the file is removed
+     * first. Caller has to hold tmp file lock of the CSV file.
+     */
+    public static void append(File file, List<List<Object>> entries) throws IOException {
+        StringWriter writer = new StringWriter();
+        CSVPrinter printer = FORMAT.print(writer);
+        for (List<Object> entry : entries) {
+            printer.printRecord(entry);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(writer.toString().getBytes(StandardCharsets.UTF_8));
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            long position = findEnd(channel);
+            channel.truncate(position);
+
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * @return position after the last line break
+     */
+    private static long findEnd(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+        long end = channel.size();
+        while (end > 0) {
+            long start = Math.max(0, end - buffer.capacity());
+
+            buffer.clear().limit((int) (end - start));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    break;
+                }
+            }
+
+            for (int i = buffer.position() - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return start + i + 1;
+                }
+            }
+
+            end = start;
+        }
+
+        return 0;
+    }
+
+    private void apply(CSVRecord record) {
+        size++;
+
+        String uid = record.get(1);
+        if (DELETE.equals(record.get(0))) {
+            records.put(normalize(uid), null);
+            return;
+        }
+
+        String[] values = new String[record.size() - 2];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = record.get(i + 2);
+        }
+
+        String key = normalize(values[uidIndex]);
+        if (!uid.isEmpty() && !normalize(uid).equals(key)) {
+            records.put(normalize(uid), null);
+        }
+        records.put(key, values);
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return true if the record with unique attribute value was changed
+     */
+    public boolean contains(String uid) {
+        return records.containsKey(normalize(uid));
+    }
+
+    /**
+     * @return values of changed record, null if it was deleted or not changed
+     */
+    public String[] get(String uid) {
+        return records.get(normalize(uid));
+    }
+
+    /**
+     * @return changed records by normalized unique attribute value, in order of the first change
+     */
+    public Map<String, String[]> getRecords() {
+        return Collections.unmodifiableMap(records);
+    }
+
+    public String normalize(String uid) {
+        return ignoreCase ? uid.toLowerCase(Locale.ROOT) : uid;
+    }
+}
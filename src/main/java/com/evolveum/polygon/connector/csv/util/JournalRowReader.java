@@ -0,0 +1,78 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads records of CSV file with changes from {@link Journal} applied. Changed records are returned instead of
+ * the original ones, deleted records are skipped and records created by journal are returned after the last
+ * record of the file.
+ */
+public class JournalRowReader implements CsvRowReader {
+
+    private final CsvRowReader reader;
+
+    private final Journal journal;
+
+    private final int uidIndex;
+
+    private final boolean headerExists;
+
+    /**
+     * Changed records which were already returned.
+     */
+    private final Set<String> returned = new HashSet<>();
+
+    private Iterator<Map.Entry<String, String[]>> created;
+
+    private long recordNumber;
+
+    public JournalRowReader(CsvRowReader reader, Journal journal, int uidIndex, boolean headerExists) {
+        this.reader = reader;
+        this.journal = journal;
+        this.uidIndex = uidIndex;
+        this.headerExists = headerExists;
+    }
+
+    @Override
+    public CsvRow next() throws IOException {
+        if (created == null) {
+            CsvRow row;
+            while ((row = reader.next()) != null) {
+                recordNumber = row.getRecordNumber();
+                if (headerExists && recordNumber == 1 || uidIndex >= row.size()) {
+                    return row;
+                }
+
+                String uid = row.get(uidIndex);
+                if (!journal.contains(uid)) {
+                    return row;
+                }
+
+                String[] values = journal.get(uid);
+                if (values != null && returned.add(journal.normalize(uid))) {
+                    return CsvRow.of(values, recordNumber);
+                }
+            }
+
+            created = journal.getRecords().entrySet().iterator();
+        }
+
+        while (created.hasNext()) {
+            Map.Entry<String, String[]> entry = created.next();
+            if (entry.getValue() != null && !returned.contains(entry.getKey())) {
+                return CsvRow.of(entry.getValue(), ++recordNumber);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,70 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent waiting for lock, collected JVM-wide for all files, see {@link FileLocks#getTmpFileWaitStatistics()}.
+ * Values are updated without locking, so they don't have to be consistent with each other while locks are
+ * being obtained.
+ */
+public class LockWaitStatistics {
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    private final LongAdder totalWait = new LongAdder();
+
+    private final AtomicLong maxWait = new AtomicLong();
+
+    void record(long waitNanos) {
+        count.increment();
+        totalWait.add(waitNanos);
+        maxWait.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    void recordTimeout(long waitNanos) {
+        timeouts.increment();
+        record(waitNanos);
+    }
+
+    /**
+     * @return number of lock attempts, including timed out ones
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getTotalWaitTime(TimeUnit unit) {
+        return unit.convert(totalWait.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxWaitTime(TimeUnit unit) {
+        return unit.convert(maxWait.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getAverageWaitTime(TimeUnit unit) {
+        long count = getCount();
+        return count == 0 ? 0 : unit.convert(totalWait.sum() / count, TimeUnit.NANOSECONDS);
+    }
+
+    public void reset() {
+        count.reset();
+        timeouts.reset();
+        totalWait.reset();
+        maxWait.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "LockWaitStatistics{count=" + getCount() + ", timeouts=" + getTimeouts()
+                + ", averageMs=" + getAverageWaitTime(TimeUnit.MILLISECONDS)
+                + ", maxMs=" + getMaxWaitTime(TimeUnit.MILLISECONDS) + "}";
+    }
+}
@@ -0,0 +1,678 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+import org.identityconnectors.common.StringUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Reads CSV file mapped to memory. Record and value boundaries are found directly on bytes and values are
+ * decoded to strings only when they're read from the row, so values which aren't needed (filtered out records,
+ * attributes which weren't requested) cost nothing but the scan.
+ * <p>
+ * Records and values are the same as commons-csv parser creates using
+ * {@link Util#createCsvFormatReader(ObjectClassHandlerConfiguration)} (quotes, escapes, comment lines,
+ * empty lines, surrounding spaces, trim, trailing delimiter), including record numbers. It can be used only
+ * for encodings where record boundaries can be found on bytes, see
+ * {@link Util#isByteScanSupported(ObjectClassHandlerConfiguration)}.
+ * <p>
+ * File is mapped in windows, record which crosses end of the window is read again from the next window
+ * which starts at the beginning of the record. Reader can be limited to a part of the file which starts and
+ * ends at record boundaries, as found by {@link RecordScanner}.
+ */
+public class MappedCsvReader implements CsvRowReader {
+
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final int CR = '\r';
+    private static final int LF = '\n';
+
+    private static final int EOF = -1;
+
+    /**
+     * Returned when byte after the end of window is needed, but file continues.
+     */
+    private static final int MORE = -2;
+
+    /**
+     * Used for special characters which aren't configured.
+     */
+    private static final int NONE = -3;
+
+    private static final byte QUOTED = 1;
+
+    /**
+     * Value contains escapes or doubled quotes.
+     */
+    private static final byte ESCAPED = 2;
+
+    private final FileChannel channel;
+
+    private final boolean closeChannel;
+
+    /**
+     * Offset where the read part of the file ends.
+     */
+    private final long end;
+
+    private final Charset charset;
+
+    private final boolean utf8;
+
+    /**
+     * Whitespace flags of bytes 0x80-0xff, used for single byte encodings.
+     */
+    private final boolean[] highWhitespace = new boolean[128];
+
+    private final int delimiter;
+    private final int quote;
+    private final int escape;
+    private final int commentMarker;
+    private final boolean ignoreEmptyLines;
+    private final boolean ignoreSurroundingSpaces;
+    private final boolean trim;
+    private final boolean trailingDelimiter;
+
+    private int windowSize;
+
+    private MappedByteBuffer buffer;
+
+    private long windowStart;
+
+    private int limit;
+
+    /**
+     * Position of the next record in window.
+     */
+    private int position;
+
+    private long recordNumber;
+
+    /**
+     * Offsets of the last returned record, end includes record separator.
+     */
+    private long recordOffset;
+    private long recordEnd;
+
+    private final MappedRow row = new MappedRow();
+
+    private byte[] scratch = new byte[256];
+
+    public MappedCsvReader(File file, ObjectClassHandlerConfiguration configuration) throws IOException {
+        this(file, configuration, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MappedCsvReader(File file, ObjectClassHandlerConfiguration configuration, int windowSize)
+            throws IOException {
+        this(FileChannel.open(file.toPath(), StandardOpenOption.READ), true, configuration, 0, -1, 0, windowSize);
+    }
+
+    /**
+     * Reads part of the file, channel isn't closed by the reader.
+     *
+     * @param start        offset of the first record
+     * @param end          offset after the last record
+     * @param recordNumber number of records before the start offset
+     */
+    public MappedCsvReader(FileChannel channel, ObjectClassHandlerConfiguration configuration, long start, long end,
+                           long recordNumber) throws IOException {
+        this(channel, false, configuration, start, end, recordNumber, DEFAULT_WINDOW_SIZE);
+    }
+
+    private MappedCsvReader(FileChannel channel, boolean closeChannel, ObjectClassHandlerConfiguration configuration,
+                            long start, long end, long recordNumber, int windowSize) throws IOException {
+        this.channel = channel;
+        this.closeChannel = closeChannel;
+        this.recordNumber = recordNumber;
+        this.windowSize = windowSize;
+
+        this.charset = Charset.forName(configuration.getEncoding());
+        this.utf8 = StandardCharsets.UTF_8.equals(charset);
+        if (!utf8) {
+            for (int i = 0; i < highWhitespace.length; i++) {
+                String value = new String(new byte[]{(byte) (0x80 + i)}, charset);
+                highWhitespace[i] = value.length() == 1 && Character.isWhitespace(value.charAt(0));
+            }
+        }
+
+        this.delimiter = toByte(configuration.getFieldDelimiter());
+        this.quote = toByte(configuration.getQuote());
+        this.escape = toByte(configuration.getEscape());
+        this.commentMarker = toByte(configuration.getCommentMarker());
+        this.ignoreEmptyLines = configuration.isIgnoreEmptyLines();
+        this.ignoreSurroundingSpaces = configuration.isIgnoreSurroundingSpaces();
+        this.trim = configuration.isTrim();
+        this.trailingDelimiter = configuration.isTrailingDelimiter();
+
+        try {
+            this.end = end >= 0 ? end : channel.size();
+            map(start);
+        } catch (IOException | RuntimeException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    private static int toByte(String value) {
+        Character c = Util.toCharacter(value);
+        return c != null ? c : NONE;
+    }
+
+    @Override
+    public CsvRow next() throws IOException {
+        while (true) {
+            row.reset();
+
+            int next = scanRecord();
+            if (next == EOF) {
+                return null;
+            }
+
+            if (next == MORE) {
+                remap();
+                continue;
+            }
+
+            recordOffset = windowStart + position;
+            recordEnd = windowStart + next;
+            position = next;
+
+            if (trailingDelimiter && row.size > 0 && row.get(row.size - 1).isEmpty()) {
+                row.size--;
+                row.values[row.size] = null;
+            }
+
+            if (row.size == 0) {
+                // parser stops at record without values too
+                return null;
+            }
+
+            recordNumber++;
+            row.recordNumber = recordNumber;
+
+            return row;
+        }
+    }
+
+    /**
+     * @return offset of the last returned record in the file
+     */
+    public long getRecordOffset() {
+        return recordOffset;
+    }
+
+    /**
+     * @return offset after the last returned record including its record separator, if there is one
+     */
+    public long getRecordEnd() {
+        return recordEnd;
+    }
+
+    private void map(long start) throws IOException {
+        long size = Math.min(windowSize, end - start);
+
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        windowStart = start;
+        limit = (int) size;
+        position = 0;
+    }
+
+    private void remap() throws IOException {
+        if (position == 0) {
+            // record doesn't fit to the whole window
+            if (windowSize == Integer.MAX_VALUE) {
+                throw new IOException("Record at offset " + windowStart + " is longer than "
+                        + Integer.MAX_VALUE + " bytes");
+            }
+            windowSize = (int) Math.min(2L * windowSize, Integer.MAX_VALUE);
+        }
+
+        map(windowStart + position);
+    }
+
+    private int get(int p) {
+        if (p < limit) {
+            return buffer.get(p) & 0xff;
+        }
+
+        return windowStart + limit >= end ? EOF : MORE;
+    }
+
+    /**
+     * Skips comment lines and ignored empty lines and reads values of the next record to the row.
+     *
+     * @return position after the record including its record separator, {@link #EOF} or {@link #MORE}
+     */
+    private int scanRecord() throws IOException {
+        int p = position;
+        while (true) {
+            int c = get(p);
+            if (c < 0) {
+                return c;
+            }
+
+            if (ignoreEmptyLines && (c == CR || c == LF)) {
+                p = skipLineBreak(p);
+            } else if (c == commentMarker) {
+                p = skipLine(p);
+            } else {
+                break;
+            }
+
+            if (p == MORE) {
+                return MORE;
+            }
+            position = p;
+        }
+
+        while (true) {
+            int c = get(p);
+            if (ignoreSurroundingSpaces) {
+                while (c >= 0 && c != delimiter && c != CR && c != LF) {
+                    int length = whitespaceLength(p, c);
+                    if (length == MORE) {
+                        return MORE;
+                    }
+                    if (length == 0) {
+                        break;
+                    }
+
+                    p += length;
+                    c = get(p);
+                }
+            }
+
+            if (c == MORE) {
+                return MORE;
+            }
+
+            if (c == quote) {
+                p = scanQuoted(p);
+            } else if (c != delimiter && c != CR && c != LF && c != EOF) {
+                p = scanSimple(p);
+            } else {
+                row.add(p, p, (byte) 0);
+            }
+
+            if (p == MORE) {
+                return MORE;
+            }
+
+            c = get(p);
+            if (c == delimiter) {
+                p++;
+                continue;
+            }
+
+            return c == EOF ? p : skipLineBreak(p);
+        }
+    }
+
+    /**
+     * @return position of delimiter, line break or end of file after the value
+     */
+    private int scanSimple(int p) throws IOException {
+        int start = p;
+        byte flags = 0;
+
+        while (true) {
+            int c = get(p);
+            if (c == MORE) {
+                return MORE;
+            }
+
+            if (c == EOF || c == delimiter || c == CR || c == LF) {
+                row.add(start, p, flags);
+                return p;
+            }
+
+            if (c == escape) {
+                if (checkEscaped(p) == MORE) {
+                    return MORE;
+                }
+
+                flags |= ESCAPED;
+                p += 2;
+                continue;
+            }
+
+            p++;
+        }
+    }
+
+    /**
+     * @param p position of opening quote
+     * @return position of delimiter, line break or end of file after closing quote
+     */
+    private int scanQuoted(int p) throws IOException {
+        int start = p + 1;
+        byte flags = QUOTED;
+
+        p = start;
+        while (true) {
+            int c = get(p);
+            if (c == MORE) {
+                return MORE;
+            }
+
+            if (c == EOF) {
+                throw new IOException("EOF reached while parsing encapsulated token starting at offset "
+                        + (windowStart + start - 1));
+            }
+
+            if (c == escape) {
+                if (checkEscaped(p) == MORE) {
+                    return MORE;
+                }
+
+                flags |= ESCAPED;
+                p += 2;
+                continue;
+            }
+
+            if (c != quote) {
+                p++;
+                continue;
+            }
+
+            int next = get(p + 1);
+            if (next == MORE) {
+                return MORE;
+            }
+
+            if (next == quote) {
+                flags |= ESCAPED;
+                p += 2;
+                continue;
+            }
+
+            row.add(start, p, flags);
+            p++;
+
+            // only whitespace can be between closing quote and delimiter
+            while (true) {
+                c = get(p);
+                if (c == MORE) {
+                    return MORE;
+                }
+
+                if (c == EOF || c == delimiter || c == CR || c == LF) {
+                    return p;
+                }
+
+                int length = whitespaceLength(p, c);
+                if (length == MORE) {
+                    return MORE;
+                }
+                if (length == 0) {
+                    throw new IOException("Invalid char between encapsulated token and delimiter at offset "
+                            + (windowStart + p));
+                }
+
+                p += length;
+            }
+        }
+    }
+
+    private int checkEscaped(int p) throws IOException {
+        int next = get(p + 1);
+        if (next == EOF) {
+            throw new IOException("EOF whilst processing escape sequence at offset " + (windowStart + p));
+        }
+
+        return next;
+    }
+
+    private int skipLine(int p) {
+        while (true) {
+            int c = get(p);
+            if (c == MORE || c == EOF) {
+                return c == MORE ? MORE : p;
+            }
+
+            if (c == CR || c == LF) {
+                return skipLineBreak(p);
+            }
+
+            p++;
+        }
+    }
+
+    private int skipLineBreak(int p) {
+        if (get(p) != CR) {
+            return p + 1;
+        }
+
+        int next = get(p + 1);
+        if (next == MORE) {
+            return MORE;
+        }
+
+        return next == LF ? p + 2 : p + 1;
+    }
+
+    /**
+     * @param c byte at the position
+     * @return number of bytes of whitespace character at the position, 0 if there's no whitespace
+     */
+    private int whitespaceLength(int p, int c) {
+        if (c < 0x80) {
+            return Character.isWhitespace(c) ? 1 : 0;
+        }
+
+        if (!utf8) {
+            return highWhitespace[c - 0x80] ? 1 : 0;
+        }
+
+        // whitespace characters above ASCII are encoded as three bytes starting with 0xe1-0xe3
+        if (c < 0xe1 || c > 0xe3) {
+            return 0;
+        }
+
+        int c1 = get(p + 1);
+        int c2 = get(p + 2);
+        if (c1 == MORE || c2 == MORE) {
+            return MORE;
+        }
+
+        if ((c1 & 0xc0) != 0x80 || (c2 & 0xc0) != 0x80) {
+            return 0;
+        }
+
+        int codePoint = ((c & 0x0f) << 12) | ((c1 & 0x3f) << 6) | (c2 & 0x3f);
+        return Character.isWhitespace(codePoint) ? 3 : 0;
+    }
+
+    /**
+     * Same as commons-csv lexer does when it reads escape sequence.
+     *
+     * @return unescaped character, or {@link #NONE} if both escape and the character are kept
+     */
+    private int unescape(int c) {
+        switch (c) {
+            case 'r':
+                return CR;
+            case 'n':
+                return LF;
+            case 't':
+                return '\t';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case CR:
+            case LF:
+            case '\t':
+            case '\b':
+            case '\f':
+                return c;
+            default:
+                if (c == delimiter || c == quote || c == escape || c == commentMarker) {
+                    return c;
+                }
+                return NONE;
+        }
+    }
+
+    private String decode(int start, int end, byte flags) {
+        int length = end - start;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+
+        byte[] bytes = scratch;
+        buffer.get(start, bytes, 0, length);
+
+        if ((flags & ESCAPED) != 0) {
+            length = unescape(bytes, length, (flags & QUOTED) != 0);
+        }
+
+        String value = new String(bytes, 0, length, charset);
+
+        if (ignoreSurroundingSpaces && (flags & QUOTED) == 0) {
+            value = trimTrailingSpaces(value);
+        }
+
+        return trim ? value.trim() : value;
+    }
+
+    /**
+     * Unescapes value in place, result is never longer than the value.
+     *
+     * @return length of unescaped value
+     */
+    private int unescape(byte[] bytes, int length, boolean quoted) {
+        int out = 0;
+        for (int i = 0; i < length; i++) {
+            int c = bytes[i] & 0xff;
+
+            if (c == escape) {
+                int next = bytes[++i] & 0xff;
+                int unescaped = unescape(next);
+                if (unescaped == NONE) {
+                    bytes[out++] = (byte) c;
+                    bytes[out++] = (byte) next;
+                } else {
+                    bytes[out++] = (byte) unescaped;
+                }
+            } else if (quoted && c == quote) {
+                // doubled quote
+                bytes[out++] = (byte) c;
+                i++;
+            } else {
+                bytes[out++] = (byte) c;
+            }
+        }
+
+        return out;
+    }
+
+    private static String trimTrailingSpaces(String value) {
+        int length = value.length();
+        while (length > 0 && Character.isWhitespace(value.charAt(length - 1))) {
+            length--;
+        }
+
+        return length == value.length() ? value : value.substring(0, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        if (closeChannel) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Values of the current record, reused for all records.
+     */
+    private class MappedRow implements CsvRow {
+
+        private int size;
+
+        private int[] starts = new int[16];
+
+        private int[] ends = new int[16];
+
+        private byte[] flags = new byte[16];
+
+        private String[] values = new String[16];
+
+        private long recordNumber;
+
+        private void reset() {
+            Arrays.fill(values, 0, size, null);
+            size = 0;
+        }
+
+        private void add(int start, int end, byte valueFlags) {
+            if (size == starts.length) {
+                int length = size * 2;
+                starts = Arrays.copyOf(starts, length);
+                ends = Arrays.copyOf(ends, length);
+                flags = Arrays.copyOf(flags, length);
+                values = Arrays.copyOf(values, length);
+            }
+
+            starts[size] = start;
+            ends[size] = end;
+            flags[size] = valueFlags;
+            size++;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public String get(int index) {
+            Objects.checkIndex(index, size);
+
+            String value = values[index];
+            if (value == null) {
+                value = decode(starts[index], ends[index], flags[index]);
+                values[index] = value;
+            }
+
+            return value;
+        }
+
+        @Override
+        public boolean isBlank(int index) {
+            Objects.checkIndex(index, size);
+
+            if (values[index] != null || (flags[index] & ESCAPED) != 0) {
+                return StringUtil.isBlank(get(index));
+            }
+
+            for (int p = starts[index]; p < ends[index]; p++) {
+                int c = buffer.get(p) & 0xff;
+                if (c >= 0x80) {
+                    // could be whitespace removed by trimming
+                    return StringUtil.isBlank(get(index));
+                }
+
+                if (c > ' ') {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public long getRecordNumber() {
+            return recordNumber;
+        }
+    }
+}
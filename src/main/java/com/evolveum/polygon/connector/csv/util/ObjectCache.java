@@ -0,0 +1,157 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of connector objects created from one version of CSV file. Objects are looked up by unique
+ * attribute value, least recently used values are evicted when cache is full. If all objects of the file fit
+ * into the cache, they can be stored together, so searches are done without reading the file.
+ * <p>
+ * Every lookup gets fingerprint of the file, all cached objects are dropped when the fingerprint doesn't match
+ * the one they were created from. Fingerprint has to be read before the file is opened, so objects read from
+ * newer file can't be stored with older fingerprint.
+ */
+public class ObjectCache {
+
+    private final int maxSize;
+
+    private final boolean ignoreCase;
+
+    private final LinkedHashMap<String, List<ConnectorObject>> objects;
+
+    private FileFingerprint fingerprint;
+
+    /**
+     * All objects of the file in file order, null if they aren't known.
+     */
+    private List<ConnectorObject> allObjects;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxSize    maximum number of cached unique attribute values
+     * @param ignoreCase whether unique attribute values are compared case-insensitive
+     */
+    public ObjectCache(int maxSize, boolean ignoreCase) {
+        this.maxSize = maxSize;
+        this.ignoreCase = ignoreCase;
+
+        this.objects = new LinkedHashMap<>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<ConnectorObject>> eldest) {
+                if (size() <= ObjectCache.this.maxSize) {
+                    return false;
+                }
+
+                allObjects = null;
+                return true;
+            }
+        };
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return objects with the unique attribute value (empty list if there are none), or null if it isn't cached
+     */
+    public synchronized List<ConnectorObject> get(FileFingerprint fingerprint, String uid) {
+        validate(fingerprint);
+
+        List<ConnectorObject> result = objects.get(createKey(uid));
+        if (result == null && allObjects != null) {
+            result = List.of();
+        }
+
+        count(result != null);
+
+        return result;
+    }
+
+    public synchronized void put(FileFingerprint fingerprint, String uid, List<ConnectorObject> result) {
+        validate(fingerprint);
+
+        objects.put(createKey(uid), List.copyOf(result));
+    }
+
+    /**
+     * @return all objects of the file, or null if they aren't cached
+     */
+    public synchronized List<ConnectorObject> getAll(FileFingerprint fingerprint) {
+        validate(fingerprint);
+
+        count(allObjects != null);
+
+        return allObjects;
+    }
+
+    /**
+     * Stores all objects of the file, if there are more than maximum size of the cache, nothing is stored.
+     */
+    public synchronized void putAll(FileFingerprint fingerprint, List<ConnectorObject> all) {
+        validate(fingerprint);
+
+        Map<String, List<ConnectorObject>> byUid = new LinkedHashMap<>();
+        for (ConnectorObject object : all) {
+            byUid.computeIfAbsent(createKey(object.getUid().getUidValue()), key -> new ArrayList<>()).add(object);
+        }
+
+        if (byUid.size() > maxSize) {
+            return;
+        }
+
+        objects.clear();
+        byUid.forEach((key, value) -> objects.put(key, List.copyOf(value)));
+        allObjects = List.copyOf(all);
+    }
+
+    /**
+     * Drops all cached objects, used when the file changed without changing its fingerprint.
+     */
+    public synchronized void clear() {
+        objects.clear();
+        allObjects = null;
+        fingerprint = null;
+    }
+
+    public synchronized int size() {
+        return objects.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    private void validate(FileFingerprint fingerprint) {
+        if (fingerprint.equals(this.fingerprint)) {
+            return;
+        }
+
+        objects.clear();
+        allObjects = null;
+        this.fingerprint = fingerprint;
+    }
+
+    private String createKey(String uid) {
+        return ignoreCase ? uid.toLowerCase(Locale.ROOT) : uid;
+    }
+
+    private void count(boolean hit) {
+        (hit ? hits : misses).increment();
+    }
+}
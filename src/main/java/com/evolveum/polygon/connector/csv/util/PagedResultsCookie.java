@@ -0,0 +1,33 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+
+/**
+ * Paged results cookie, points to the first record of the next page.
+ *
+ * @param position     byte offset of the next record
+ * @param recordNumber number of the next record, as counted by CSV parser
+ * @param fingerprint  {@link FileFingerprint#checksum()} of the file, cookie can't be used when file changes
+ */
+public record PagedResultsCookie(long position, long recordNumber, long fingerprint) {
+
+    private static final String SEPARATOR = ":";
+
+    public String encode() {
+        return position + SEPARATOR + recordNumber + SEPARATOR + Long.toHexString(fingerprint);
+    }
+
+    public static PagedResultsCookie decode(String cookie) {
+        String[] parts = cookie.split(SEPARATOR);
+        if (parts.length != 3) {
+            throw new InvalidAttributeValueException("Invalid paged results cookie '" + cookie + "'");
+        }
+
+        try {
+            return new PagedResultsCookie(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                    Long.parseUnsignedLong(parts[2], 16));
+        } catch (NumberFormatException ex) {
+            throw new InvalidAttributeValueException("Invalid paged results cookie '" + cookie + "'", ex);
+        }
+    }
+}
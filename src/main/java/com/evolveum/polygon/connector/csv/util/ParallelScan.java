@@ -0,0 +1,245 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+import org.apache.commons.csv.CSVParser;
+import org.identityconnectors.common.logging.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Scans CSV file using more threads. File is split to chunks of whole records by {@link RecordScanner}, which
+ * only looks for record separators outside of quoted values, so splitting is much cheaper than parsing.
+ * Chunks are parsed and processed by worker threads, results are passed to the consumer in the calling thread,
+ * in file order if it's required.
+ * <p>
+ * Number of chunks which are processed or waiting for the consumer is limited, so results of the whole file
+ * are never kept in memory. Can be used only if {@link Util#isByteScanSupported(ObjectClassHandlerConfiguration)}.
+ */
+public class ParallelScan {
+
+    private static final Log LOG = Log.getLog(ParallelScan.class);
+
+    private static final long MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final int CHUNKS_PER_THREAD = 16;
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final ObjectClassHandlerConfiguration configuration;
+
+    private final int threads;
+
+    private final boolean preserveOrder;
+
+    private volatile boolean stopped;
+
+    public ParallelScan(ObjectClassHandlerConfiguration configuration, int threads, boolean preserveOrder) {
+        this.configuration = configuration;
+        this.threads = threads;
+        this.preserveOrder = preserveOrder;
+    }
+
+    /**
+     * Processes records of one chunk in worker thread.
+     */
+    public interface ChunkProcessor<T> {
+
+        /**
+         * @param rows    records of the chunk, including header and empty records
+         * @param stopped returns true when results aren't needed anymore and processing can end
+         */
+        List<T> process(CsvRowReader rows, BooleanSupplier stopped) throws Exception;
+    }
+
+    /**
+     * @param index index of the chunk, number of chunks for the last result
+     * @param items results of the chunk, or null if this is the last result
+     * @param error error thrown when chunk was processed or file was split
+     */
+    private record ChunkResult<T>(int index, List<T> items, Exception error) {
+    }
+
+    /**
+     * @param consumer called for results of processor in the calling thread, returns false to stop the scan
+     */
+    public <T> void execute(ChunkProcessor<T> processor, Predicate<T> consumer) throws Exception {
+        try (FileChannel channel = FileChannel.open(configuration.getFilePath().toPath(), StandardOpenOption.READ)) {
+            execute(channel, channel.size(), processor, consumer);
+        }
+    }
+
+    /**
+     * Scans first size bytes of the channel, channel isn't closed.
+     *
+     * @param consumer called for results of processor in the calling thread, returns false to stop the scan
+     */
+    public <T> void execute(FileChannel channel, long size, ChunkProcessor<T> processor, Predicate<T> consumer)
+            throws Exception {
+        BlockingQueue<ChunkResult<T>> results = new LinkedBlockingQueue<>();
+        Semaphore inFlight = new Semaphore(threads * 2);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1, runnable -> {
+            Thread thread = new Thread(runnable, "csv-scan-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            long chunkSize = Math.max(1, Math.min(MAX_CHUNK_SIZE, size / ((long) threads * CHUNKS_PER_THREAD)));
+
+            LOG.ok("Scanning {0} ({1} bytes) using {2} threads, chunk size {3}", configuration.getFilePath(),
+                    size, threads, chunkSize);
+
+            executor.execute(() -> {
+                int count = 0;
+                try {
+                    count = split(channel, size, chunkSize, (start, end, recordNumber, index) -> {
+                        inFlight.acquire();
+                        executor.execute(() -> results.add(processChunk(processor, channel, start, end,
+                                recordNumber, index)));
+                    });
+                } catch (Exception ex) {
+                    if (!stopped) {
+                        results.add(new ChunkResult<>(count, null, ex));
+                    }
+                    return;
+                }
+
+                results.add(new ChunkResult<>(count, null, null));
+            });
+
+            consume(results, inFlight, consumer);
+        } finally {
+            stopped = true;
+            executor.shutdownNow();
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOG.warn("Scan threads didn't finish in time");
+            }
+        }
+    }
+
+    private interface ChunkSink {
+
+        void accept(long start, long end, long recordNumber, int index) throws InterruptedException;
+    }
+
+    /**
+     * @return number of chunks
+     */
+    private int split(FileChannel channel, long size, long chunkSize, ChunkSink sink)
+            throws IOException, InterruptedException {
+        int index = 0;
+        long start = 0;
+        long recordNumber = 0;
+
+        try (RecordScanner scanner = new RecordScanner(new ChannelInputStream(channel, 0, size), configuration)) {
+            RecordRange range;
+            while (!stopped && (range = scanner.next()) != null) {
+                long end = scanner.getPosition();
+                if (end - start < chunkSize) {
+                    continue;
+                }
+
+                sink.accept(start, end, recordNumber, index++);
+
+                start = end;
+                recordNumber = range.recordNumber();
+            }
+        }
+
+        if (!stopped && start < size) {
+            // rest of the file, it can contain comments or empty lines only
+            sink.accept(start, size, recordNumber, index++);
+        }
+
+        return index;
+    }
+
+    private <T> ChunkResult<T> processChunk(ChunkProcessor<T> processor, FileChannel channel, long start, long end,
+                                            long recordNumber, int index) {
+        try (CsvRowReader rows = createReader(channel, start, end, recordNumber)) {
+            return new ChunkResult<>(index, processor.process(rows, () -> stopped), null);
+        } catch (Exception ex) {
+            return new ChunkResult<>(index, null, ex);
+        }
+    }
+
+    private CsvRowReader createReader(FileChannel channel, long start, long end, long recordNumber)
+            throws IOException {
+        if (configuration.isMappedReaderEnabled()) {
+            return new MappedCsvReader(channel, configuration, start, end, recordNumber);
+        }
+
+        Reader reader = new BufferedReader(new InputStreamReader(new ChannelInputStream(channel, start, end),
+                configuration.getEncoding()));
+
+        return CsvRowReader.of(new CSVParser(reader, Util.createCsvFormatReader(configuration), 0,
+                recordNumber + 1));
+    }
+
+    private <T> void consume(BlockingQueue<ChunkResult<T>> results, Semaphore inFlight, Predicate<T> consumer)
+            throws Exception {
+        Map<Integer, List<T>> pending = new HashMap<>();
+        int next = 0;
+        int count = -1;
+
+        while (count < 0 || next < count) {
+            ChunkResult<T> result = results.take();
+            if (result.error() != null) {
+                throw result.error();
+            }
+
+            if (result.items() == null) {
+                count = result.index();
+                continue;
+            }
+
+            if (!preserveOrder) {
+                next++;
+                inFlight.release();
+                if (!consume(result.items(), consumer)) {
+                    return;
+                }
+                continue;
+            }
+
+            pending.put(result.index(), result.items());
+
+            List<T> items;
+            while ((items = pending.remove(next)) != null) {
+                next++;
+                inFlight.release();
+                if (!consume(items, consumer)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private <T> boolean consume(List<T> items, Predicate<T> consumer) {
+        for (T item : items) {
+            if (!consumer.test(item)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,207 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory index of record positions built for one version of the CSV file (see {@link FileFingerprint}).
+ * Index is only a hint, caller has to check that record read from the position matches the key.
+ * <p>
+ * Index can be moved to next version of the file when records are appended to it, see
+ * {@link #append(FileFingerprint, FileFingerprint, RecordRange, String, String)}, so all methods are synchronized.
+ */
+public class RecordIndex {
+
+    private FileFingerprint fingerprint;
+
+    private final boolean ignoreCase;
+
+    private final Map<String, List<RecordRange>> uids = new HashMap<>();
+
+    private final Map<String, List<RecordRange>> names;
+
+    /**
+     * All records (without header and skipped empty records) in file order.
+     */
+    private final List<RecordRange> records = new ArrayList<>();
+
+    /**
+     * Number of the last record in file, including skipped records.
+     */
+    private long lastRecordNumber;
+
+    /**
+     * @param uidIsName true if the same column is used for uid and name, both lookups can use one map then
+     *                  (names are always matched exactly)
+     */
+    public RecordIndex(FileFingerprint fingerprint, boolean ignoreCase, boolean uidIsName) {
+        this.fingerprint = fingerprint;
+        this.ignoreCase = ignoreCase;
+        this.names = uidIsName && !ignoreCase ? uids : new HashMap<>();
+    }
+
+    public synchronized FileFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Records have to be added in file order.
+     */
+    public synchronized void addRecord(RecordRange range) {
+        records.add(range);
+    }
+
+    public synchronized long getLastRecordNumber() {
+        return lastRecordNumber;
+    }
+
+    public synchronized void setLastRecordNumber(long lastRecordNumber) {
+        this.lastRecordNumber = lastRecordNumber;
+    }
+
+    /**
+     * Adds record appended to the end of the file. Nothing is changed if index doesn't belong to the version
+     * of the file before the record was appended.
+     *
+     * @param expected    fingerprint of the file before the record was appended
+     * @param fingerprint fingerprint of the file after the record was appended
+     * @return true if the index was updated
+     */
+    public synchronized boolean append(FileFingerprint expected, FileFingerprint fingerprint, RecordRange range,
+                                       String uid, String name) {
+        if (!this.fingerprint.equals(expected)) {
+            return false;
+        }
+
+        this.fingerprint = fingerprint;
+        this.lastRecordNumber = range.recordNumber();
+
+        records.add(range);
+        if (uid != null && !uid.isEmpty()) {
+            addUid(uid, range);
+        }
+        if (name != null && !name.isEmpty()) {
+            addName(name, range);
+        }
+
+        return true;
+    }
+
+    /**
+     * Moves index to the next version of the file, in which records were overwritten without changing their
+     * positions, unique attribute and name values. Nothing is changed if index doesn't belong to the version
+     * of the file before records were overwritten.
+     *
+     * @return true if the index was updated
+     */
+    public synchronized boolean update(FileFingerprint expected, FileFingerprint fingerprint) {
+        if (!this.fingerprint.equals(expected)) {
+            return false;
+        }
+
+        this.fingerprint = fingerprint;
+
+        return true;
+    }
+
+    public synchronized int getRecordCount() {
+        return records.size();
+    }
+
+    /**
+     * @param ordinal zero based position of record in file, not counting header and skipped records
+     */
+    public synchronized RecordRange getRecord(int ordinal) {
+        return records.get(ordinal);
+    }
+
+    /**
+     * @return number of records which start at the position or after it
+     */
+    public synchronized int countRecordsFrom(long position) {
+        int low = 0;
+        int high = records.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (records.get(middle).offset() < position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return records.size() - low;
+    }
+
+    public synchronized void addUid(String uid, RecordRange range) {
+        add(uids, normalize(uid, ignoreCase), range);
+    }
+
+    /**
+     * @return ranges of all records which can match the uid, in the same order as they are in the file
+     */
+    public synchronized List<RecordRange> findUid(String uid) {
+        return find(uids, normalize(uid, ignoreCase));
+    }
+
+    public synchronized void addName(String name, RecordRange range) {
+        if (names == uids) {
+            return;
+        }
+
+        add(names, name, range);
+    }
+
+    /**
+     * @return ranges of all records which can have this name, in the same order as they are in the file
+     */
+    public synchronized List<RecordRange> findName(String name) {
+        return find(names, name);
+    }
+
+    public synchronized int size() {
+        return uids.size();
+    }
+
+    private static void add(Map<String, List<RecordRange>> map, String key, RecordRange range) {
+        List<RecordRange> ranges = map.get(key);
+        if (ranges == null) {
+            // most keys are unique, singleton list saves memory
+            map.put(key, Collections.singletonList(range));
+            return;
+        }
+
+        if (ranges.size() == 1) {
+            ranges = new ArrayList<>(ranges);
+            map.put(key, ranges);
+        }
+        ranges.add(range);
+    }
+
+    private static List<RecordRange> find(Map<String, List<RecordRange>> map, String key) {
+        List<RecordRange> ranges = map.get(key);
+        if (ranges == null) {
+            return Collections.emptyList();
+        }
+
+        // lists with more values can be changed when records are appended
+        return ranges.size() == 1 ? ranges : List.copyOf(ranges);
+    }
+
+    /**
+     * Values which are equal using {@link String#equalsIgnoreCase(String)} have the same normalized form.
+     */
+    private static String normalize(String value, boolean ignoreCase) {
+        if (!ignoreCase || value == null) {
+            return value;
+        }
+
+        StringBuilder sb = new StringBuilder(value.length());
+        value.codePoints().forEach(c -> sb.appendCodePoint(Character.toLowerCase(Character.toUpperCase(c))));
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,223 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.csv.QuoteMode;
+import org.identityconnectors.common.logging.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Splits CSV records to partition files in tmp folder by hash of a key (unique attribute value), so records
+ * with the same key from different files end up in partitions with the same index. Partitions can be then
+ * processed independently by more threads, see {@link #process(int, int, PartitionProcessor, Predicate)}, and
+ * only one partition of every file has to be kept in memory.
+ */
+public class RecordPartitioner implements Closeable {
+
+    private static final Log LOG = Log.getLog(RecordPartitioner.class);
+
+    /**
+     * Format of partition files, all values are quoted so empty values and line breaks can't break records.
+     */
+    private static final CSVFormat PARTITION_FORMAT = CSVFormat.DEFAULT.builder()
+            .setQuoteMode(QuoteMode.ALL)
+            .setRecordSeparator('\n')
+            .build();
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final File[] files;
+
+    private final CSVPrinter[] printers;
+
+    private long count;
+
+    /**
+     * @param prefix prefix of partition file names
+     */
+    public RecordPartitioner(int partitions, File tmpFolder, String prefix) throws IOException {
+        this.files = new File[partitions];
+        this.printers = new CSVPrinter[partitions];
+
+        try {
+            for (int i = 0; i < partitions; i++) {
+                files[i] = Files.createTempFile(tmpFolder.toPath(), prefix + i + ".", ".part").toFile();
+                printers[i] = new CSVPrinter(Files.newBufferedWriter(files[i].toPath(), StandardCharsets.UTF_8),
+                        PARTITION_FORMAT);
+            }
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return index of partition for the key, the same for every partitioner with the same number of partitions
+     */
+    public static int partition(String key, int partitions) {
+        return Math.floorMod(key.hashCode(), partitions);
+    }
+
+    public void add(String key, CSVRecord record) throws IOException {
+        printers[partition(key, files.length)].printRecord(record);
+        count++;
+    }
+
+    /**
+     * @return number of added records
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Flushes partition files, has to be called before partitions are read.
+     */
+    public void finish() throws IOException {
+        for (int i = 0; i < printers.length; i++) {
+            if (printers[i] != null) {
+                printers[i].close();
+                printers[i] = null;
+            }
+        }
+
+        LOG.ok("{0} records split to {1} partitions", count, files.length);
+    }
+
+    /**
+     * @return parser of partition records, caller has to close it
+     */
+    public CSVParser open(int partition) throws IOException {
+        return new CSVParser(Files.newBufferedReader(files[partition].toPath(), StandardCharsets.UTF_8),
+                PARTITION_FORMAT);
+    }
+
+    /**
+     * Processes partitions of one partitioner, or matching partitions of more partitioners.
+     */
+    public interface PartitionProcessor<T> {
+
+        /**
+         * Called in worker thread.
+         */
+        List<T> process(int partition) throws Exception;
+    }
+
+    /**
+     * @param index index of the partition
+     * @param items results of the partition
+     * @param error error thrown when partition was processed
+     */
+    private record PartitionResult<T>(int index, List<T> items, Exception error) {
+    }
+
+    /**
+     * Processes partitions by worker threads. Results are passed to the consumer in the calling thread in
+     * partition order. Number of partitions which are processed or waiting for the consumer is limited, so
+     * results of all partitions are never kept in memory.
+     *
+     * @param consumer called for results of processor in the calling thread, returns false to stop processing
+     */
+    public static <T> void process(int partitions, int threads, PartitionProcessor<T> processor,
+                                   Predicate<T> consumer) throws Exception {
+        BlockingQueue<PartitionResult<T>> results = new LinkedBlockingQueue<>();
+        Semaphore inFlight = new Semaphore(threads * 2);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1, runnable -> {
+            Thread thread = new Thread(runnable, "csv-partition-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            executor.execute(() -> {
+                for (int i = 0; i < partitions; i++) {
+                    try {
+                        inFlight.acquire();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+
+                    int partition = i;
+                    executor.execute(() -> results.add(processPartition(processor, partition)));
+                }
+            });
+
+            Map<Integer, List<T>> pending = new HashMap<>();
+            int next = 0;
+            while (next < partitions) {
+                PartitionResult<T> result = results.take();
+                if (result.error() != null) {
+                    throw result.error();
+                }
+
+                pending.put(result.index(), result.items());
+
+                List<T> items;
+                while ((items = pending.remove(next)) != null) {
+                    next++;
+                    inFlight.release();
+                    for (T item : items) {
+                        if (!consumer.test(item)) {
+                            return;
+                        }
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOG.warn("Partition threads didn't finish in time");
+            }
+        }
+    }
+
+    private static <T> PartitionResult<T> processPartition(PartitionProcessor<T> processor, int partition) {
+        try {
+            return new PartitionResult<>(partition, processor.process(partition), null);
+        } catch (Exception ex) {
+            return new PartitionResult<>(partition, null, ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (int i = 0; i < files.length; i++) {
+            if (printers[i] != null) {
+                try {
+                    printers[i].close();
+                } catch (IOException ex) {
+                    LOG.warn(ex, "Couldn't close partition {0}", files[i]);
+                }
+            }
+
+            if (files[i] == null) {
+                continue;
+            }
+
+            try {
+                Files.deleteIfExists(files[i].toPath());
+            } catch (IOException ex) {
+                LOG.warn(ex, "Couldn't delete partition {0}", files[i]);
+            }
+        }
+    }
+}
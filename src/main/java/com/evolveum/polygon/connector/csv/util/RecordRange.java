@@ -0,0 +1,8 @@
+package com.evolveum.polygon.connector.csv.util;
+
+/**
+ * Position of one CSV record in the file. Offset and length are in bytes and don't include the record separator,
+ * record number is the same as the one assigned by the CSV parser.
+ */
+public record RecordRange(long offset, int length, long recordNumber) {
+}
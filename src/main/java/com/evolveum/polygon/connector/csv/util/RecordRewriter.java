@@ -0,0 +1,247 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+/**
+ * Rewrites CSV file to the tmp file channel record by record. Caller reads records using {@link #next()} and
+ * either copies the current record without changes, or writes new values instead of it. New records can be
+ * written anywhere. {@link #finish()} has to be called before the tmp file is moved.
+ * <p>
+ * Raw rewriter (see {@link #create(ObjectClassHandlerConfiguration, FileChannel)}) reads records using
+ * {@link MappedCsvReader} and copies untouched records as raw bytes using
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, adjacent records are
+ * transferred together. Only written records are printed, copied records keep their original quoting and
+ * record separators. Otherwise records are parsed and all of them are printed.
+ */
+public abstract class RecordRewriter implements Closeable {
+
+    protected final FileChannel target;
+
+    protected final CSVFormat format;
+
+    protected RecordRewriter(FileChannel target, ObjectClassHandlerConfiguration configuration) {
+        this.target = target;
+        this.format = Util.createCsvFormat(configuration);
+    }
+
+    public static RecordRewriter create(ObjectClassHandlerConfiguration configuration, FileChannel target)
+            throws IOException {
+        if (configuration.isRawRecordCopyEnabled() && Util.isByteScanSupported(configuration)) {
+            return new RawRecordRewriter(target, configuration);
+        }
+
+        return new ParsingRecordRewriter(target, configuration);
+    }
+
+    /**
+     * @return next record of the file, or null if there are no more records. Row is valid only until
+     * the next call.
+     */
+    public abstract CsvRow next() throws IOException;
+
+    /**
+     * Copies the current record without changes.
+     */
+    public abstract void copy() throws IOException;
+
+    /**
+     * Writes new or modified record.
+     */
+    public abstract void write(Iterable<?> values) throws IOException;
+
+    /**
+     * Writes all remaining data and closes target channel.
+     */
+    public abstract void finish() throws IOException;
+
+    private static class ParsingRecordRewriter extends RecordRewriter {
+
+        private final Reader reader;
+
+        private final Iterator<CSVRecord> iterator;
+
+        private final Writer writer;
+
+        private final CSVPrinter printer;
+
+        private CSVRecord record;
+
+        private ParsingRecordRewriter(FileChannel target, ObjectClassHandlerConfiguration configuration)
+                throws IOException {
+            super(target, configuration);
+
+            this.reader = Util.createReader(configuration);
+            this.iterator = format.parse(reader).iterator();
+            this.writer = new BufferedWriter(Channels.newWriter(target, configuration.getEncoding()));
+            this.printer = format.print(writer);
+        }
+
+        @Override
+        public CsvRow next() {
+            if (!iterator.hasNext()) {
+                return null;
+            }
+
+            record = iterator.next();
+            return CsvRow.of(record);
+        }
+
+        @Override
+        public void copy() throws IOException {
+            printer.printRecord(record);
+        }
+
+        @Override
+        public void write(Iterable<?> values) throws IOException {
+            printer.printRecord(values);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writer.close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static class RawRecordRewriter extends RecordRewriter {
+
+        private static final int CR = '\r';
+        private static final int LF = '\n';
+
+        private final FileChannel source;
+
+        private final MappedCsvReader reader;
+
+        private final Charset charset;
+
+        private final StringBuilder printed = new StringBuilder();
+
+        private final CSVPrinter printer;
+
+        /**
+         * Part of the file which will be copied, it's transferred when the next copied record isn't adjacent.
+         */
+        private long copyStart;
+        private long copyEnd;
+
+        /**
+         * Last transferred record doesn't end with record separator.
+         */
+        private boolean lineOpen;
+
+        private RawRecordRewriter(FileChannel target, ObjectClassHandlerConfiguration configuration)
+                throws IOException {
+            super(target, configuration);
+
+            this.charset = Charset.forName(configuration.getEncoding());
+            this.printer = format.print(printed);
+
+            this.source = FileChannel.open(configuration.getFilePath().toPath(), StandardOpenOption.READ);
+            try {
+                this.reader = new MappedCsvReader(source, configuration, 0, source.size(), 0);
+            } catch (IOException | RuntimeException ex) {
+                source.close();
+                throw ex;
+            }
+        }
+
+        @Override
+        public CsvRow next() throws IOException {
+            return reader.next();
+        }
+
+        @Override
+        public void copy() throws IOException {
+            long offset = reader.getRecordOffset();
+            if (offset != copyEnd) {
+                transfer();
+                copyStart = offset;
+            }
+
+            copyEnd = reader.getRecordEnd();
+        }
+
+        @Override
+        public void write(Iterable<?> values) throws IOException {
+            transfer();
+
+            if (lineOpen) {
+                printed.append(format.getRecordSeparator());
+                lineOpen = false;
+            }
+
+            printer.printRecord(values);
+
+            ByteBuffer buffer = charset.encode(printed.toString());
+            printed.setLength(0);
+
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            transfer();
+            target.close();
+        }
+
+        private void transfer() throws IOException {
+            long position = copyStart;
+            while (position < copyEnd) {
+                long transferred = source.transferTo(position, copyEnd - position, target);
+                if (transferred <= 0) {
+                    throw new IOException("Couldn't copy records from offset " + position);
+                }
+
+                position += transferred;
+            }
+
+            if (copyEnd > copyStart) {
+                lineOpen = !endsWithLineBreak(copyEnd);
+                copyStart = copyEnd;
+            }
+        }
+
+        private boolean endsWithLineBreak(long end) throws IOException {
+            if (end < source.size()) {
+                // record separator was found before the end of the file
+                return true;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(1);
+            source.read(buffer, end - 1);
+
+            int c = buffer.get(0);
+            return c == CR || c == LF;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                reader.close();
+            } finally {
+                source.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Finds boundaries of CSV records directly on bytes, without decoding characters and without creating values.
+ * It follows the same rules as commons-csv lexer (quotes only at the beginning of a value, escapes,
+ * comment lines, empty lines), so the n-th range returned by {@link #next()} belongs to the n-th record
+ * returned by the parser. It can be used only for encodings where delimiters, quotes and line breaks
+ * are always single ASCII bytes, see {@link Util#isByteScanSupported(ObjectClassHandlerConfiguration)}.
+ */
+public class RecordScanner implements Closeable {
+
+    private static final int CR = '\r';
+    private static final int LF = '\n';
+
+    private static final int EOF = -1;
+
+    private final InputStream in;
+
+    private final int delimiter;
+    private final int quote;
+    private final int escape;
+    private final int commentMarker;
+    private final boolean ignoreEmptyLines;
+    private final boolean ignoreSurroundingSpaces;
+
+    private final byte[] buffer = new byte[64 * 1024];
+    private int bufferPosition;
+    private int bufferLimit;
+
+    private long position;
+
+    private long recordNumber;
+
+    public RecordScanner(InputStream in, ObjectClassHandlerConfiguration configuration) {
+        this(in, configuration, 0, 0);
+    }
+
+    /**
+     * @param position     byte offset of the stream in the file, used to compute offsets of ranges
+     * @param recordNumber number of records before the stream position
+     */
+    public RecordScanner(InputStream in, ObjectClassHandlerConfiguration configuration, long position,
+                         long recordNumber) {
+        this.in = in;
+        this.position = position;
+        this.recordNumber = recordNumber;
+
+        this.delimiter = toByte(configuration.getFieldDelimiter());
+        this.quote = toByte(configuration.getQuote());
+        this.escape = toByte(configuration.getEscape());
+        this.commentMarker = toByte(configuration.getCommentMarker());
+        this.ignoreEmptyLines = configuration.isIgnoreEmptyLines();
+        this.ignoreSurroundingSpaces = configuration.isIgnoreSurroundingSpaces();
+    }
+
+    private static int toByte(String value) {
+        Character c = Util.toCharacter(value);
+        return c != null ? c : EOF;
+    }
+
+    /**
+     * @return range of the next record, or null if there are no more records. Comment lines and ignored empty
+     * lines are skipped the same way parser skips them.
+     */
+    public RecordRange next() throws IOException {
+        while (true) {
+            long start = position;
+
+            int c = read();
+            if (c == EOF) {
+                return null;
+            }
+
+            if (c == CR || c == LF) {
+                skipLineFeed(c);
+
+                if (ignoreEmptyLines) {
+                    continue;
+                }
+
+                return createRange(start, start);
+            }
+
+            if (c == commentMarker) {
+                skipLine();
+                continue;
+            }
+
+            long end = scanRecord(c);
+            return createRange(start, end);
+        }
+    }
+
+    /**
+     * @return current byte offset, after the last returned record including its record separator
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    private RecordRange createRange(long start, long end) {
+        recordNumber++;
+        return new RecordRange(start, (int) (end - start), recordNumber);
+    }
+
+    /**
+     * Reads the rest of the record, the first byte was already read.
+     *
+     * @return end offset of the record content, record separator is consumed but not included
+     */
+    private long scanRecord(int c) throws IOException {
+        boolean valueStart = true;
+        boolean quoted = false;
+
+        while (true) {
+            if (quoted) {
+                if (c == EOF) {
+                    return position;
+                }
+
+                if (c == escape) {
+                    read();
+                } else if (c == quote) {
+                    c = read();
+                    if (c != quote) {
+                        // end of quoted value, the byte after quote is handled as unquoted
+                        quoted = false;
+                        valueStart = false;
+                        continue;
+                    }
+                }
+
+                c = read();
+                continue;
+            }
+
+            if (c == EOF) {
+                return position;
+            }
+
+            if (c == CR || c == LF) {
+                long end = position - 1;
+                skipLineFeed(c);
+                return end;
+            }
+
+            if (c == delimiter) {
+                valueStart = true;
+            } else if (valueStart && ignoreSurroundingSpaces && Character.isWhitespace(c)) {
+                // still at the beginning of the value
+            } else if (valueStart && c == quote) {
+                quoted = true;
+                valueStart = false;
+            } else {
+                valueStart = false;
+
+                if (c == escape && read() == EOF) {
+                    return position;
+                }
+            }
+
+            c = read();
+        }
+    }
+
+    private void skipLine() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != EOF && c != CR && c != LF);
+
+        skipLineFeed(c);
+    }
+
+    private void skipLineFeed(int c) throws IOException {
+        if (c == CR && peek() == LF) {
+            read();
+        }
+    }
+
+    private int peek() throws IOException {
+        if (bufferPosition == bufferLimit && !fill()) {
+            return EOF;
+        }
+
+        return buffer[bufferPosition] & 0xff;
+    }
+
+    private int read() throws IOException {
+        if (bufferPosition == bufferLimit && !fill()) {
+            return EOF;
+        }
+
+        position++;
+        return buffer[bufferPosition++] & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer);
+        if (read <= 0) {
+            return false;
+        }
+
+        bufferPosition = 0;
+        bufferLimit = read;
+
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
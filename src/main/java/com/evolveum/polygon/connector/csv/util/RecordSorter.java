@@ -0,0 +1,220 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.csv.QuoteMode;
+import org.identityconnectors.common.logging.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Sorts CSV records. Up to memory limit records are sorted in memory, larger inputs are split to sorted runs
+ * stored in tmp folder, which are merged when sorted records are read. If only first N records are needed
+ * (first pages of paged search), only N records are kept in memory and nothing is written to disk.
+ * <p>
+ * Sort is stable, records which are equal keep the order in which they were added.
+ */
+public class RecordSorter implements Closeable {
+
+    private static final Log LOG = Log.getLog(RecordSorter.class);
+
+    /**
+     * Format of run files, all values are quoted so empty values and line breaks can't break records.
+     */
+    private static final CSVFormat RUN_FORMAT = CSVFormat.DEFAULT.builder()
+            .setQuoteMode(QuoteMode.ALL)
+            .setRecordSeparator('\n')
+            .build();
+
+    private final Comparator<CSVRecord> comparator;
+
+    private final int memoryLimit;
+
+    private final File tmpFolder;
+
+    private final String runPrefix;
+
+    private final int topLimit;
+
+    private final List<CSVRecord> buffer = new ArrayList<>();
+
+    private final PriorityQueue<Entry> top;
+
+    private final List<File> runs = new ArrayList<>();
+
+    private final List<CSVParser> parsers = new ArrayList<>();
+
+    private long count;
+
+    /**
+     * @param runPrefix prefix of run file names
+     * @param topLimit  number of first records which will be read, -1 if all records are needed
+     */
+    public RecordSorter(Comparator<CSVRecord> comparator, int memoryLimit, File tmpFolder, String runPrefix,
+                        int topLimit) {
+        this.comparator = comparator;
+        this.memoryLimit = memoryLimit;
+        this.tmpFolder = tmpFolder;
+        this.runPrefix = runPrefix;
+        this.topLimit = topLimit;
+
+        Comparator<Entry> entryComparator = Comparator.<Entry, CSVRecord>comparing(Entry::record, comparator)
+                .thenComparingLong(Entry::sequence);
+        // head of the queue is the greatest record, it's removed when queue is over the limit
+        this.top = topLimit >= 0 ? new PriorityQueue<>(entryComparator.reversed()) : null;
+    }
+
+    private record Entry(CSVRecord record, long sequence) {
+    }
+
+    public void add(CSVRecord record) throws IOException {
+        count++;
+
+        if (top != null) {
+            top.add(new Entry(record, count));
+            if (top.size() > topLimit) {
+                top.poll();
+            }
+            return;
+        }
+
+        buffer.add(record);
+        if (buffer.size() >= memoryLimit) {
+            writeRun();
+        }
+    }
+
+    /**
+     * @return number of added records
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return sorted records, only first records if top limit was used
+     */
+    public Iterator<CSVRecord> sorted() throws IOException {
+        if (top != null) {
+            List<Entry> entries = new ArrayList<>(top);
+            entries.sort(Comparator.<Entry, CSVRecord>comparing(Entry::record, comparator)
+                    .thenComparingLong(Entry::sequence));
+
+            return entries.stream().map(Entry::record).iterator();
+        }
+
+        if (runs.isEmpty()) {
+            buffer.sort(comparator);
+            return buffer.iterator();
+        }
+
+        if (!buffer.isEmpty()) {
+            writeRun();
+        }
+
+        LOG.ok("Merging {0} sorted runs with {1} records", runs.size(), count);
+
+        return merge();
+    }
+
+    private void writeRun() throws IOException {
+        buffer.sort(comparator);
+
+        File run = Files.createTempFile(tmpFolder.toPath(), runPrefix, ".sort").toFile();
+        runs.add(run);
+
+        try (CSVPrinter printer = new CSVPrinter(Files.newBufferedWriter(run.toPath(), StandardCharsets.UTF_8),
+                RUN_FORMAT)) {
+            for (CSVRecord record : buffer) {
+                printer.printRecord(record);
+            }
+        }
+
+        LOG.ok("Sorted run {0} with {1} records written", run, buffer.size());
+
+        buffer.clear();
+    }
+
+    private static class RunCursor {
+
+        private final int index;
+
+        private final Iterator<CSVRecord> iterator;
+
+        private CSVRecord current;
+
+        private RunCursor(int index, Iterator<CSVRecord> iterator) {
+            this.index = index;
+            this.iterator = iterator;
+            this.current = iterator.next();
+        }
+    }
+
+    private Iterator<CSVRecord> merge() throws IOException {
+        // runs contain consecutive parts of input, run index keeps the sort stable
+        PriorityQueue<RunCursor> queue = new PriorityQueue<>(Comparator
+                .<RunCursor, CSVRecord>comparing(cursor -> cursor.current, comparator)
+                .thenComparingInt(cursor -> cursor.index));
+
+        for (int i = 0; i < runs.size(); i++) {
+            CSVParser parser = new CSVParser(Files.newBufferedReader(runs.get(i).toPath(), StandardCharsets.UTF_8),
+                    RUN_FORMAT);
+            parsers.add(parser);
+
+            Iterator<CSVRecord> iterator = parser.iterator();
+            if (iterator.hasNext()) {
+                queue.add(new RunCursor(i, iterator));
+            }
+        }
+
+        return new Iterator<>() {
+
+            @Override
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public CSVRecord next() {
+                RunCursor cursor = queue.poll();
+                if (cursor == null) {
+                    throw new NoSuchElementException();
+                }
+
+                CSVRecord record = cursor.current;
+                if (cursor.iterator.hasNext()) {
+                    cursor.current = cursor.iterator.next();
+                    queue.add(cursor);
+                }
+
+                return record;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (CSVParser parser : parsers) {
+            try {
+                parser.close();
+            } catch (IOException ex) {
+                LOG.warn(ex, "Couldn't close sorted run");
+            }
+        }
+
+        for (File run : runs) {
+            try {
+                Files.deleteIfExists(run.toPath());
+            } catch (IOException ex) {
+                LOG.warn(ex, "Couldn't delete sorted run {0}", run);
+            }
+        }
+    }
+}
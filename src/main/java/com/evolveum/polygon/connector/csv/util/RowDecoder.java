@@ -0,0 +1,453 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+import org.apache.commons.csv.CSVRecord;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.OperationalAttributes;
+import org.identityconnectors.framework.common.objects.PredefinedAttributes;
+import org.identityconnectors.framework.common.objects.Uid;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+
+/**
+ * Converts CSV records to connector objects. Type of every column is resolved once from header, so converting
+ * a record is just a loop over columns without any lookups by column name.
+ */
+public class RowDecoder {
+
+    /**
+     * Returned by {@link #findStringColumn(String)} if connector objects never contain the attribute.
+     */
+    public static final int ABSENT = -1;
+
+    /**
+     * Returned by {@link #findStringColumn(String)} if attribute values aren't strings (password, last login date)
+     * or attribute name matches more columns.
+     */
+    public static final int UNSUPPORTED = -2;
+
+    private enum ColumnType {
+
+        UID, UID_AND_NAME, NAME, PASSWORD, LAST_LOGIN_DATE, VALUE, MULTI_VALUE
+    }
+
+    private final ObjectClassHandlerConfiguration configuration;
+
+    private final ColumnType[] types;
+
+    private final String[] names;
+
+    private final Pattern multivalueDelimiter;
+
+    /**
+     * Set if multivalue delimiter regexp matches only one literal character, values are split without regexp then.
+     */
+    private final int multivalueDelimiterChar;
+
+    public RowDecoder(ObjectClassHandlerConfiguration configuration, Map<String, Column> header) {
+        this.configuration = configuration;
+
+        this.types = new ColumnType[header.size()];
+        this.names = new String[header.size()];
+
+        String delimiter = configuration.getMultivalueDelimiter();
+        this.multivalueDelimiter = StringUtil.isEmpty(delimiter) ? null : Pattern.compile(delimiter);
+        this.multivalueDelimiterChar = toLiteralChar(delimiter);
+
+        header.forEach((name, column) -> {
+            int index = column.getIndex();
+
+            names[index] = name;
+            types[index] = resolveType(name);
+        });
+    }
+
+    private ColumnType resolveType(String name) {
+        boolean uniqueIsName = isUniqueAndNameAttributeEqual();
+
+        if (name.equals(configuration.getUniqueAttribute())) {
+            return uniqueIsName ? ColumnType.UID_AND_NAME : ColumnType.UID;
+        }
+
+        if (name.equals(configuration.getNameAttribute())) {
+            return ColumnType.NAME;
+        }
+
+        if (name.equals(configuration.getPasswordAttribute())) {
+            return ColumnType.PASSWORD;
+        }
+
+        if (name.equals(configuration.getLastLoginDateAttribute())) {
+            return ColumnType.LAST_LOGIN_DATE;
+        }
+
+        return multivalueDelimiter != null ? ColumnType.MULTI_VALUE : ColumnType.VALUE;
+    }
+
+    /**
+     * Same check as {@link String#split(String)} does before it falls back to regexp.
+     *
+     * @return literal character matched by regexp, or -1
+     */
+    private static int toLiteralChar(String regex) {
+        if (regex == null) {
+            return -1;
+        }
+
+        if (regex.length() == 1 && ".$|()[{^?*+\\".indexOf(regex.charAt(0)) == -1) {
+            return regex.charAt(0);
+        }
+
+        if (regex.length() == 2 && regex.charAt(0) == '\\' && !Character.isLetterOrDigit(regex.charAt(1))
+                && !Character.isSurrogate(regex.charAt(1))) {
+            return regex.charAt(1);
+        }
+
+        return -1;
+    }
+
+    private boolean isUniqueAndNameAttributeEqual() {
+        String uniqueAttribute = configuration.getUniqueAttribute();
+        String nameAttribute = configuration.getNameAttribute();
+
+        return uniqueAttribute == null ? nameAttribute == null : uniqueAttribute.equals(nameAttribute);
+    }
+
+    public int getColumnCount() {
+        return types.length;
+    }
+
+    /**
+     * @param attributeName attribute name as used in connector object, compared case-insensitive
+     * @return index of column which holds string values of the attribute, {@link #ABSENT} or {@link #UNSUPPORTED}
+     */
+    public int findStringColumn(String attributeName) {
+        if (Uid.NAME.equalsIgnoreCase(attributeName)) {
+            return findColumn(ColumnType.UID, ColumnType.UID_AND_NAME);
+        }
+
+        if (Name.NAME.equalsIgnoreCase(attributeName)) {
+            return findColumn(ColumnType.NAME, ColumnType.UID_AND_NAME);
+        }
+
+        if (OperationalAttributes.PASSWORD_NAME.equalsIgnoreCase(attributeName)) {
+            return findColumn(ColumnType.PASSWORD) == ABSENT ? ABSENT : UNSUPPORTED;
+        }
+
+        if (PredefinedAttributes.LAST_LOGIN_DATE_NAME.equalsIgnoreCase(attributeName)) {
+            return findColumn(ColumnType.LAST_LOGIN_DATE) == ABSENT ? ABSENT : UNSUPPORTED;
+        }
+
+        int result = ABSENT;
+        for (int i = 0; i < types.length; i++) {
+            if ((types[i] != ColumnType.VALUE && types[i] != ColumnType.MULTI_VALUE)
+                    || !names[i].equalsIgnoreCase(attributeName)) {
+                continue;
+            }
+
+            if (result != ABSENT) {
+                return UNSUPPORTED;
+            }
+            result = i;
+        }
+
+        return result;
+    }
+
+    private int findColumn(ColumnType... columnTypes) {
+        for (int i = 0; i < types.length; i++) {
+            for (ColumnType type : columnTypes) {
+                if (types[i] == type) {
+                    return i;
+                }
+            }
+        }
+
+        return ABSENT;
+    }
+
+    public boolean isMultiValue(int column) {
+        return types[column] == ColumnType.MULTI_VALUE;
+    }
+
+    /**
+     * @return values of attribute created from the column, or null if the attribute isn't created (empty value)
+     */
+    public List<String> decodeValues(CsvRow record, int column) {
+        String value = record.get(column);
+        if (StringUtil.isEmpty(value)) {
+            return null;
+        }
+
+        return isMultiValue(column) ? splitValues(value) : Collections.singletonList(value);
+    }
+
+    /**
+     * @param attributeNames names of attributes which should be returned (case-insensitive set)
+     * @return flags indexed by column, unique and name columns are always included
+     */
+    public boolean[] createProjection(Set<String> attributeNames) {
+        boolean[] projection = new boolean[types.length];
+        for (int i = 0; i < types.length; i++) {
+            projection[i] = switch (types[i]) {
+                case UID, UID_AND_NAME, NAME -> true;
+                case PASSWORD -> attributeNames.contains(OperationalAttributes.PASSWORD_NAME);
+                case LAST_LOGIN_DATE -> attributeNames.contains(PredefinedAttributes.LAST_LOGIN_DATE_NAME);
+                case VALUE, MULTI_VALUE -> attributeNames.contains(names[i]);
+            };
+        }
+
+        return projection;
+    }
+
+    /**
+     * Compares two versions of the same record. Nothing is allocated if none of the compared columns changed.
+     *
+     * @param projection columns which should be compared, null means all columns
+     * @return flags indexed by column, set for compared columns with different values and for unique and name
+     * columns, or null if none of the compared columns changed
+     */
+    public boolean[] createChangeProjection(CSVRecord oldRecord, CSVRecord newRecord, boolean[] projection) {
+        if (oldRecord.size() != newRecord.size()) {
+            // columns can't be matched, everything changed
+            return projection != null ? projection.clone() : createFullProjection();
+        }
+
+        int first = -1;
+        for (int i = 0; i < types.length; i++) {
+            if ((projection == null || projection[i]) && !Objects.equals(oldRecord.get(i), newRecord.get(i))) {
+                first = i;
+                break;
+            }
+        }
+
+        if (first == -1) {
+            return null;
+        }
+
+        return createChangeProjection(first, i -> !Objects.equals(oldRecord.get(i), newRecord.get(i)), projection);
+    }
+
+    /**
+     * Same as {@link #createChangeProjection(CSVRecord, CSVRecord, boolean[])}, records are compared by hashes
+     * of their values (see {@link SyncSnapshot#hashValues(CsvRow)}).
+     */
+    public boolean[] createChangeProjection(long[] oldHashes, long[] newHashes, boolean[] projection) {
+        if (oldHashes.length != newHashes.length || newHashes.length != types.length) {
+            return projection != null ? projection.clone() : createFullProjection();
+        }
+
+        int first = -1;
+        for (int i = 0; i < types.length; i++) {
+            if ((projection == null || projection[i]) && oldHashes[i] != newHashes[i]) {
+                first = i;
+                break;
+            }
+        }
+
+        if (first == -1) {
+            return null;
+        }
+
+        return createChangeProjection(first, i -> oldHashes[i] != newHashes[i], projection);
+    }
+
+    /**
+     * @param first   first compared column which changed
+     * @param changed returns true if column value changed
+     */
+    private boolean[] createChangeProjection(int first, IntPredicate changed, boolean[] projection) {
+        boolean[] result = new boolean[types.length];
+        for (int i = 0; i < types.length; i++) {
+            result[i] = switch (types[i]) {
+                case UID, UID_AND_NAME, NAME -> true;
+                default -> i >= first && (projection == null || projection[i]) && changed.test(i);
+            };
+        }
+
+        return result;
+    }
+
+    private boolean[] createFullProjection() {
+        boolean[] projection = new boolean[types.length];
+        Arrays.fill(projection, true);
+
+        return projection;
+    }
+
+    public ConnectorObject decode(CSVRecord record, boolean[] projection) {
+        return decode(CsvRow.of(record), projection);
+    }
+
+    /**
+     * @param projection columns which should be converted to attributes, null means all columns
+     */
+    public ConnectorObject decode(CsvRow record, boolean[] projection) {
+        if (types.length != record.size()) {
+            throw new ConnectorException("Number of columns in header (" + types.length
+                    + ") doesn't match number of columns for record (" + record.size()
+                    + "). File row number: " + record.getRecordNumber());
+        }
+
+        ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
+
+        for (int i = 0; i < types.length; i++) {
+            if (projection != null && !projection[i]) {
+                continue;
+            }
+
+            String value = record.get(i);
+            if (StringUtil.isEmpty(value)) {
+                continue;
+            }
+
+            switch (types[i]) {
+                case UID:
+                    builder.setUid(value);
+                    break;
+                case UID_AND_NAME:
+                    builder.setUid(value);
+                    builder.setName(new Name(value));
+                    break;
+                case NAME:
+                    builder.setName(new Name(value));
+                    break;
+                case PASSWORD:
+                    builder.addAttribute(OperationalAttributes.PASSWORD_NAME, new GuardedString(value.toCharArray()));
+                    break;
+                case LAST_LOGIN_DATE:
+                    builder.addAttribute(PredefinedAttributes.LAST_LOGIN_DATE_NAME, createLastLoginDateValue(value));
+                    break;
+                case VALUE:
+                    builder.addAttribute(names[i], value);
+                    break;
+                case MULTI_VALUE:
+                    builder.addAttribute(names[i], splitValues(value));
+                    break;
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * @param object     object decoded from all columns
+     * @param projection columns which should be converted to attributes, null means all columns
+     * @return object with the same attributes as {@link #decode(CsvRow, boolean[])} would create
+     */
+    public ConnectorObject project(ConnectorObject object, boolean[] projection) {
+        if (projection == null) {
+            return object;
+        }
+
+        ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
+        builder.setObjectClass(object.getObjectClass());
+        builder.setUid(object.getUid());
+        builder.setName(object.getName());
+
+        for (int i = 0; i < types.length; i++) {
+            if (!projection[i]) {
+                continue;
+            }
+
+            String name = switch (types[i]) {
+                case UID, UID_AND_NAME, NAME -> null;
+                case PASSWORD -> OperationalAttributes.PASSWORD_NAME;
+                case LAST_LOGIN_DATE -> PredefinedAttributes.LAST_LOGIN_DATE_NAME;
+                case VALUE, MULTI_VALUE -> names[i];
+            };
+
+            Attribute attribute = name != null ? object.getAttributeByName(name) : null;
+            if (attribute != null) {
+                builder.addAttribute(attribute);
+            }
+        }
+
+        return builder.build();
+    }
+
+    private List<String> splitValues(String value) {
+        if (multivalueDelimiterChar != -1) {
+            return splitValues(value, (char) multivalueDelimiterChar);
+        }
+
+        String[] array = multivalueDelimiter.split(value);
+
+        List<String> values = new ArrayList<>(array.length);
+        for (String item : array) {
+            if (StringUtil.isEmpty(item)) {
+                continue;
+            }
+
+            values.add(item);
+        }
+
+        return values;
+    }
+
+    private static List<String> splitValues(String value, char delimiter) {
+        int end = value.indexOf(delimiter);
+        if (end == -1) {
+            return Collections.singletonList(value);
+        }
+
+        List<String> values = new ArrayList<>();
+
+        int start = 0;
+        while (true) {
+            if (end > start) {
+                values.add(value.substring(start, end));
+            }
+
+            if (end == value.length()) {
+                return values;
+            }
+
+            start = end + 1;
+            end = value.indexOf(delimiter, start);
+            if (end == -1) {
+                end = value.length();
+            }
+        }
+    }
+
+    private Long createLastLoginDateValue(String value) {
+        if (configuration.getLastLoginDateFormat() == null) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException ex) {
+                throw new InvalidAttributeValueException("Value " + value + " for last login date ("
+                        + configuration.getLastLoginDateAttribute() + ") is not a number (long)", ex);
+            }
+        }
+
+        // decoder is used by parallel scan threads, date format isn't thread-safe
+        DateFormat format = configuration.getLastLoginDateFormatInstance();
+        try {
+            synchronized (format) {
+                return format.parse(value).getTime();
+            }
+        } catch (ParseException ex) {
+            throw new InvalidAttributeValueException("Value " + value + " for last login date ("
+                    + configuration.getLastLoginDateAttribute() + ") doesn't have proper format ("
+                    + configuration.getLastLoginDateFormat() + ")", ex);
+        }
+    }
+}
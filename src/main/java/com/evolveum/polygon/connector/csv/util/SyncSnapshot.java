@@ -0,0 +1,255 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Compact sync snapshot, stored instead of full copy of CSV file. It contains only unique attribute value and
+ * hashes of values of every record (see {@link XxHash64}), sorted by unique attribute value, so two snapshots
+ * can be compared in one pass and only records with different hashes have to be read from CSV file. Hash of
+ * every column is kept, so changed columns are known without old values.
+ * <p>
+ * Format (big-endian): magic bytes {@code CSVSNAP} with format version, hash of header, number of entries and
+ * entries in order of unique attribute values. Entry is unique attribute value (length and UTF-8 bytes)
+ * followed by number of columns and hash of every column.
+ */
+public final class SyncSnapshot {
+
+    private static final byte[] MAGIC = {'C', 'S', 'V', 'S', 'N', 'A', 'P', 1};
+
+    private SyncSnapshot() {
+    }
+
+    /**
+     * @param hashes hashes of record values by column, see {@link #hashValues(CsvRow)}
+     */
+    public record Entry(String uid, long[] hashes) {
+
+        /**
+         * @return true if all values of the records have the same hashes
+         */
+        public boolean valuesEqual(Entry other) {
+            return Arrays.equals(hashes, other.hashes);
+        }
+    }
+
+    /**
+     * Reads entries in order of unique attribute values.
+     */
+    public interface EntryReader extends Closeable {
+
+        /**
+         * @return next entry, or null if there are no more entries
+         */
+        Entry next() throws IOException;
+    }
+
+    /**
+     * @return true if the file starts with snapshot magic bytes, false for CSV sync files
+     */
+    public static boolean isSnapshot(File file) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        try (InputStream input = new FileInputStream(file)) {
+            int read = input.readNBytes(magic, 0, magic.length);
+            return read == magic.length && Arrays.equals(MAGIC, magic);
+        }
+    }
+
+    public static FileEntryReader open(File file) throws IOException {
+        return new FileEntryReader(file);
+    }
+
+    /**
+     * @param record values of CSV record, null values are allowed
+     * @return hash of every value
+     */
+    public static long[] hashValues(CsvRow record) {
+        long[] hashes = new long[record.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = hashValue(record.get(i));
+        }
+
+        return hashes;
+    }
+
+    private static long hashValue(String value) {
+        // null and empty value differ by seed
+        return value == null ? XxHash64.hash(new byte[0], 0, 0, 1)
+                : XxHash64.hash(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param columns column names in order of columns
+     */
+    public static long hashHeader(List<String> columns) {
+        // value lengths are included, so names can't be shifted from one column to other
+        StringBuilder sb = new StringBuilder();
+        for (String column : columns) {
+            sb.append(column.length()).append(':').append(column);
+        }
+
+        return XxHash64.hash(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Collects entries of one CSV file in memory, sorts them and writes them as snapshot or reads them directly.
+     */
+    public static class Builder {
+
+        private final List<Entry> entries = new ArrayList<>();
+
+        private final String fileName;
+
+        private boolean sorted;
+
+        /**
+         * @param fileName name of the file entries are read from, used in error messages
+         */
+        public Builder(String fileName) {
+            this.fileName = fileName;
+        }
+
+        public void add(String uid, CsvRow record) {
+            entries.add(new Entry(uid, hashValues(record)));
+            sorted = false;
+        }
+
+        public int size() {
+            return entries.size();
+        }
+
+        public void write(File file, long headerHash) throws IOException {
+            sort();
+
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file)))) {
+                output.write(MAGIC);
+                output.writeLong(headerHash);
+                output.writeLong(entries.size());
+
+                for (Entry entry : entries) {
+                    byte[] uid = entry.uid().getBytes(StandardCharsets.UTF_8);
+                    output.writeInt(uid.length);
+                    output.write(uid);
+                    output.writeInt(entry.hashes().length);
+                    for (long hash : entry.hashes()) {
+                        output.writeLong(hash);
+                    }
+                }
+            }
+        }
+
+        public EntryReader reader() {
+            sort();
+
+            Iterator<Entry> iterator = entries.iterator();
+            return new EntryReader() {
+
+                @Override
+                public Entry next() {
+                    return iterator.hasNext() ? iterator.next() : null;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        private void sort() {
+            if (sorted) {
+                return;
+            }
+
+            entries.sort(Comparator.comparing(Entry::uid));
+            for (int i = 1; i < entries.size(); i++) {
+                if (entries.get(i - 1).uid().equals(entries.get(i).uid())) {
+                    throw new ConnectorException("Unique attribute value '" + entries.get(i).uid()
+                            + "' is not unique in " + fileName);
+                }
+            }
+
+            sorted = true;
+        }
+    }
+
+    public static class FileEntryReader implements EntryReader {
+
+        private final DataInputStream input;
+
+        private final long headerHash;
+
+        private final long count;
+
+        private long read;
+
+        private FileEntryReader(File file) throws IOException {
+            this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                byte[] magic = new byte[MAGIC.length];
+                input.readFully(magic);
+                if (!Arrays.equals(MAGIC, magic)) {
+                    throw new IOException("File " + file + " is not sync snapshot");
+                }
+
+                this.headerHash = input.readLong();
+                this.count = input.readLong();
+            } catch (IOException ex) {
+                input.close();
+                throw ex;
+            }
+        }
+
+        public long getHeaderHash() {
+            return headerHash;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public Entry next() throws IOException {
+            if (read == count) {
+                return null;
+            }
+
+            try {
+                byte[] uid = new byte[input.readInt()];
+                input.readFully(uid);
+
+                long[] hashes = new long[input.readInt()];
+                for (int i = 0; i < hashes.length; i++) {
+                    hashes[i] = input.readLong();
+                }
+
+                read++;
+                return new Entry(new String(uid, StandardCharsets.UTF_8), hashes);
+            } catch (EOFException ex) {
+                throw new IOException("Sync snapshot is truncated after " + read + " of " + count + " entries", ex);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+}
@@ -1,9 +1,10 @@
 package com.evolveum.polygon.connector.csv.util;
 
 import com.evolveum.polygon.connector.csv.CsvConfiguration;
-import com.evolveum.polygon.connector.csv.CsvConnector;
 import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
 import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.csv.QuoteMode;
 import org.identityconnectors.common.Base64;
 import org.identityconnectors.common.StringUtil;
@@ -17,6 +18,9 @@ import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.PredefinedAttributes;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.file.Path;
@@ -24,6 +28,7 @@ import java.nio.file.StandardOpenOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Viliam Repan (lazyman).
@@ -37,6 +42,7 @@ public class Util {
     public static final String TMP_EXTENSION = "tmp";
 
     public static final String SYNC_LOCK_EXTENSION = "sync.lock";
+    public static final String JOURNAL_EXTENSION = "journal";
 
     public static final String DEFAULT_COLUMN_NAME = "col";
 
@@ -68,44 +74,99 @@ public class Util {
         return new File(config.getTmpFolder(), fileName);
     }
 
+    public static File createJournalPath(ObjectClassHandlerConfiguration config) {
+        String fileName = config.getFilePath().getName() + "." + JOURNAL_EXTENSION;
+        return new File(config.getTmpFolder(), fileName);
+    }
+
     public static File createTmpPath(ObjectClassHandlerConfiguration config) {
         String fileName = config.getFilePath().getName() + config.hashCode() + "." + TMP_EXTENSION;
         return new File(config.getTmpFolder(), fileName);
     }
 
+    /**
+     * Tmp file name is different for every handler (see {@link #createTmpPath(ObjectClassHandlerConfiguration)}),
+     * so writers of the same CSV file wait in queue of the CSV file.
+     */
     public static FileLock obtainTmpFileLock(ObjectClassHandlerConfiguration config) {
         File tmp = createTmpPath(config);
 
-        return obtainTmpFileLock(tmp);
+        return obtainTmpFileLock(tmp, config.getFilePath(), config.getTmpFileLockTimeout());
     }
 
-    public static FileLock obtainTmpFileLock(File file) {
+    /**
+     * Same as {@link #obtainTmpFileLock(File, File, int)}, threads wait in queue of the tmp file.
+     */
+    public static FileLock obtainTmpFileLock(File file, int timeout) {
+        return obtainTmpFileLock(file, file, timeout);
+    }
+
+    /**
+     * Creates and locks tmp file. Threads of this JVM wait in fair queue (see {@link FileLocks}), only the first
+     * one polls the file if it's held by other process. Lock has to be released using
+     * {@link #releaseTmpFileLock(FileLock, File, File)} with the same queue, which passes the queue to the next
+     * thread.
+     *
+     * @param queue   file which identifies the queue
+     * @param timeout maximum wait in milliseconds
+     */
+    public static FileLock obtainTmpFileLock(File file, File queue, int timeout) {
         LOG.ok("Obtaining file lock for {0}", file.getPath());
 
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        try {
+            if (!FileLocks.enterTmpFileQueue(queue, timeout, TimeUnit.MILLISECONDS)) {
+                FileLocks.recordTmpFileWait(System.nanoTime() - start, true);
+                throw new ConnectorIOException("Timeout, couldn't create tmp file '" + file.getPath()
+                        + "', it's used by other operations");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException(ex);
+        }
+
+        FileLock lock = null;
+        try {
+            lock = createTmpFileLock(file, deadline);
+        } finally {
+            long wait = System.nanoTime() - start;
+            if (lock == null) {
+                FileLocks.leaveTmpFileQueue(queue);
+            }
+            FileLocks.recordTmpFileWait(wait, lock == null && System.nanoTime() - deadline >= 0);
+
+            LOG.ok("Waited {0} ms for lock of file {1}", TimeUnit.NANOSECONDS.toMillis(wait), file.getPath());
+        }
+
+        return lock;
+    }
+
+    private static FileLock createTmpFileLock(File file, long deadline) {
         int attempts = 0;
 
-        final long MAX_WAIT = 5 * 1000; // 5 seconds
         Path path = file.toPath();
 
-        long start = System.currentTimeMillis();
         FileChannel channel;
         while (true) {
             try {
                 attempts++;
 
-                channel = FileChannel.open(path,
-                        new HashSet(Arrays.asList(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)));
+                channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
 
                 break;
             } catch (IOException ex) {
-                if (System.currentTimeMillis() > (start + MAX_WAIT)) {
+                if (System.nanoTime() - deadline >= 0) {
                     throw new ConnectorIOException("Timeout, couldn't create tmp file '" + file.getPath()
                             + "', reason: " + ex.getMessage(), ex);
                 }
 
+                // tmp file is held by other process
                 try {
                     Thread.sleep((long) (10 + (Math.random() * 50)));
                 } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
                     throw new ConnectorException(ie);
                 }
             }
@@ -134,6 +195,49 @@ public class Util {
         return lock;
     }
 
+    /**
+     * Forces content of the file to the storage device.
+     */
+    public static void force(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Forces directory entries (e.g. file moved to the directory) to the storage device. Not every platform
+     * can open directory, it's skipped there.
+     */
+    public static void forceDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            LOG.ok("Couldn't force directory {0}, reason: {1}", directory, ex.getMessage());
+        }
+    }
+
+    /**
+     * Releases lock obtained by {@link #obtainTmpFileLock(File, int)} and removes the tmp file.
+     */
+    public static void releaseTmpFileLock(FileLock lock, File file) {
+        releaseTmpFileLock(lock, file, file);
+    }
+
+    /**
+     * Releases lock obtained by {@link #obtainTmpFileLock(File, File, int)} and removes the tmp file. Nothing is
+     * done if lock is null (it wasn't obtained), tmp file belongs to other thread then.
+     */
+    public static void releaseTmpFileLock(FileLock lock, File file, File queue) {
+        if (lock == null) {
+            return;
+        }
+
+        closeQuietly(lock);
+        file.delete();
+
+        FileLocks.leaveTmpFileQueue(queue);
+    }
+
     public static <T> T getSafeValue(Map<String, Object> map, String key, T defValue) {
         return (T) getSafeValue(map, key, defValue, (Class) String.class);
     }
@@ -172,21 +276,75 @@ public class Util {
         return new BufferedReader(in);
     }
 
+    /**
+     * Record boundaries can be found directly on bytes (see {@link RecordScanner}) only if every delimiter,
+     * quote, escape and line break is encoded as the same single byte and such byte can't be part of another
+     * character. That is true for UTF-8 and ASCII based single byte encodings.
+     */
+    public static boolean isByteScanSupported(ObjectClassHandlerConfiguration configuration) {
+        Charset charset;
+        try {
+            charset = Charset.forName(configuration.getEncoding());
+        } catch (Exception ex) {
+            return false;
+        }
+
+        if (!StandardCharsets.UTF_8.equals(charset) && charset.newEncoder().maxBytesPerChar() != 1) {
+            return false;
+        }
+
+        StringBuilder special = new StringBuilder("\r\n");
+        for (String value : Arrays.asList(configuration.getFieldDelimiter(), configuration.getQuote(),
+                configuration.getEscape(), configuration.getCommentMarker())) {
+            if (value == null) {
+                continue;
+            }
+            if (value.length() != 1 || value.charAt(0) > 0x7f) {
+                return false;
+            }
+            special.append(value);
+        }
+
+        String chars = special.toString();
+        return Arrays.equals(chars.getBytes(charset), chars.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Reads and parses one record from the position found by {@link RecordScanner}.
+     *
+     * @return parsed record or null if there's no record on that position
+     */
+    public static CSVRecord readRecord(FileChannel channel, RecordRange range,
+                                       ObjectClassHandlerConfiguration configuration) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(range.length());
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, range.offset() + buffer.position()) < 0) {
+                return null;
+            }
+        }
+
+        String value = new String(buffer.array(), Charset.forName(configuration.getEncoding()));
+
+        CSVFormat csv = createCsvFormatReader(configuration);
+        CSVParser parser = new CSVParser(new StringReader(value), csv, 0, range.recordNumber());
+        Iterator<CSVRecord> iterator = parser.iterator();
+
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
     public static void checkCanReadFile(File file) {
         if (file == null) {
             throw new ConfigurationException("File path is not defined");
         }
         
-        synchronized (CsvConnector.SYNCH_FILE_LOCK) {
-        	if (!file.exists()) {
-        		throw new ConfigurationException("File '" + file + "' doesn't exists. At least file with CSV header must exist");
-        	}
-        	if (file.isDirectory()) {
-        		throw new ConfigurationException("File path '" + file + "' is a directory, must be a CSV file");
-        	}
-        	if (!file.canRead()) {
-        		throw new ConfigurationException("File '" + file + "' can't be read");
-        	}
+        if (!file.exists()) {
+            throw new ConfigurationException("File '" + file + "' doesn't exists. At least file with CSV header must exist");
+        }
+        if (file.isDirectory()) {
+            throw new ConfigurationException("File path '" + file + "' is a directory, must be a CSV file");
+        }
+        if (!file.canRead()) {
+            throw new ConfigurationException("File '" + file + "' can't be read");
         }
     }
 
@@ -418,10 +576,9 @@ public class Util {
                                         ObjectClassHandlerConfiguration config) {
         Util.closeQuietly(writer);
         Util.closeQuietly(reader);
-        Util.closeQuietly(lock);
 
         File tmp = Util.createTmpPath(config);
-        tmp.delete();
+        releaseTmpFileLock(lock, tmp, config.getFilePath());
     }
 
     public static String[] listTokenFiles(ObjectClassHandlerConfiguration config) {
@@ -0,0 +1,147 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Groups writes submitted by concurrent threads, so they can be applied to the file together. Thread which
+ * submits write when no batch is being applied becomes leader: it waits for more writes (until batch is full
+ * or time window elapses), applies them and wakes up other threads. Other threads wait until their write is
+ * applied, or until they can become leader for the next batch.
+ * <p>
+ * Writes are applied in the same order as they were submitted. Applier has to store result of every write
+ * in the write itself. If applier throws exception, none of the writes in the batch is considered applied and
+ * the exception is thrown to every thread which submitted a write in the batch.
+ */
+public class WriteBatcher<T> {
+
+    private final int maxSize;
+
+    private final long window;
+
+    private final List<Entry<T>> queue = new ArrayList<>();
+
+    /**
+     * Number of submitted writes, every write gets its sequence number as ticket.
+     */
+    private long submitted;
+
+    /**
+     * Number of applied writes, write is applied when its ticket is less or equal.
+     */
+    private long applied;
+
+    private boolean applying;
+
+    private static class Entry<T> {
+
+        private final T write;
+
+        /**
+         * Set by leader if the batch with the write failed, read by submitter after the write was applied.
+         */
+        private RuntimeException error;
+
+        private Entry(T write) {
+            this.write = write;
+        }
+    }
+
+    /**
+     * @param maxSize maximum number of writes in one batch
+     * @param window  maximum time in milliseconds leader waits for more writes
+     */
+    public WriteBatcher(int maxSize, long window) {
+        this.maxSize = maxSize;
+        this.window = window;
+    }
+
+    /**
+     * Returns when the write was applied, either by this thread or by leader of other batch. Waiting isn't
+     * interruptible, write can't be removed once it was submitted.
+     *
+     * @throws RuntimeException thrown by applier for the batch which contained the write
+     */
+    public void submit(T write, Consumer<List<T>> applier) {
+        boolean interrupted = false;
+
+        Entry<T> entry = new Entry<>(write);
+
+        long ticket;
+        synchronized (this) {
+            queue.add(entry);
+            ticket = ++submitted;
+            notifyAll();
+        }
+
+        try {
+            while (true) {
+                List<Entry<T>> batch;
+                synchronized (this) {
+                    while (applied < ticket && applying) {
+                        try {
+                            wait();
+                        } catch (InterruptedException ex) {
+                            interrupted = true;
+                        }
+                    }
+
+                    if (applied >= ticket) {
+                        if (entry.error != null) {
+                            throw entry.error;
+                        }
+                        return;
+                    }
+
+                    applying = true;
+                    interrupted |= waitForWrites();
+
+                    List<Entry<T>> head = queue.subList(0, Math.min(queue.size(), maxSize));
+                    batch = new ArrayList<>(head);
+                    head.clear();
+                }
+
+                List<T> writes = new ArrayList<>(batch.size());
+                batch.forEach(e -> writes.add(e.write));
+
+                try {
+                    applier.accept(writes);
+                } catch (RuntimeException ex) {
+                    // leader could apply batch of other threads, every submitter gets the exception
+                    batch.forEach(e -> e.error = ex);
+                } finally {
+                    synchronized (this) {
+                        applied += batch.size();
+                        applying = false;
+                        notifyAll();
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return true if thread was interrupted
+     */
+    private boolean waitForWrites() {
+        boolean interrupted = false;
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(window);
+        long remaining;
+        while (queue.size() < maxSize && (remaining = deadline - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+
+        return interrupted;
+    }
+}
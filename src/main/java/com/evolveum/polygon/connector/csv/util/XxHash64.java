@@ -0,0 +1,109 @@
+package com.evolveum.polygon.connector.csv.util;
+
+/**
+ * 64-bit xxHash (XXH64) of byte arrays, see https://github.com/Cyan4973/xxHash. Fast non-cryptographic hash,
+ * used to detect changed records, not for security.
+ */
+public final class XxHash64 {
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private XxHash64() {
+    }
+
+    public static long hash(byte[] input) {
+        return hash(input, 0, input.length, 0);
+    }
+
+    public static long hash(byte[] input, int offset, int length, long seed) {
+        int end = offset + length;
+        int position = offset;
+
+        long hash;
+        if (length >= 32) {
+            long v1 = seed + PRIME1 + PRIME2;
+            long v2 = seed + PRIME2;
+            long v3 = seed;
+            long v4 = seed - PRIME1;
+
+            int limit = end - 32;
+            do {
+                v1 = round(v1, getLong(input, position));
+                v2 = round(v2, getLong(input, position + 8));
+                v3 = round(v3, getLong(input, position + 16));
+                v4 = round(v4, getLong(input, position + 24));
+                position += 32;
+            } while (position <= limit);
+
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12)
+                    + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = seed + PRIME5;
+        }
+
+        hash += length;
+
+        while (position + 8 <= end) {
+            hash ^= round(0, getLong(input, position));
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+            position += 8;
+        }
+
+        if (position + 4 <= end) {
+            hash ^= (getInt(input, position) & 0xFFFFFFFFL) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+            position += 4;
+        }
+
+        while (position < end) {
+            hash ^= (input[position] & 0xFF) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+            position++;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+
+        return hash;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * PRIME1 + PRIME4;
+    }
+
+    private static long getLong(byte[] input, int position) {
+        return (input[position] & 0xFFL)
+                | (input[position + 1] & 0xFFL) << 8
+                | (input[position + 2] & 0xFFL) << 16
+                | (input[position + 3] & 0xFFL) << 24
+                | (input[position + 4] & 0xFFL) << 32
+                | (input[position + 5] & 0xFFL) << 40
+                | (input[position + 6] & 0xFFL) << 48
+                | (input[position + 7] & 0xFFL) << 56;
+    }
+
+    private static int getInt(byte[] input, int position) {
+        return (input[position] & 0xFF)
+                | (input[position + 1] & 0xFF) << 8
+                | (input[position + 2] & 0xFF) << 16
+                | (input[position + 3] & 0xFF) << 24;
+    }
+}
@@ -86,4 +86,27 @@ public class AuthenticateOpTest extends BaseTest {
         assertNotNull(uid);
         assertEquals(uid.getUidValue(), "vilo");
     }
+
+    @Test
+    public void correctAuthenticationUsingIndex() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setIndexEnabled(true);
+        connector = setupConnector("/authenticate.csv", config);
+
+        GuardedString guarded = new GuardedString(Base64.encode("good".getBytes()).toCharArray());
+        Uid uid = connector.authenticate(ObjectClass.ACCOUNT, "vilo", guarded, null);
+
+        assertNotNull(uid);
+        assertEquals(uid.getUidValue(), "vilo");
+    }
+
+    @Test(expectedExceptions = InvalidPasswordException.class)
+    public void badPasswordUsingIndex() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setIndexEnabled(true);
+        connector = setupConnector("/authenticate.csv", config);
+
+        GuardedString guarded = new GuardedString(Base64.encode("bad".getBytes()).toCharArray());
+        connector.authenticate(ObjectClass.ACCOUNT, "vilo", guarded, null);
+    }
 }
@@ -79,6 +79,7 @@ public abstract class BaseTest {
     protected void copyDataFile(String csvTemplate, CsvConfiguration config) throws IOException {
     	File file = new File(CSV_FILE_PATH);
         file.delete();
+        new File(CSV_FILE_PATH + ".journal").delete();
 
         FileUtils.copyFile(new File(TEMPLATE_FOLDER_PATH + csvTemplate), new File(CSV_FILE_PATH));
 
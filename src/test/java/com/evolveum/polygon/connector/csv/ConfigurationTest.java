@@ -49,4 +49,35 @@ public class ConfigurationTest extends BaseTest {
         ConnectorFacade connector = setupConnector("/create.csv", config);
         connector.test();
     }
+
+    @Test(expectedExceptions = ConfigurationException.class)
+    public void testUnsupportedDurability() throws Exception {
+        CsvConfiguration config = new CsvConfiguration();
+        config.setUniqueAttribute("uid");
+        config.setDurability("always");
+
+        ConnectorFacade connector = setupConnector("/create.csv", config);
+        connector.test();
+    }
+
+    @Test(expectedExceptions = ConfigurationException.class)
+    public void testHashSyncSnapshotsWithPartitions() throws Exception {
+        CsvConfiguration config = new CsvConfiguration();
+        config.setUniqueAttribute("uid");
+        config.setHashSyncSnapshots(true);
+        config.setSyncDiffPartitions(4);
+
+        ConnectorFacade connector = setupConnector("/create.csv", config);
+        connector.test();
+    }
+
+    @Test(expectedExceptions = ConfigurationException.class)
+    public void testNegativeSyncDiffThreads() throws Exception {
+        CsvConfiguration config = new CsvConfiguration();
+        config.setUniqueAttribute("uid");
+        config.setSyncDiffThreads(-1);
+
+        ConnectorFacade connector = setupConnector("/create.csv", config);
+        connector.test();
+    }
 }
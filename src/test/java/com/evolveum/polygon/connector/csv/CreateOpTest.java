@@ -3,6 +3,7 @@ package com.evolveum.polygon.connector.csv;
 import com.evolveum.polygon.connector.csv.util.CsvTestUtil;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
 import org.identityconnectors.framework.common.exceptions.ConfigurationException;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
@@ -10,6 +11,9 @@ import org.identityconnectors.framework.common.objects.*;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -17,6 +21,8 @@ import java.util.Set;
 
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
 
 /**
  * Created by Viliam Repan (lazyman).
@@ -260,4 +266,62 @@ public class CreateOpTest extends BaseTest {
         Map<String, String> realRecord = CsvTestUtil.findRecord(createConfigurationNameEqualsUid(), NEW_UID);
         assertEquals(expectedRecord, realRecord);
     }
+
+    @Test
+    public void createAccountsAppended() throws Exception {
+        CsvConfiguration config = createConfigurationNameEqualsUid();
+        config.setMultivalueDelimiter(",");
+        config.setAppendOnCreate(true);
+        config.setIndexEnabled(true);
+        ConnectorFacade connector = setupConnector("/create.csv", config);
+
+        // file doesn't end with line break, it's rewritten
+        connector.create(ObjectClass.ACCOUNT, createAccountAttributes(NEW_UID, NEW_LAST_NAME), null);
+
+        File file = new File(BaseTest.CSV_FILE_PATH);
+        String content = Files.readString(file.toPath());
+        Object fileKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+
+        final String SECOND_UID = "uid=second,dc=example,dc=com";
+        connector.create(ObjectClass.ACCOUNT, createAccountAttributes(SECOND_UID, NEW_LAST_NAME, "von\nBahnhof"),
+                null);
+
+        String appended = Files.readString(file.toPath());
+        assertTrue(appended.startsWith(content));
+        assertTrue(appended.endsWith("\n"));
+        // file wasn't replaced
+        assertEquals(fileKey, Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey());
+
+        try {
+            connector.create(ObjectClass.ACCOUNT, createAccountAttributes(SECOND_UID, NEW_LAST_NAME), null);
+            fail("Expected AlreadyExistsException");
+        } catch (AlreadyExistsException ex) {
+            // expected
+        }
+        assertEquals(appended, Files.readString(file.toPath()));
+
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, new Uid(SECOND_UID), null);
+        assertNotNull(object);
+        assertEquals(Arrays.asList(NEW_LAST_NAME, "von\nBahnhof"), object.getAttributeByName(ATTR_LAST_NAME).getValue());
+
+        Map<String, String> expectedRecord = new HashMap<>();
+        expectedRecord.put(ATTR_UID, SECOND_UID);
+        expectedRecord.put(ATTR_FIRST_NAME, NEW_FIRST_NAME);
+        expectedRecord.put(ATTR_LAST_NAME, NEW_LAST_NAME + ",von\nBahnhof");
+        expectedRecord.put(ATTR_PASSWORD, NEW_PASSWORD);
+
+        assertEquals(expectedRecord, CsvTestUtil.findRecord(createConfigurationNameEqualsUid(), SECOND_UID));
+        assertNotNull(CsvTestUtil.findRecord(createConfigurationNameEqualsUid(), NEW_UID));
+    }
+
+    private Set<Attribute> createAccountAttributes(String uid, String... lastNames) {
+        Set<Attribute> attributes = new HashSet<>();
+        attributes.add(new Name(uid));
+        attributes.add(createAttribute(ATTR_UID, uid));
+        attributes.add(createAttribute(ATTR_FIRST_NAME, NEW_FIRST_NAME));
+        attributes.add(createAttribute(ATTR_LAST_NAME, (Object[]) lastNames));
+        attributes.add(AttributeBuilder.buildPassword(new GuardedString(NEW_PASSWORD.toCharArray())));
+
+        return attributes;
+    }
 }
@@ -0,0 +1,235 @@
+package com.evolveum.polygon.connector.csv;
+
+import com.evolveum.polygon.connector.csv.util.CsvTestUtil;
+import com.evolveum.polygon.connector.csv.util.ListResultHandler;
+import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
+import org.identityconnectors.framework.common.objects.*;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Changes are written to journal, searches have to return records from CSV file with journal applied.
+ */
+public class JournalTest extends BaseTest {
+
+    private static final String DESCRIPTION = "multi\nline; with \\ escape";
+
+    private CsvConfiguration createJournalConfiguration(int threshold) {
+        CsvConfiguration config = createConfiguration();
+        config.setUniqueAttribute("id");
+        config.setNameAttribute("name");
+        config.setMultivalueDelimiter(",");
+        config.setIndexEnabled(true);
+        config.setJournalEnabled(true);
+        config.setJournalCompactionThreshold(threshold);
+
+        return config;
+    }
+
+    @Test
+    public void changesInJournal() throws Exception {
+        CsvConfiguration config = createJournalConfiguration(100);
+        config.setParallelScanThreads(2);
+        ConnectorFacade connector = setupConnector("/search-filter.csv", config);
+
+        File file = new File(CSV_FILE_PATH);
+        File journal = new File(CSV_FILE_PATH + ".journal");
+        byte[] content = Files.readAllBytes(file.toPath());
+
+        connector.create(ObjectClass.ACCOUNT, attributes(new Name("eve"), AttributeBuilder.build("id", "5"),
+                AttributeBuilder.build("description", DESCRIPTION)), null);
+        connector.update(ObjectClass.ACCOUNT, new Uid("2"),
+                attributes(AttributeBuilder.build("description", "changed")), null);
+        Uid renamed = connector.update(ObjectClass.ACCOUNT, new Uid("3"),
+                attributes(AttributeBuilder.build("id", "30")), null);
+        connector.delete(ObjectClass.ACCOUNT, new Uid("4"), null);
+
+        AssertJUnit.assertEquals("30", renamed.getUidValue());
+        AssertJUnit.assertTrue(journal.exists());
+        AssertJUnit.assertTrue(Arrays.equals(content, Files.readAllBytes(file.toPath())));
+
+        assertChanges(connector);
+
+        AssertJUnit.assertEquals("1", connector.getObject(ObjectClass.ACCOUNT, new Uid("1"), null)
+                .getUid().getUidValue());
+        AssertJUnit.assertNull(connector.getObject(ObjectClass.ACCOUNT, new Uid("3"), null));
+        AssertJUnit.assertEquals(new Uid("5"), connector.resolveUsername(ObjectClass.ACCOUNT, "eve", null));
+
+        try {
+            connector.create(ObjectClass.ACCOUNT, attributes(new Name("x"), AttributeBuilder.build("id", "30")),
+                    null);
+            AssertJUnit.fail("Expected AlreadyExistsException");
+        } catch (AlreadyExistsException ex) {
+            // expected
+        }
+
+        try {
+            connector.delete(ObjectClass.ACCOUNT, new Uid("4"), null);
+            AssertJUnit.fail("Expected UnknownUidException");
+        } catch (UnknownUidException ex) {
+            // expected
+        }
+
+        // paged and sorted searches apply journal too, it's compacted only by writes
+        OperationOptionsBuilder builder = new OperationOptionsBuilder();
+        builder.setPageSize(10);
+
+        ListResultHandler handler = new ListResultHandler();
+        new ObjectClassHandler(config.getConfig()).executeQuery(ObjectClass.ACCOUNT, null, handler, builder.build());
+        AssertJUnit.assertEquals(Arrays.asList("1", "2", "5", "30"), getUids(handler.getObjects()));
+
+        builder.setPageSize(2);
+        builder.setPagedResultsOffset(2);
+        handler = new ListResultHandler();
+        new ObjectClassHandler(config.getConfig()).executeQuery(ObjectClass.ACCOUNT, null, handler, builder.build());
+        AssertJUnit.assertEquals(Arrays.asList("2", "5"), getUids(handler.getObjects()));
+
+        builder = new OperationOptionsBuilder();
+        builder.setSortKeys(new SortKey(Name.NAME, true));
+        handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, null, handler, builder.build());
+        AssertJUnit.assertEquals(Arrays.asList("1", "2", "30", "5"), getUids(handler.getObjects()));
+
+        AssertJUnit.assertTrue(journal.exists());
+        AssertJUnit.assertTrue(Arrays.equals(content, Files.readAllBytes(file.toPath())));
+    }
+
+    @Test
+    public void createDuplicateIgnoringCase() throws Exception {
+        CsvConfiguration config = createJournalConfiguration(100);
+        config.setIgnoreIdentifierCase(true);
+        ConnectorFacade connector = setupConnector("/search-filter.csv", config);
+
+        connector.create(ObjectClass.ACCOUNT, attributes(new Name("eve"), AttributeBuilder.build("id", "e5")), null);
+
+        try {
+            connector.create(ObjectClass.ACCOUNT, attributes(new Name("x"), AttributeBuilder.build("id", "E5")),
+                    null);
+            AssertJUnit.fail("Expected AlreadyExistsException");
+        } catch (AlreadyExistsException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void syncWithJournal() throws Exception {
+        ConnectorFacade connector = setupConnector("/search-filter.csv", createJournalConfiguration(100));
+
+        File journal = new File(CSV_FILE_PATH + ".journal");
+
+        try {
+            connector.update(ObjectClass.ACCOUNT, new Uid("1"),
+                    attributes(AttributeBuilder.build("description", "a")), null);
+
+            // sync file contains changes from journal, only later changes are returned
+            SyncToken token = connector.getLatestSyncToken(ObjectClass.ACCOUNT);
+
+            connector.update(ObjectClass.ACCOUNT, new Uid("2"),
+                    attributes(AttributeBuilder.build("description", "b")), null);
+
+            List<SyncDelta> deltas = new ArrayList<>();
+            connector.sync(ObjectClass.ACCOUNT, token, deltas::add, null);
+
+            AssertJUnit.assertEquals(1, deltas.size());
+            AssertJUnit.assertEquals(SyncDeltaType.UPDATE, deltas.get(0).getDeltaType());
+            AssertJUnit.assertEquals("2", deltas.get(0).getUid().getUidValue());
+
+            AssertJUnit.assertTrue(journal.exists());
+        } finally {
+            CsvTestUtil.deleteAllSyncFiles();
+        }
+    }
+
+    private void assertChanges(ConnectorFacade connector) {
+        ListResultHandler handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, null, handler, null);
+        AssertJUnit.assertEquals(Arrays.asList("1", "2", "5", "30"), getUids(handler.getObjects()));
+
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, new Uid("2"), null);
+        AssertJUnit.assertEquals("changed", AttributeUtil.getStringValue(object.getAttributeByName("description")));
+
+        object = connector.getObject(ObjectClass.ACCOUNT, new Uid("5"), null);
+        AssertJUnit.assertEquals(DESCRIPTION, AttributeUtil.getStringValue(object.getAttributeByName("description")));
+
+        handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, FilterBuilder.equalTo(AttributeBuilder.build("description", "changed")),
+                handler, null);
+        AssertJUnit.assertEquals(Arrays.asList("2"), getUids(handler.getObjects()));
+    }
+
+    @Test
+    public void compactionThreshold() throws Exception {
+        ConnectorFacade connector = setupConnector("/search-filter.csv", createJournalConfiguration(2));
+
+        File journal = new File(CSV_FILE_PATH + ".journal");
+
+        connector.update(ObjectClass.ACCOUNT, new Uid("1"), attributes(AttributeBuilder.build("description", "a")),
+                null);
+        AssertJUnit.assertTrue(journal.exists());
+
+        connector.update(ObjectClass.ACCOUNT, new Uid("2"), attributes(AttributeBuilder.build("description", "b")),
+                null);
+        AssertJUnit.assertFalse(journal.exists());
+
+        String content = Files.readString(new File(CSV_FILE_PATH).toPath());
+        AssertJUnit.assertTrue(content.contains("1;alice;users,admins;a;secret"));
+        AssertJUnit.assertTrue(content.contains("2;bob;users;b;secret"));
+    }
+
+    @Test
+    public void tornJournalEntry() throws Exception {
+        CsvConfiguration config = createJournalConfiguration(100);
+        ConnectorFacade connector = setupConnector("/search-filter.csv", config);
+
+        File journal = new File(CSV_FILE_PATH + ".journal");
+        Files.write(journal.toPath(), "U;1;1;alice;users;torn".getBytes(StandardCharsets.UTF_8));
+
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, new Uid("1"), null);
+        AssertJUnit.assertEquals("first", AttributeUtil.getStringValue(object.getAttributeByName("description")));
+
+        connector.update(ObjectClass.ACCOUNT, new Uid("1"), attributes(AttributeBuilder.build("description", "a")),
+                null);
+
+        object = connector.getObject(ObjectClass.ACCOUNT, new Uid("1"), null);
+        AssertJUnit.assertEquals("a", AttributeUtil.getStringValue(object.getAttributeByName("description")));
+        AssertJUnit.assertEquals(Arrays.asList("U;1;1;alice;users,admins;a;secret"),
+                Files.readAllLines(journal.toPath()));
+
+        // applying journal again doesn't change anything, write without journal compacts it first
+        byte[] entries = Files.readAllBytes(journal.toPath());
+        config.setJournalEnabled(false);
+        new ObjectClassHandler(config.getConfig()).update(ObjectClass.ACCOUNT, new Uid("1"),
+                attributes(AttributeBuilder.build("description", "a")), null);
+        Files.write(journal.toPath(), entries, StandardOpenOption.CREATE_NEW);
+
+        ListResultHandler handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, null, handler, null);
+        AssertJUnit.assertEquals(Arrays.asList("1", "2", "3", "4"), getUids(handler.getObjects()));
+    }
+
+    private Set<Attribute> attributes(Attribute... attributes) {
+        return new HashSet<>(Arrays.asList(attributes));
+    }
+
+    private List<String> getUids(List<ConnectorObject> objects) {
+        List<String> uids = new ArrayList<>();
+        for (ConnectorObject object : objects) {
+            uids.add(object.getUid().getUidValue());
+        }
+
+        return uids;
+    }
+}
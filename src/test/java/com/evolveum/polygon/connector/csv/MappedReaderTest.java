@@ -0,0 +1,159 @@
+package com.evolveum.polygon.connector.csv;
+
+import com.evolveum.polygon.connector.csv.util.CsvRow;
+import com.evolveum.polygon.connector.csv.util.CsvRowReader;
+import com.evolveum.polygon.connector.csv.util.ListResultHandler;
+import com.evolveum.polygon.connector.csv.util.MappedCsvReader;
+import com.evolveum.polygon.connector.csv.util.Util;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Memory-mapped reader has to return the same records as commons-csv parser.
+ */
+public class MappedReaderTest extends BaseTest {
+
+    private static final String[] CONTENTS = {
+            "id;name;description\r\n1;alice;first\r\n2;bob;\r\n",
+            "id;name\n1;alice\n\n\n2;bob",
+            "id;name\n# comment\n1;\"alice;\"\"quoted\"\"\"\n#\n2;\"multi\r\nline\"\n",
+            "id;name\n1;esc\\;aped\n2;\\n\\t\\x\\\\\n3;\"q\\\"uote\"\n",
+            "id;name\n1;  spaces  \n2;  \"quoted\"  ;x\n3;\"a\"  \n  ;\t\n",
+            "id;name;\n1;alice;\n2;bob;;\n\n3;c\u00e9d\u00e9ric;\u3000\u2003\n",
+            "id;name\n1;\u00fc\u00f1\u00ee\u00e7\u00f8d\u00e9;\ud83d\ude00\n2;x\u3000\n\r\n\r3;\"\"",
+            "",
+            "\n\n",
+            "id;name\n1;\"\";\n2;;",
+            "id\n1\n;\n \n",
+    };
+
+    @Test
+    public void readerMatchesParser() throws Exception {
+        for (String content : CONTENTS) {
+            File file = new File(CSV_FILE_PATH);
+            Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+            for (int i = 0; i < 16; i++) {
+                ObjectClassHandlerConfiguration config = new ObjectClassHandlerConfiguration();
+                config.setFilePath(file);
+                config.setIgnoreEmptyLines((i & 1) != 0);
+                config.setIgnoreSurroundingSpaces((i & 2) != 0);
+                config.setTrim((i & 4) != 0);
+                config.setTrailingDelimiter((i & 8) != 0);
+
+                List<List<Object>> expected = readParser(config);
+                for (int windowSize : new int[]{1, 3, 8, MappedCsvReader.DEFAULT_WINDOW_SIZE}) {
+                    List<List<Object>> real = readMapped(config, windowSize);
+                    AssertJUnit.assertEquals("Content " + content + ", config " + i
+                            + ", window " + windowSize, expected, real);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readerInvalidQuotedValue() throws Exception {
+        File file = new File(CSV_FILE_PATH);
+        ObjectClassHandlerConfiguration config = new ObjectClassHandlerConfiguration();
+        config.setFilePath(file);
+
+        for (String content : new String[]{"id;name\n1;\"a\"b\n", "id;name\n1;\"a\n", "id;name\n1;a\\"}) {
+            Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+            try {
+                readMapped(config, MappedCsvReader.DEFAULT_WINDOW_SIZE);
+                AssertJUnit.fail("Expected IOException for " + content);
+            } catch (IOException ex) {
+                // expected
+            }
+        }
+    }
+
+    private List<List<Object>> readParser(ObjectClassHandlerConfiguration config) throws IOException {
+        List<List<Object>> records = new ArrayList<>();
+        try (Reader reader = Util.createReader(config);
+             CSVParser parser = Util.createCsvFormatReader(config).parse(reader)) {
+
+            for (CSVRecord record : parser) {
+                List<Object> values = new ArrayList<>(record.toList());
+                values.add(record.getRecordNumber());
+                records.add(values);
+            }
+        }
+
+        return records;
+    }
+
+    private List<List<Object>> readMapped(ObjectClassHandlerConfiguration config, int windowSize)
+            throws IOException {
+        List<List<Object>> records = new ArrayList<>();
+        try (CsvRowReader reader = new MappedCsvReader(config.getFilePath(), config, windowSize)) {
+            CsvRow row;
+            while ((row = reader.next()) != null) {
+                List<Object> values = new ArrayList<>();
+                for (int i = 0; i < row.size(); i++) {
+                    // blank check on bytes before the value is decoded
+                    boolean blank = row.isBlank(i);
+                    String value = row.get(i);
+
+                    AssertJUnit.assertEquals(value, StringUtil.isBlank(value), blank);
+                    values.add(value);
+                }
+                values.add(row.getRecordNumber());
+                records.add(values);
+            }
+        }
+
+        return records;
+    }
+
+    @Test
+    public void searchUsingMappedReader() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setUniqueAttribute("id");
+        config.setNameAttribute("name");
+        config.setPasswordAttribute(null);
+        config.setMultivalueDelimiter(",");
+
+        List<Filter> filters = Arrays.asList(null,
+                FilterBuilder.equalTo(AttributeBuilder.build("groups", "users")),
+                FilterBuilder.startsWith(AttributeBuilder.build("description", "f")),
+                FilterBuilder.not(FilterBuilder.contains(AttributeBuilder.build("groups", "admins"))));
+
+        ConnectorFacade parsed = setupConnector("/search-filter.csv", config);
+
+        config.setMappedReaderEnabled(true);
+        ConnectorFacade mapped = createNewInstance(config);
+
+        for (Filter filter : filters) {
+            List<ConnectorObject> expected = search(parsed, filter);
+            AssertJUnit.assertFalse(expected.isEmpty());
+            AssertJUnit.assertEquals(String.valueOf(filter), expected, search(mapped, filter));
+        }
+    }
+
+    private List<ConnectorObject> search(ConnectorFacade connector, Filter filter) {
+        ListResultHandler handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, filter, handler, null);
+
+        return handler.getObjects();
+    }
+}
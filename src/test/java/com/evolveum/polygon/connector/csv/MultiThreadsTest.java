@@ -19,16 +19,32 @@ package com.evolveum.polygon.connector.csv;
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertNotNull;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.io.FileUtils;
 import org.identityconnectors.common.Base64;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.AttributeUtil;
@@ -39,7 +55,10 @@ import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
 import com.evolveum.polygon.connector.csv.util.CsvTestUtil;
+import com.evolveum.polygon.connector.csv.util.FileLocks;
 import com.evolveum.polygon.connector.csv.util.ListResultHandler;
+import com.evolveum.polygon.connector.csv.util.LockWaitStatistics;
+import com.evolveum.polygon.connector.csv.util.Util;
 
 /**
  * @author skublik
@@ -69,6 +88,357 @@ public class MultiThreadsTest extends BaseTest{
         testOp(RunnableCreateAccounts.DELETE_OP, 0, 25);
     }
     
+    @Test
+    public void batchedWrites() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setWriteBatchSize(20);
+        config.setWriteBatchWindow(200);
+        copyDataFile("/multi-threads-update-delete.csv", config);
+
+        Set<Map<String, String>> expectedRecords = new HashSet<>();
+        Map<Integer, Set<Attribute>> created = getMapOfAttributesForThread(100, 110, expectedRecords, false);
+        Map<Integer, Set<Attribute>> updated = getMapOfAttributesForThread(0, 10, expectedRecords, true);
+
+        List<Callable<Object>> tasks = new ArrayList<>();
+        created.forEach((i, attributes) -> tasks.add(() -> createNewInstance(config)
+                .create(ObjectClass.ACCOUNT, attributes, null)));
+        updated.forEach((i, attributes) -> tasks.add(() -> createNewInstance(config)
+                .update(ObjectClass.ACCOUNT, new Uid(NEW_UID + i), attributes, null)));
+        for (int i = 10; i < 20; i++) {
+            Uid uid = new Uid(NEW_UID + i);
+            tasks.add(() -> {
+                createNewInstance(config).delete(ObjectClass.ACCOUNT, uid, null);
+                return uid;
+            });
+        }
+        // fails, other writes in the same batch are still applied
+        tasks.add(() -> createNewInstance(config).update(ObjectClass.ACCOUNT, new Uid("unknown"),
+                created.get(100), null));
+
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        List<Future<Object>> results = executor.invokeAll(tasks);
+        executor.shutdown();
+
+        for (int i = 0; i < results.size() - 1; i++) {
+            assertNotNull(results.get(i).get());
+        }
+        try {
+            results.get(results.size() - 1).get();
+            AssertJUnit.fail("Expected UnknownUidException");
+        } catch (ExecutionException ex) {
+            AssertJUnit.assertTrue(ex.getCause() instanceof UnknownUidException);
+        }
+
+        for (Map<String, String> expectedRecord : expectedRecords) {
+            Map<String, String> realRecord = CsvTestUtil.findRecord(createConfigurationNameEqualsUid(),
+                    expectedRecord.get(ATTR_UID));
+            assertEquals(expectedRecord, realRecord);
+        }
+
+        ListResultHandler handler = new ListResultHandler();
+        createNewInstance(config).search(ObjectClass.ACCOUNT, null, handler, null);
+        AssertJUnit.assertEquals(100, handler.getObjects().size());
+    }
+
+    @Test
+    public void reconfiguredWriteBatcherIsReplaced() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setWriteBatchSize(2);
+        config.setWriteBatchWindow(0);
+        copyDataFile("/multi-threads-update-delete.csv", config);
+
+        File file = new File(CSV_FILE_PATH);
+        Map<Integer, Set<Attribute>> updated = getMapOfAttributesForThread(0, 1, new HashSet<>(), true);
+
+        createNewInstance(config).update(ObjectClass.ACCOUNT, new Uid(NEW_UID + 0), updated.get(0), null);
+        Object old = ObjectClassHandler.WRITE_BATCHERS.get(file);
+        assertNotNull(old);
+
+        // batcher of the previous configuration isn't kept next to the new one
+        config.setWriteBatchWindow(10);
+        createNewInstance(config).update(ObjectClass.ACCOUNT, new Uid(NEW_UID + 0), updated.get(0), null);
+        AssertJUnit.assertNotSame(old, ObjectClassHandler.WRITE_BATCHERS.get(file));
+    }
+
+    @Test
+    public void batchedWritesTimeout() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setWriteBatchSize(8);
+        config.setWriteBatchWindow(200);
+        config.setTmpFileLockTimeout(300);
+        copyDataFile("/multi-threads-update-delete.csv", config);
+
+        Map<Integer, Set<Attribute>> created = getMapOfAttributesForThread(100, 104, new HashSet<>(), false);
+        Map<Integer, Set<Attribute>> updated = getMapOfAttributesForThread(0, 4, new HashSet<>(), true);
+
+        List<Callable<Object>> tasks = new ArrayList<>();
+        created.forEach((i, attributes) -> tasks.add(() -> createNewInstance(config)
+                .create(ObjectClass.ACCOUNT, attributes, null)));
+        updated.forEach((i, attributes) -> tasks.add(() -> createNewInstance(config)
+                .update(ObjectClass.ACCOUNT, new Uid(NEW_UID + i), attributes, null)));
+
+        // file is held by other writer, leader of every batch times out
+        FileLock lock = Util.obtainTmpFileLock(config.getConfig());
+        try {
+            ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+            List<Future<Object>> results = executor.invokeAll(tasks);
+            executor.shutdown();
+
+            for (Future<Object> result : results) {
+                try {
+                    result.get();
+                    AssertJUnit.fail("Expected ConnectorException");
+                } catch (ExecutionException ex) {
+                    AssertJUnit.assertTrue(ex.getCause() instanceof ConnectorException);
+                }
+            }
+        } finally {
+            Util.cleanupResources(null, null, lock, config.getConfig());
+        }
+
+        for (int i = 100; i < 104; i++) {
+            AssertJUnit.assertNull(CsvTestUtil.findRecord(createConfigurationNameEqualsUid(), NEW_UID + i));
+        }
+    }
+
+    @Test
+    public void groupCommit() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setDurability("group_commit");
+        config.setWriteBatchWindow(200);
+        copyDataFile("/multi-threads-update-delete.csv", config);
+
+        Set<Map<String, String>> expectedRecords = new HashSet<>();
+        Map<Integer, Set<Attribute>> created = getMapOfAttributesForThread(100, 108, expectedRecords, false);
+        Map<Integer, Set<Attribute>> updated = getMapOfAttributesForThread(0, 8, expectedRecords, true);
+
+        List<Callable<Object>> tasks = new ArrayList<>();
+        created.forEach((i, attributes) -> tasks.add(() -> createNewInstance(config)
+                .create(ObjectClass.ACCOUNT, attributes, null)));
+        updated.forEach((i, attributes) -> tasks.add(() -> createNewInstance(config)
+                .update(ObjectClass.ACCOUNT, new Uid(NEW_UID + i), attributes, null)));
+
+        // every batch obtains tmp file once
+        long rewrites = FileLocks.getTmpFileWaitStatistics().getCount();
+
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            for (Future<Object> result : executor.invokeAll(tasks)) {
+                assertNotNull(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        rewrites = FileLocks.getTmpFileWaitStatistics().getCount() - rewrites;
+        AssertJUnit.assertTrue("Writes weren't batched, rewrites: " + rewrites, rewrites < tasks.size());
+
+        for (Map<String, String> expectedRecord : expectedRecords) {
+            Map<String, String> realRecord = CsvTestUtil.findRecord(createConfigurationNameEqualsUid(),
+                    expectedRecord.get(ATTR_UID));
+            assertEquals(expectedRecord, realRecord);
+        }
+    }
+
+    @Test
+    public void writesToDifferentFiles() throws Exception {
+        CsvConfiguration first = createConfiguration();
+        copyDataFile("/create.csv", first);
+
+        File secondFile = new File("./target/data-second.csv");
+        FileUtils.copyFile(new File(TEMPLATE_FOLDER_PATH + "/create.csv"), secondFile);
+
+        CsvConfiguration second = createConfiguration();
+        second.setFilePath(secondFile);
+        second.validate();
+
+        Set<Map<String, String>> expectedRecords = new HashSet<>();
+        Map<Integer, Set<Attribute>> firstAttributes = getMapOfAttributesForThread(0, 100, expectedRecords, false);
+        Map<Integer, Set<Attribute>> secondAttributes = getMapOfAttributesForThread(100, 200, new HashSet<>(), false);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            // writer of the first file doesn't block writers of the second one
+            Future<Uid> blocked;
+            FileLock lock = Util.obtainTmpFileLock(first.getConfig());
+            try {
+                blocked = executor.submit(() -> createNewInstance(first)
+                        .create(ObjectClass.ACCOUNT, firstAttributes.remove(0), null));
+                Future<Uid> created = executor.submit(() -> createNewInstance(second)
+                        .create(ObjectClass.ACCOUNT, secondAttributes.remove(100), null));
+
+                assertEquals(NEW_UID + 100, created.get(10, TimeUnit.SECONDS).getUidValue());
+                AssertJUnit.assertFalse(blocked.isDone());
+            } finally {
+                Util.cleanupResources(null, null, lock, first.getConfig());
+            }
+            assertEquals(NEW_UID + 0, blocked.get(10, TimeUnit.SECONDS).getUidValue());
+
+            // four writers per file
+            List<Callable<Object>> tasks = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                tasks.add(createAccounts(first, firstAttributes, i));
+                tasks.add(createAccounts(second, secondAttributes, i));
+            }
+
+            long start = System.currentTimeMillis();
+            for (Future<Object> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+            LOG.info("Created 198 accounts in two files in {0} ms", System.currentTimeMillis() - start);
+        } finally {
+            executor.shutdown();
+        }
+
+        for (Map<String, String> expectedRecord : expectedRecords) {
+            Map<String, String> realRecord = CsvTestUtil.findRecord(createConfigurationNameEqualsUid(),
+                    expectedRecord.get(ATTR_UID));
+            assertEquals(expectedRecord, realRecord);
+        }
+
+        for (CsvConfiguration config : Arrays.asList(first, second)) {
+            ListResultHandler handler = new ListResultHandler();
+            createNewInstance(config).search(ObjectClass.ACCOUNT, null, handler, null);
+            AssertJUnit.assertEquals(101, handler.getObjects().size());
+        }
+    }
+
+    @Test
+    public void threadsQueueForTmpFile() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setTmpFileLockTimeout(200);
+        copyDataFile("/create.csv", config);
+
+        LockWaitStatistics statistics = FileLocks.getTmpFileWaitStatistics();
+
+        // sync lock file is held by someone else
+        long timeouts = statistics.getTimeouts();
+        File syncLock = Util.createSyncLockFile(config.getConfig());
+        FileLock lock = Util.obtainTmpFileLock(syncLock, 1000);
+        try {
+            createNewInstance(config).sync(ObjectClass.ACCOUNT, null, delta -> true, null);
+            AssertJUnit.fail("Expected ConnectorIOException");
+        } catch (ConnectorIOException ex) {
+            // expected
+        } finally {
+            Util.releaseTmpFileLock(lock, syncLock);
+        }
+        assertEquals(timeouts + 1, statistics.getTimeouts());
+
+        // 32 threads take turns, none of them times out
+        File tmp = Util.createTmpPath(config.getConfig());
+        long count = statistics.getCount();
+        AtomicInteger holders = new AtomicInteger();
+
+        List<Callable<Object>> tasks = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            tasks.add(() -> {
+                for (int j = 0; j < 10; j++) {
+                    FileLock tmpLock = Util.obtainTmpFileLock(tmp, 30000);
+                    try {
+                        assertEquals(1, holders.incrementAndGet());
+                        Thread.sleep(1);
+                        holders.decrementAndGet();
+                    } finally {
+                        Util.releaseTmpFileLock(tmpLock, tmp);
+                    }
+                }
+                return null;
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            for (Future<Object> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        LOG.info("Tmp file wait: {0}", statistics);
+
+        assertEquals(count + 320, statistics.getCount());
+        assertEquals(timeouts + 1, statistics.getTimeouts());
+        AssertJUnit.assertFalse(tmp.exists());
+    }
+
+    @Test
+    public void writersQueueForCsvFile() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setTmpFileLockTimeout(200);
+        copyDataFile("/create.csv", config);
+
+        LockWaitStatistics statistics = FileLocks.getTmpFileWaitStatistics();
+        long timeouts = statistics.getTimeouts();
+
+        // every connector instance has its own tmp file, but they all queue for the same CSV file
+        FileLock lock = Util.obtainTmpFileLock(config.getConfig());
+        try {
+            Set<Attribute> attributes = getMapOfAttributesForThread(0, 1, new HashSet<>(), false).get(0);
+            createNewInstance(config).create(ObjectClass.ACCOUNT, attributes, null);
+            AssertJUnit.fail("Expected ConnectorException");
+        } catch (ConnectorException ex) {
+            // expected
+        } finally {
+            Util.cleanupResources(null, null, lock, config.getConfig());
+        }
+        assertEquals(timeouts + 1, statistics.getTimeouts());
+
+        // 16 threads with their own connector instances write the same file
+        config.setTmpFileLockTimeout(30000);
+        long count = statistics.getCount();
+
+        Set<Map<String, String>> expectedRecords = new HashSet<>();
+        Map<Integer, Set<Attribute>> attributes = getMapOfAttributesForThread(100, 164, expectedRecords, false);
+
+        List<Callable<Object>> tasks = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            int thread = i;
+            tasks.add(() -> {
+                for (int j = 100 + thread; j < 164; j += 16) {
+                    createNewInstance(config).create(ObjectClass.ACCOUNT, attributes.get(j), null);
+                }
+                return null;
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            for (Future<Object> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        LOG.info("Tmp file wait: {0}", statistics);
+
+        // writers really waited in one queue
+        assertEquals(count + 64, statistics.getCount());
+        assertEquals(timeouts + 1, statistics.getTimeouts());
+        AssertJUnit.assertTrue(statistics.getMaxWaitTime(TimeUnit.NANOSECONDS) > 0);
+
+        for (Map<String, String> expectedRecord : expectedRecords) {
+            Map<String, String> realRecord = CsvTestUtil.findRecord(createConfigurationNameEqualsUid(),
+                    expectedRecord.get(ATTR_UID));
+            assertEquals(expectedRecord, realRecord);
+        }
+    }
+
+    /**
+     * @return task which creates every fourth account from attributes, starting with offset
+     */
+    private Callable<Object> createAccounts(CsvConfiguration config, Map<Integer, Set<Attribute>> attributes,
+                                            int offset) {
+        List<Set<Attribute>> accounts = new ArrayList<>(attributes.values());
+        return () -> {
+            ConnectorFacade connector = createNewInstance(config);
+            for (int i = offset; i < accounts.size(); i += 4) {
+                assertNotNull(connector.create(ObjectClass.ACCOUNT, accounts.get(i), null));
+            }
+            return accounts.size();
+        };
+    }
+
     private void testOp(String operation, int from, int by) throws Exception {
     	Set<Map<String, String>> setExpectedRecord = new HashSet<>();
         Map<Integer, Set<Attribute>> mapAttributes1 = getMapOfAttributesForThread(from+(0*by), from+(1*by), setExpectedRecord, false);
@@ -51,4 +51,29 @@ public class ResolveUsernameOpTest extends BaseTest {
         assertNotNull(uid);
         assertEquals(uid.getUidValue(), "vilo");
     }
+
+    @Test
+    public void correctResolveUsernameUsingIndex() throws Exception {
+        CsvConfiguration config = createConfigurationDifferent();
+        config.setIndexEnabled(true);
+        connector = setupConnector("/authenticate.csv", config);
+
+        Uid uid = connector.resolveUsername(ObjectClass.ACCOUNT, "repan", null);
+
+        assertNotNull(uid);
+        assertEquals(uid.getUidValue(), "vilo");
+
+        // same index is used for the second resolve
+        uid = connector.resolveUsername(ObjectClass.ACCOUNT, "repan", null);
+        assertEquals(uid.getUidValue(), "vilo");
+    }
+
+    @Test(expectedExceptions = InvalidCredentialException.class)
+    public void nonExistingUsernameUsingIndex() throws Exception {
+        CsvConfiguration config = createConfigurationDifferent();
+        config.setIndexEnabled(true);
+        connector = setupConnector("/authenticate.csv", config);
+
+        connector.resolveUsername(ObjectClass.ACCOUNT, "vilo", null);
+    }
 }
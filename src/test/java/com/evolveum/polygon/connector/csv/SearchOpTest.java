@@ -1,18 +1,38 @@
 package com.evolveum.polygon.connector.csv;
 
 import com.evolveum.polygon.connector.csv.util.ListResultHandler;
+import com.evolveum.polygon.connector.csv.util.ObjectCache;
+import com.evolveum.polygon.connector.csv.util.RecordIndex;
+import org.identityconnectors.framework.api.APIConfiguration;
 import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.api.ConnectorFacadeFactory;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.AttributeUtil;
 import org.identityconnectors.framework.common.objects.ConnectorObject;
 import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.OperationalAttributes;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.common.objects.SortKey;
 import org.identityconnectors.framework.common.objects.Uid;
-import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.filter.*;
+import org.identityconnectors.test.common.TestHelpers;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by Viliam Repan (lazyman).
@@ -107,4 +127,562 @@ public class SearchOpTest extends BaseTest {
         AssertJUnit.assertTrue(organizations.contains("org1"));
         AssertJUnit.assertTrue(organizations.contains("org2"));
     }
+
+    @Test
+    public void findByUidUsingIndex() throws Exception {
+        CsvConfiguration config = createConfigurationIndex();
+        ConnectorFacade connector = setupConnector("/search-index.csv", config);
+
+        ListResultHandler all = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, null, all, null);
+        AssertJUnit.assertEquals(5, all.getObjects().size());
+
+        for (ConnectorObject expected : all.getObjects()) {
+            ListResultHandler handler = new ListResultHandler();
+            connector.search(ObjectClass.ACCOUNT, new EqualsFilter(expected.getUid()), handler, null);
+
+            AssertJUnit.assertEquals(1, handler.getObjects().size());
+            AssertJUnit.assertEquals(expected.getAttributes(), handler.getObjects().get(0).getAttributes());
+        }
+
+        ListResultHandler handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, new EqualsFilter(new Uid("unknown")), handler, null);
+        AssertJUnit.assertEquals(0, handler.getObjects().size());
+    }
+
+    @Test
+    public void findByUidUsingIndexAfterUpdate() throws Exception {
+        CsvConfiguration config = createConfigurationIndex();
+        ConnectorFacade connector = setupConnector("/search-index.csv", config);
+
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, new Uid("4"), null);
+        AssertJUnit.assertEquals("a\r\n\r\nb", AttributeUtil.getStringValue(object.getAttributeByName("description")));
+
+        Set<Attribute> attributes = new HashSet<>();
+        attributes.add(createAttribute("description", "changed"));
+        connector.update(ObjectClass.ACCOUNT, new Uid("2"), attributes, null);
+
+        object = connector.getObject(ObjectClass.ACCOUNT, new Uid("2"), null);
+        AssertJUnit.assertEquals("changed", AttributeUtil.getStringValue(object.getAttributeByName("description")));
+
+        object = connector.getObject(ObjectClass.ACCOUNT, new Uid("4"), null);
+        AssertJUnit.assertEquals("a\r\n\r\nb", AttributeUtil.getStringValue(object.getAttributeByName("description")));
+    }
+
+    @Test
+    public void findByUidUsingIndexIgnoreCase() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setIndexEnabled(true);
+        config.setIgnoreIdentifierCase(true);
+        copyDataFile("/search.csv", config);
+
+        // framework filters results again using exact match, handler is used directly
+        ObjectClassHandler handler = new ObjectClassHandler(config.getConfig());
+
+        ListResultHandler result = new ListResultHandler();
+        handler.executeQuery(ObjectClass.ACCOUNT, new EqualsFilter(new Uid("ViLo")), result, null);
+
+        List<ConnectorObject> objects = result.getObjects();
+        AssertJUnit.assertEquals(1, objects.size());
+        AssertJUnit.assertEquals(new Uid("vilo"), objects.get(0).getUid());
+    }
+
+    @Test
+    public void reconfiguredConnectorDropsIndex() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setIndexEnabled(true);
+        copyDataFile("/search.csv", config);
+
+        File file = new File(CSV_FILE_PATH);
+
+        ListResultHandler result = new ListResultHandler();
+        new ObjectClassHandler(config.getConfig()).executeQuery(ObjectClass.ACCOUNT,
+                new EqualsFilter(new Uid("vilo")), result, null);
+        AssertJUnit.assertEquals(1, result.getObjects().size());
+
+        AtomicReference<RecordIndex> old = ObjectClassHandler.INDEXES.get(file);
+        AssertJUnit.assertNotNull(old.get());
+
+        // index of the previous configuration isn't kept next to the new one
+        config.setTrim(true);
+        result = new ListResultHandler();
+        new ObjectClassHandler(config.getConfig()).executeQuery(ObjectClass.ACCOUNT,
+                new EqualsFilter(new Uid("vilo")), result, null);
+        AssertJUnit.assertEquals(1, result.getObjects().size());
+
+        AtomicReference<RecordIndex> current = ObjectClassHandler.INDEXES.get(file);
+        AssertJUnit.assertNotNull(current.get());
+        AssertJUnit.assertNotSame(old, current);
+    }
+
+    @Test
+    public void resizedObjectCacheReplacesOldOne() throws Exception {
+        CsvConfiguration config = createConfigurationFilter();
+        config.setObjectCacheSize(10);
+        setupConnector("/search-filter.csv", config);
+
+        ObjectClassHandler handler = new ObjectClassHandler(config.getConfig());
+        ObjectCache old = handler.getObjectCache();
+        handler.executeQuery(ObjectClass.ACCOUNT, null, new ListResultHandler(), null);
+        AssertJUnit.assertEquals(4, old.size());
+
+        config.setObjectCacheSize(20);
+        ObjectCache resized = new ObjectClassHandler(config.getConfig()).getObjectCache();
+        AssertJUnit.assertNotSame(old, resized);
+        AssertJUnit.assertEquals(0, resized.size());
+
+        // the old cache isn't shared anymore, handlers with the old size get a new one
+        config.setObjectCacheSize(10);
+        AssertJUnit.assertNotSame(old, new ObjectClassHandler(config.getConfig()).getObjectCache());
+    }
+
+    private CsvConfiguration createConfigurationIndex() {
+        CsvConfiguration config = new CsvConfiguration();
+        config.setFilePath(new File(CSV_FILE_PATH));
+        config.setUniqueAttribute("id");
+        config.setIndexEnabled(true);
+
+        return config;
+    }
+
+    @Test
+    public void findWithAttributesToGet() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        copyDataFile("/search.csv", config);
+
+        // framework removes attributes which weren't requested, handler is used directly
+        ObjectClassHandler handler = new ObjectClassHandler(config.getConfig());
+
+        OperationOptionsBuilder builder = new OperationOptionsBuilder();
+        builder.setAttributesToGet(ATTR_FIRST_NAME);
+
+        ListResultHandler result = new ListResultHandler();
+        EqualsFilter filter = new EqualsFilter(AttributeBuilder.build(ATTR_LAST_NAME, "repan"));
+        handler.executeQuery(ObjectClass.ACCOUNT, filter, result, builder.build());
+
+        List<ConnectorObject> objects = result.getObjects();
+        AssertJUnit.assertEquals(1, objects.size());
+
+        ConnectorObject object = objects.get(0);
+        AssertJUnit.assertEquals(new Uid("vilo"), object.getUid());
+        AssertJUnit.assertEquals("viliam", AttributeUtil.getStringValue(object.getAttributeByName(ATTR_FIRST_NAME)));
+        // filter is evaluated on CSV record
+        AssertJUnit.assertNull(object.getAttributeByName(ATTR_LAST_NAME));
+        AssertJUnit.assertNull(object.getAttributeByName(OperationalAttributes.PASSWORD_NAME));
+    }
+
+    @Test
+    public void findUsingObjectCache() throws Exception {
+        CsvConfiguration config = createConfigurationFilter();
+        config.setObjectCacheSize(10);
+        ConnectorFacade connector = setupConnector("/search-filter.csv", config);
+
+        // framework removes attributes which weren't requested, handler is used directly
+        ObjectClassHandler handler = new ObjectClassHandler(config.getConfig());
+        ObjectCache cache = handler.getObjectCache();
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+
+        ListResultHandler all = new ListResultHandler();
+        handler.executeQuery(ObjectClass.ACCOUNT, null, all, null);
+        AssertJUnit.assertEquals(4, all.getObjects().size());
+        AssertJUnit.assertEquals(4, cache.size());
+        AssertJUnit.assertEquals(misses + 1, cache.getMissCount());
+
+        OperationOptionsBuilder builder = new OperationOptionsBuilder();
+        builder.setAttributesToGet("description");
+
+        ListResultHandler result = new ListResultHandler();
+        handler.executeQuery(ObjectClass.ACCOUNT, new EqualsFilter(new Uid("1")), result, builder.build());
+        AssertJUnit.assertEquals(1, result.getObjects().size());
+
+        ConnectorObject object = result.getObjects().get(0);
+        AssertJUnit.assertEquals("first", AttributeUtil.getStringValue(object.getAttributeByName("description")));
+        AssertJUnit.assertNull(object.getAttributeByName("groups"));
+
+        result = new ListResultHandler();
+        handler.executeQuery(ObjectClass.ACCOUNT, new EqualsFilter(AttributeBuilder.build("groups", "users")), result,
+                null);
+        AssertJUnit.assertEquals(Arrays.asList("2"), getUids(result));
+
+        result = new ListResultHandler();
+        handler.executeQuery(ObjectClass.ACCOUNT, new EqualsFilter(new Uid("5")), result, null);
+        AssertJUnit.assertEquals(0, result.getObjects().size());
+
+        AssertJUnit.assertEquals(hits + 3, cache.getHitCount());
+
+        // file is rewritten, cached objects can't be used
+        connector.update(ObjectClass.ACCOUNT, new Uid("1"),
+                new HashSet<>(List.of(AttributeBuilder.build("description", "changed"))), null);
+
+        result = new ListResultHandler();
+        handler.executeQuery(ObjectClass.ACCOUNT, new EqualsFilter(new Uid("1")), result, null);
+        object = result.getObjects().get(0);
+        AssertJUnit.assertEquals("changed", AttributeUtil.getStringValue(object.getAttributeByName("description")));
+        AssertJUnit.assertEquals(misses + 2, cache.getMissCount());
+        AssertJUnit.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void findUsingCompiledFilter() throws Exception {
+        CsvConfiguration config = new CsvConfiguration();
+        config.setFilePath(new File(CSV_FILE_PATH));
+        config.setUniqueAttribute("id");
+        config.setNameAttribute("name");
+        config.setPasswordAttribute("password");
+        config.setMultivalueDelimiter(",");
+        copyDataFile("/search-filter.csv", config);
+
+        assertFilter(config, new StartsWithFilter(AttributeBuilder.build("DESCRIPTION", "f")), "1", "4");
+        assertFilter(config, new StartsWithFilter(AttributeBuilder.build("name", "a")));
+        assertFilter(config, new EndsWithFilter(AttributeBuilder.build(Name.NAME, "ol")), "3");
+        assertFilter(config, new ContainsFilter(AttributeBuilder.build("description", "ir")), "1", "3");
+        assertFilter(config, new StartsWithFilter(AttributeBuilder.build("groups", "admins")), "4");
+        assertFilter(config, new EqualsFilter(AttributeBuilder.build("groups", "users")), "2");
+        assertFilter(config, new EqualsFilter(AttributeBuilder.build("groups", "users", "admins")), "1");
+        assertFilter(config, new EqualsFilter(AttributeBuilder.build("description")), "2");
+        assertFilter(config, new EqualsFilter(AttributeBuilder.build("unknown")), "1", "2", "3", "4");
+        assertFilter(config, new EqualsFilter(AttributeBuilder.build("unknown", "x")));
+        assertFilter(config, new NotFilter(new EqualsFilter(AttributeBuilder.build("description", "first"))),
+                "2", "3", "4");
+        assertFilter(config, new OrFilter(new EqualsFilter(new Name("bob")),
+                new EndsWithFilter(AttributeBuilder.build("description", "th"))), "2", "4");
+        // string filters compare only the first value
+        assertFilter(config, new AndFilter(new ContainsFilter(AttributeBuilder.build("groups", "users")),
+                new NotFilter(new ContainsFilter(AttributeBuilder.build("groups", "admins")))), "1", "2");
+
+        // password can't be compiled, the other condition is used as prefilter
+        assertFilter(config, new AndFilter(new ContainsFilter(AttributeBuilder.build("groups", "users")),
+                new EqualsFilter(AttributeBuilder.buildPassword("secret".toCharArray()))), "1", "2");
+    }
+
+    /**
+     * Compares results of search with results of filter applied to all objects.
+     */
+    private void assertFilter(CsvConfiguration config, Filter filter, String... expectedUids) {
+        // framework filters results again, handler is used directly
+        ObjectClassHandler handler = new ObjectClassHandler(config.getConfig());
+
+        ListResultHandler all = new ListResultHandler();
+        handler.executeQuery(ObjectClass.ACCOUNT, null, all, null);
+
+        ListResultHandler result = new ListResultHandler();
+        handler.executeQuery(ObjectClass.ACCOUNT, filter, result, null);
+
+        List<String> expected = new ArrayList<>();
+        for (ConnectorObject object : all.getObjects()) {
+            if (filter.accept(object)) {
+                expected.add(object.getUid().getUidValue());
+            }
+        }
+
+        List<String> uids = new ArrayList<>();
+        for (ConnectorObject object : result.getObjects()) {
+            uids.add(object.getUid().getUidValue());
+        }
+
+        AssertJUnit.assertEquals(filter.toString(), expected, uids);
+        AssertJUnit.assertEquals(filter.toString(), Arrays.asList(expectedUids), uids);
+    }
+
+    @Test
+    public void pagedSearchUsingCookie() throws Exception {
+        CsvConfiguration config = createConfigurationIndex();
+        config.setIndexEnabled(false);
+        ConnectorFacade connector = setupPagedConnector("/search-index.csv", config);
+
+        SearchResult result = assertPage(connector, null, 2, null, null, "1", "2");
+        AssertJUnit.assertEquals(-1, result.getRemainingPagedResults());
+
+        result = assertPage(connector, null, 2, null, result.getPagedResultsCookie(), "3", "4");
+        result = assertPage(connector, null, 2, null, result.getPagedResultsCookie(), "5");
+        AssertJUnit.assertNull(result.getPagedResultsCookie());
+    }
+
+    @Test
+    public void pagedSearchUsingCookieAndIndex() throws Exception {
+        ConnectorFacade connector = setupPagedConnector("/search-index.csv", createConfigurationIndex());
+
+        SearchResult result = assertPage(connector, null, 2, null, null, "1", "2");
+        AssertJUnit.assertEquals(3, result.getRemainingPagedResults());
+
+        result = assertPage(connector, null, 2, null, result.getPagedResultsCookie(), "3", "4");
+        AssertJUnit.assertEquals(1, result.getRemainingPagedResults());
+
+        result = assertPage(connector, null, 2, null, result.getPagedResultsCookie(), "5");
+        AssertJUnit.assertEquals(0, result.getRemainingPagedResults());
+        AssertJUnit.assertNull(result.getPagedResultsCookie());
+    }
+
+    @Test
+    public void pagedSearchUsingOffset() throws Exception {
+        CsvConfiguration config = createConfigurationIndex();
+        config.setIndexEnabled(false);
+        ConnectorFacade connector = setupPagedConnector("/search-index.csv", config);
+
+        assertPage(connector, null, 2, 3, null, "3", "4");
+        assertPage(connector, null, 2, 6, null);
+
+        connector = setupPagedConnector("/search-index.csv", createConfigurationIndex());
+
+        SearchResult result = assertPage(connector, null, 2, 4, null, "4", "5");
+        AssertJUnit.assertEquals(0, result.getRemainingPagedResults());
+        AssertJUnit.assertNull(result.getPagedResultsCookie());
+
+        assertPage(connector, null, 2, 6, null);
+    }
+
+    @Test
+    public void pagedSearchWithFilter() throws Exception {
+        ConnectorFacade connector = setupPagedConnector("/search-index.csv", createConfigurationIndex());
+
+        Filter filter = new StartsWithFilter(AttributeBuilder.build("name", "f"));
+
+        SearchResult result = assertPage(connector, filter, 2, null, null, "1", "4");
+        AssertJUnit.assertEquals(-1, result.getRemainingPagedResults());
+
+        result = assertPage(connector, filter, 2, null, result.getPagedResultsCookie(), "5");
+        AssertJUnit.assertNull(result.getPagedResultsCookie());
+
+        assertPage(connector, filter, 1, 2, null, "4");
+    }
+
+    @Test(expectedExceptions = ConnectorException.class)
+    public void pagedSearchCookieAfterFileChange() throws Exception {
+        ConnectorFacade connector = setupPagedConnector("/search-index.csv", createConfigurationIndex());
+
+        SearchResult result = assertPage(connector, null, 2, null, null, "1", "2");
+
+        Set<Attribute> attributes = new HashSet<>();
+        attributes.add(createAttribute("description", "changed"));
+        connector.update(ObjectClass.ACCOUNT, new Uid("1"), attributes, null);
+
+        assertPage(connector, null, 2, null, result.getPagedResultsCookie());
+    }
+
+    @Test
+    public void sortedSearch() throws Exception {
+        CsvConfiguration config = createConfigurationFilter();
+        ConnectorFacade connector = setupConnector("/search-filter.csv", config);
+
+        assertSorted(connector, new SortKey("description", true), "1", "4", "3", "2");
+        assertSorted(connector, new SortKey("description", false), "2", "3", "4", "1");
+        assertSorted(connector, new SortKey(Name.NAME, false), "4", "3", "2", "1");
+    }
+
+    @Test
+    public void sortedSearchUsingRuns() throws Exception {
+        CsvConfiguration config = createConfigurationFilter();
+        config.setInMemorySortLimit(1);
+        ConnectorFacade connector = setupConnector("/search-filter.csv", config);
+
+        assertSorted(connector, new SortKey("description", true), "1", "4", "3", "2");
+        assertSorted(connector, new SortKey(Name.NAME, false), "4", "3", "2", "1");
+
+        File[] runs = new File(CSV_FILE_PATH).getParentFile().listFiles((dir, name) -> name.endsWith(".sort"));
+        AssertJUnit.assertEquals(0, runs.length);
+    }
+
+    @Test
+    public void sortedPagedSearch() throws Exception {
+        CsvConfiguration config = createConfigurationFilter();
+        ConnectorFacade connector = setupPagedConnector("/search-filter.csv", config);
+
+        SearchResult result = assertSortedPage(connector, new SortKey(Name.NAME, false), 2, 2, "3", "2");
+        AssertJUnit.assertEquals(1, result.getRemainingPagedResults());
+        AssertJUnit.assertNull(result.getPagedResultsCookie());
+
+        // page doesn't fit into memory limit
+        config.setInMemorySortLimit(2);
+        connector = setupPagedConnector("/search-filter.csv", config);
+
+        result = assertSortedPage(connector, new SortKey(Name.NAME, false), 2, 2, "3", "2");
+        AssertJUnit.assertEquals(1, result.getRemainingPagedResults());
+    }
+
+    @Test
+    public void parallelSearch() throws Exception {
+        CsvConfiguration config = createConfigurationFilter();
+        config.setPasswordAttribute(null);
+        writeGeneratedFile(config, 500);
+
+        ConnectorFacade sequential = createNewInstance(config);
+
+        config.setParallelScanThreads(4);
+        ConnectorFacade ordered = createNewInstance(config);
+
+        config.setParallelScanPreserveOrder(false);
+        ConnectorFacade unordered = createNewInstance(config);
+
+        config.setMappedReaderEnabled(true);
+        ConnectorFacade mapped = createNewInstance(config);
+
+        List<Filter> filters = Arrays.asList(null,
+                FilterBuilder.equalTo(AttributeBuilder.build("groups", "admins")),
+                FilterBuilder.contains(AttributeBuilder.build("description", "9")));
+
+        for (Filter filter : filters) {
+            List<ConnectorObject> expected = search(sequential, filter);
+
+            AssertJUnit.assertEquals(expected, search(ordered, filter));
+            AssertJUnit.assertEquals(new HashSet<>(expected), new HashSet<>(search(unordered, filter)));
+            AssertJUnit.assertEquals(new HashSet<>(expected), new HashSet<>(search(mapped, filter)));
+        }
+    }
+
+    @Test
+    public void parallelSearchStoppedByHandler() throws Exception {
+        CsvConfiguration config = createConfigurationFilter();
+        config.setParallelScanThreads(4);
+        writeGeneratedFile(config, 500);
+
+        ConnectorFacade connector = createNewInstance(config);
+
+        List<String> uids = new ArrayList<>();
+        connector.search(ObjectClass.ACCOUNT, null, object -> {
+            uids.add(object.getUid().getUidValue());
+            return uids.size() < 10;
+        }, null);
+
+        AssertJUnit.assertEquals(Arrays.asList("1", "2", "3", "4", "5", "6", "7", "8", "9", "10"), uids);
+    }
+
+    @Test
+    public void searchReadsSnapshot() throws Exception {
+        for (boolean mapped : new boolean[]{false, true}) {
+            CsvConfiguration config = createConfigurationFilter();
+            config.setMappedReaderEnabled(mapped);
+            ConnectorFacade connector = setupConnector("/search-filter.csv", config);
+            ConnectorFacade writer = createNewInstance(config);
+
+            // file is replaced by writer while search is running
+            List<ConnectorObject> objects = new ArrayList<>();
+            connector.search(ObjectClass.ACCOUNT, null, object -> {
+                if (objects.isEmpty()) {
+                    writer.update(ObjectClass.ACCOUNT, new Uid("3"),
+                            new HashSet<>(Arrays.asList(createAttribute("description", "changed"))), null);
+                    writer.delete(ObjectClass.ACCOUNT, new Uid("4"), null);
+                }
+
+                objects.add(object);
+                return true;
+            }, null);
+
+            AssertJUnit.assertEquals(4, objects.size());
+            AssertJUnit.assertEquals("third",
+                    AttributeUtil.getStringValue(objects.get(2).getAttributeByName("description")));
+            AssertJUnit.assertEquals("4", objects.get(3).getUid().getUidValue());
+
+            ListResultHandler handler = new ListResultHandler();
+            connector.search(ObjectClass.ACCOUNT, null, handler, null);
+            AssertJUnit.assertEquals(3, handler.getObjects().size());
+            AssertJUnit.assertEquals("changed",
+                    AttributeUtil.getStringValue(handler.getObjects().get(2).getAttributeByName("description")));
+        }
+    }
+
+    /**
+     * Values with line breaks, comments and empty lines, so chunks can't be split on line breaks only.
+     */
+    private void writeGeneratedFile(CsvConfiguration config, int count) throws IOException {
+        StringBuilder sb = new StringBuilder("id;name;groups;description;password\n");
+        for (int i = 1; i <= count; i++) {
+            sb.append(i).append(";user").append(i).append(';').append(i % 3 == 0 ? "admins" : "users")
+                    .append(";\"description of ").append(i).append("\nsecond line\";secret\n");
+
+            if (i % 10 == 0) {
+                sb.append("# comment\n\n");
+            }
+        }
+
+        File file = new File(CSV_FILE_PATH);
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        config.setFilePath(file);
+        config.validate();
+    }
+
+    private List<ConnectorObject> search(ConnectorFacade connector, Filter filter) {
+        ListResultHandler handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, filter, handler, null);
+
+        return handler.getObjects();
+    }
+
+    private CsvConfiguration createConfigurationFilter() {
+        CsvConfiguration config = new CsvConfiguration();
+        config.setFilePath(new File(CSV_FILE_PATH));
+        config.setUniqueAttribute("id");
+        config.setNameAttribute("name");
+        config.setPasswordAttribute("password");
+        config.setMultivalueDelimiter(",");
+
+        return config;
+    }
+
+    private void assertSorted(ConnectorFacade connector, SortKey sortKey, String... expectedUids) {
+        OperationOptionsBuilder builder = new OperationOptionsBuilder();
+        builder.setSortKeys(sortKey);
+
+        ListResultHandler handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, null, handler, builder.build());
+
+        AssertJUnit.assertEquals(Arrays.asList(expectedUids), getUids(handler));
+    }
+
+    private SearchResult assertSortedPage(ConnectorFacade connector, SortKey sortKey, int pageSize, int offset,
+                                          String... expectedUids) {
+        OperationOptionsBuilder builder = new OperationOptionsBuilder();
+        builder.setSortKeys(sortKey);
+        builder.setPageSize(pageSize);
+        builder.setPagedResultsOffset(offset);
+
+        ListResultHandler handler = new ListResultHandler();
+        SearchResult result = connector.search(ObjectClass.ACCOUNT, null, handler, builder.build());
+
+        AssertJUnit.assertEquals(Arrays.asList(expectedUids), getUids(handler));
+
+        return result;
+    }
+
+    private List<String> getUids(ListResultHandler handler) {
+        List<String> uids = new ArrayList<>();
+        for (ConnectorObject object : handler.getObjects()) {
+            uids.add(object.getUid().getUidValue());
+        }
+
+        return uids;
+    }
+
+    /**
+     * Framework doesn't allow paging if it filters results itself, connector evaluates whole filter anyway.
+     */
+    private ConnectorFacade setupPagedConnector(String csvTemplate, CsvConfiguration config) throws IOException {
+        copyDataFile(csvTemplate, config);
+
+        APIConfiguration impl = TestHelpers.createTestConfiguration(CsvConnector.class, config);
+        impl.getResultsHandlerConfiguration().setEnableFilteredResultsHandler(false);
+
+        return ConnectorFacadeFactory.getInstance().newInstance(impl);
+    }
+
+    private SearchResult assertPage(ConnectorFacade connector, Filter filter, int pageSize, Integer offset,
+                                    String cookie, String... expectedUids) {
+        OperationOptionsBuilder builder = new OperationOptionsBuilder();
+        builder.setPageSize(pageSize);
+        if (offset != null) {
+            builder.setPagedResultsOffset(offset);
+        }
+        if (cookie != null) {
+            builder.setPagedResultsCookie(cookie);
+        }
+
+        ListResultHandler handler = new ListResultHandler();
+        SearchResult result = connector.search(ObjectClass.ACCOUNT, filter, handler, builder.build());
+
+        AssertJUnit.assertEquals(Arrays.asList(expectedUids), getUids(handler));
+        AssertJUnit.assertNotNull(result);
+
+        return result;
+    }
 }
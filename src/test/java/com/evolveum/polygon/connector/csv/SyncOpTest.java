@@ -4,8 +4,12 @@ import static org.testng.Assert.assertTrue;
 import static org.testng.AssertJUnit.assertEquals;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -80,6 +84,205 @@ public class SyncOpTest extends BaseTest {
     public void syncTest() throws Exception {
         CsvConfiguration config = createConfiguration();
         config.setTrim(true);
+
+        assertSyncDeltas(config);
+    }
+
+    @Test
+    public void sortedSyncDiffTest() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setTrim(true);
+        config.setSortedSyncDiff(true);
+        // every record is in its own sorted run
+        config.setInMemorySortLimit(1);
+
+        List<SyncDelta> deltas = assertSyncDeltas(config);
+
+        List<String> uids = new ArrayList<>();
+        deltas.forEach(delta -> uids.add(delta.getUid().getUidValue()));
+        List<String> sorted = new ArrayList<>(uids);
+        Collections.sort(sorted);
+        AssertJUnit.assertEquals(sorted, uids);
+
+        File[] runs = new File("./target").listFiles((dir, name) -> name.endsWith(".sort"));
+        AssertJUnit.assertEquals(0, runs.length);
+    }
+
+    @Test
+    public void partitionedSyncDiffTest() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setTrim(true);
+        config.setSyncDiffPartitions(4);
+
+        assertSyncDeltas(config);
+
+        File[] partitions = new File("./target").listFiles((dir, name) -> name.endsWith(".part"));
+        AssertJUnit.assertEquals(0, partitions.length);
+    }
+
+    @Test
+    public void partitionedSyncDiffOneThreadTest() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setTrim(true);
+        config.setSyncDiffPartitions(4);
+        config.setSyncDiffThreads(1);
+
+        assertSyncDeltas(config);
+    }
+
+    @Test
+    public void hashSyncSnapshotTest() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setTrim(true);
+        config.setHashSyncSnapshots(true);
+        ConnectorFacade connector = setupConnector("/sync.csv", config);
+
+        // old sync file is full CSV copy, new one is written as snapshot
+        File oldSyncFile = new File("./target/data.csv.sync.1300734815289");
+        FileUtils.copyFile(new File(TEMPLATE_FOLDER_PATH, "sync.csv.1300734815289"), oldSyncFile);
+
+        try {
+            final List<SyncDelta> deltas = new ArrayList<>();
+            connector.sync(ObjectClass.ACCOUNT, new SyncToken("1300734815289"), delta -> {
+                deltas.add(delta);
+                return true;
+            }, null);
+
+            AssertJUnit.assertEquals(3, deltas.size());
+
+            Map<String, SyncDeltaType> types = new HashMap<>();
+            deltas.forEach(delta -> types.put(delta.getUid().getUidValue(), delta.getDeltaType()));
+            AssertJUnit.assertEquals(SyncDeltaType.UPDATE, types.get("miso"));
+            AssertJUnit.assertEquals(SyncDeltaType.CREATE, types.get("apple"));
+            AssertJUnit.assertEquals(SyncDeltaType.DELETE, types.get("vilo"));
+
+            // deletes are last and carry only uid
+            SyncDelta delete = deltas.get(2);
+            AssertJUnit.assertEquals("vilo", delete.getUid().getUidValue());
+            AssertJUnit.assertNull(delete.getObject());
+
+            SyncToken token = deltas.get(0).getToken();
+            File snapshot = Util.createSyncFileName(Long.parseLong((String) token.getValue()), config.getConfig());
+            byte[] magic = new byte[7];
+            try (InputStream input = new FileInputStream(snapshot)) {
+                AssertJUnit.assertEquals(magic.length, input.read(magic));
+            }
+            AssertJUnit.assertEquals("CSVSNAP", new String(magic, StandardCharsets.US_ASCII));
+
+            deltas.clear();
+            connector.sync(ObjectClass.ACCOUNT, token, delta -> {
+                deltas.add(delta);
+                return true;
+            }, null);
+
+            AssertJUnit.assertEquals(0, deltas.size());
+        } finally {
+            CsvTestUtil.deleteAllSyncFiles();
+        }
+    }
+
+    @Test
+    public void syncChangedAttributesOnlyTest() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setTrim(true);
+        config.setSyncChangedAttributesOnly(true);
+
+        assertChangedAttributesOnly(config);
+    }
+
+    @Test
+    public void hashSyncChangedAttributesOnlyTest() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setTrim(true);
+        config.setHashSyncSnapshots(true);
+        config.setSyncChangedAttributesOnly(true);
+
+        assertChangedAttributesOnly(config);
+    }
+
+    private void assertChangedAttributesOnly(CsvConfiguration config) throws Exception {
+        List<SyncDelta> deltas = syncFromOldFile(config, null);
+        AssertJUnit.assertEquals(3, deltas.size());
+
+        SyncDelta update = null;
+        for (SyncDelta delta : deltas) {
+            if (SyncDeltaType.UPDATE.equals(delta.getDeltaType())) {
+                update = delta;
+                continue;
+            }
+
+            // only updates are reduced
+            if (SyncDeltaType.CREATE.equals(delta.getDeltaType())) {
+                AssertJUnit.assertNotNull(delta.getObject().getAttributeByName(ATTR_FIRST_NAME));
+            }
+        }
+
+        AssertJUnit.assertNotNull(update);
+        ConnectorObject object = update.getObject();
+        AssertJUnit.assertEquals("miso", object.getUid().getUidValue());
+        AssertJUnit.assertEquals("miso", object.getName().getNameValue());
+        AssertJUnit.assertEquals("LastnameChange",
+                AttributeUtil.getStringValue(object.getAttributeByName(ATTR_LAST_NAME)));
+        AssertJUnit.assertNull(object.getAttributeByName(ATTR_FIRST_NAME));
+        AssertJUnit.assertNull(object.getAttributeByName(OperationalAttributes.PASSWORD_NAME));
+    }
+
+    @Test
+    public void syncAttributesToGetTest() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setTrim(true);
+
+        assertAttributesToGet(config);
+    }
+
+    @Test
+    public void hashSyncAttributesToGetTest() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setTrim(true);
+        config.setHashSyncSnapshots(true);
+
+        assertAttributesToGet(config);
+    }
+
+    private void assertAttributesToGet(CsvConfiguration config) throws Exception {
+        OperationOptionsBuilder builder = new OperationOptionsBuilder();
+        builder.setAttributesToGet(ATTR_FIRST_NAME);
+
+        // only last name of miso changed, it's not returned so there's no update
+        List<SyncDelta> deltas = syncFromOldFile(config, builder.build());
+        AssertJUnit.assertEquals(2, deltas.size());
+
+        for (SyncDelta delta : deltas) {
+            AssertJUnit.assertFalse(SyncDeltaType.UPDATE.equals(delta.getDeltaType()));
+            if (delta.getObject() == null) {
+                // delete from hash snapshot
+                continue;
+            }
+            AssertJUnit.assertNotNull(delta.getObject().getAttributeByName(ATTR_FIRST_NAME));
+            AssertJUnit.assertNull(delta.getObject().getAttributeByName(ATTR_LAST_NAME));
+        }
+    }
+
+    private List<SyncDelta> syncFromOldFile(CsvConfiguration config, OperationOptions options) throws Exception {
+        ConnectorFacade connector = setupConnector("/sync.csv", config);
+
+        File oldSyncFile = new File("./target/data.csv.sync.1300734815289");
+        FileUtils.copyFile(new File(TEMPLATE_FOLDER_PATH, "sync.csv.1300734815289"), oldSyncFile);
+
+        try {
+            final List<SyncDelta> deltas = new ArrayList<>();
+            connector.sync(ObjectClass.ACCOUNT, new SyncToken("1300734815289"), delta -> {
+                deltas.add(delta);
+                return true;
+            }, options);
+
+            return deltas;
+        } finally {
+            CsvTestUtil.deleteAllSyncFiles();
+        }
+    }
+
+    private List<SyncDelta> assertSyncDeltas(CsvConfiguration config) throws Exception {
         ConnectorFacade connector = setupConnector("/sync.csv", config);
 
         File oldSyncFile = new File("./target/data.csv.sync.1300734815289");
@@ -106,6 +309,8 @@ public class SyncOpTest extends BaseTest {
                 assertEquals(syncDelta, delta);
             }
             assertTrue(deltaMap.isEmpty(), "deltas didn't match");
+
+            return deltas;
         } finally {
             CsvTestUtil.deleteAllSyncFiles();
         }
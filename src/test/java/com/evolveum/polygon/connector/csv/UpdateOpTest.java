@@ -1,9 +1,11 @@
 package com.evolveum.polygon.connector.csv;
 
 import com.evolveum.polygon.connector.csv.util.CsvTestUtil;
+import com.evolveum.polygon.connector.csv.util.FileSnapshot;
 import org.identityconnectors.common.Base64;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
 import org.identityconnectors.framework.common.exceptions.UnknownUidException;
@@ -11,10 +13,16 @@ import org.identityconnectors.framework.common.objects.*;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertNotNull;
@@ -249,4 +257,155 @@ public class UpdateOpTest extends BaseTest {
         Map<String, String> realRecord = CsvTestUtil.findRecord(createConfigurationNameEqualsUid(), VILO_UID);
         assertEquals(expectedRecord, realRecord);
     }
+
+    @Test
+    public void updateInPlace() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setUniqueAttribute("id");
+        config.setNameAttribute("name");
+        config.setMultivalueDelimiter(",");
+        config.setIndexEnabled(true);
+        config.setInPlaceUpdateEnabled(true);
+
+        ConnectorFacade connector = setupConnector("/search-filter.csv", config);
+
+        File file = new File(CSV_FILE_PATH);
+        long length = file.length();
+        Object fileKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+
+        // shorter record is padded after quoted last value
+        Set<Attribute> attributes = new HashSet<>();
+        attributes.add(AttributeBuilder.build("description", "f"));
+        Uid real = connector.update(ObjectClass.ACCOUNT, new Uid("1"), attributes, null);
+        assertEquals(new Uid("1"), real);
+
+        assertEquals(length, file.length());
+        assertEquals(fileKey, Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey());
+        AssertJUnit.assertTrue(Files.readString(file.toPath()).contains("1;alice;users,admins;f;\"secret\"  \n"));
+
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, null);
+        assertEquals("f", AttributeUtil.getStringValue(object.getAttributeByName("description")));
+
+        attributes = new HashSet<>();
+        attributes.add(AttributeBuilder.build("groups", "users"));
+        connector.update(ObjectClass.ACCOUNT, new Uid("4"), attributes, null);
+
+        assertEquals(length, file.length());
+        assertEquals(fileKey, Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey());
+
+        object = connector.getObject(ObjectClass.ACCOUNT, new Uid("4"), null);
+        assertEquals("users", AttributeUtil.getStringValue(object.getAttributeByName("groups")));
+        assertEquals("dave", object.getName().getNameValue());
+
+        // longer record doesn't fit, file is rewritten
+        attributes = new HashSet<>();
+        attributes.add(AttributeBuilder.build("description", "much longer description"));
+        connector.update(ObjectClass.ACCOUNT, new Uid("2"), attributes, null);
+
+        AssertJUnit.assertFalse(fileKey.equals(Files.readAttributes(file.toPath(), BasicFileAttributes.class)
+                .fileKey()));
+
+        object = connector.getObject(ObjectClass.ACCOUNT, new Uid("2"), null);
+        assertEquals("much longer description",
+                AttributeUtil.getStringValue(object.getAttributeByName("description")));
+
+        object = connector.getObject(ObjectClass.ACCOUNT, new Uid("1"), null);
+        assertEquals("f", AttributeUtil.getStringValue(object.getAttributeByName("description")));
+    }
+
+    @Test
+    public void updateInPlaceWhileReading() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setUniqueAttribute("id");
+        config.setNameAttribute("name");
+        config.setMultivalueDelimiter(",");
+        config.setIndexEnabled(true);
+        config.setInPlaceUpdateEnabled(true);
+
+        ConnectorFacade connector = setupConnector("/search-filter.csv", config);
+
+        File file = new File(CSV_FILE_PATH);
+        Object fileKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+
+        Set<Attribute> attributes = new HashSet<>();
+        attributes.add(AttributeBuilder.build("description", "f"));
+
+        // reader of open snapshot must not see records overwritten in place, file is rewritten instead
+        String before;
+        try (FileSnapshot snapshot = FileSnapshot.open(file)) {
+            connector.update(ObjectClass.ACCOUNT, new Uid("1"), attributes, null);
+
+            AssertJUnit.assertFalse(fileKey.equals(Files.readAttributes(file.toPath(), BasicFileAttributes.class)
+                    .fileKey()));
+
+            try (BufferedReader reader = snapshot.createReader("utf-8")) {
+                before = reader.lines().collect(Collectors.joining("\n"));
+            }
+        }
+        AssertJUnit.assertFalse(before.contains(";f;"));
+
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, new Uid("1"), null);
+        assertEquals("f", AttributeUtil.getStringValue(object.getAttributeByName("description")));
+
+        // no snapshot is open, next update is done in place
+        fileKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        attributes = new HashSet<>();
+        attributes.add(AttributeBuilder.build("description", "g"));
+        connector.update(ObjectClass.ACCOUNT, new Uid("1"), attributes, null);
+
+        assertEquals(fileKey, Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey());
+        object = connector.getObject(ObjectClass.ACCOUNT, new Uid("1"), null);
+        assertEquals("g", AttributeUtil.getStringValue(object.getAttributeByName("description")));
+    }
+
+    @Test
+    public void updateWithRawRecordCopy() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setUniqueAttribute("id");
+        config.setNameAttribute("name");
+        config.setMultivalueDelimiter(",");
+        config.setRawRecordCopyEnabled(true);
+
+        ConnectorFacade connector = setupConnector("/search-filter.csv", config);
+
+        File file = new File(CSV_FILE_PATH);
+        Files.write(file.toPath(), ("id;name;groups;description;password\n"
+                + "\"1\";alice;\"users,admins\";\"first\";secret\n"
+                + "2;bob;users;;secret\n"
+                + "3;carol;;third;other\r\n"
+                + "4;dave;admins,users;fourth;").getBytes(StandardCharsets.UTF_8));
+
+        Set<Attribute> attributes = new HashSet<>();
+        attributes.add(AttributeBuilder.build("description", "changed"));
+        connector.update(ObjectClass.ACCOUNT, new Uid("2"), attributes, null);
+
+        connector.delete(ObjectClass.ACCOUNT, new Uid("3"), null);
+
+        attributes = new HashSet<>();
+        attributes.add(new Name("eve"));
+        attributes.add(AttributeBuilder.build("id", "5"));
+        attributes.add(AttributeBuilder.build("description", "with \"quotes\""));
+        connector.create(ObjectClass.ACCOUNT, attributes, null);
+
+        // untouched records are copied with original quoting and record separators
+        assertEquals("id;name;groups;description;password\n"
+                        + "\"1\";alice;\"users,admins\";\"first\";secret\n"
+                        + "2;bob;users;changed;secret\r\n"
+                        + "4;dave;admins,users;fourth;\r\n"
+                        + "5;eve;;\"with \\\"quotes\\\"\";\r\n",
+                Files.readString(file.toPath()));
+
+        try {
+            connector.create(ObjectClass.ACCOUNT, attributes, null);
+            fail("Expected AlreadyExistsException");
+        } catch (AlreadyExistsException ex) {
+            // expected
+        }
+
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, new Uid("1"), null);
+        assertEquals("first", AttributeUtil.getStringValue(object.getAttributeByName("description")));
+
+        object = connector.getObject(ObjectClass.ACCOUNT, new Uid("5"), null);
+        assertEquals("with \"quotes\"", AttributeUtil.getStringValue(object.getAttributeByName("description")));
+    }
 }
@@ -0,0 +1,99 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full scan of large CSV file (1 GB by default, see {@link #sizeMb}) which reads only one column, as search
+ * with filter on one attribute does. {@link #parser()} uses commons-csv, {@link #mapped()} uses
+ * {@link MappedCsvReader}.
+ * <p>
+ * Not executed by surefire, run it from IDE or using {@link #main(String[])} with test classpath. File is
+ * generated to java.io.tmpdir and deleted after the benchmark.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MappedCsvReaderBenchmark {
+
+    @Param("1024")
+    public int sizeMb;
+
+    private File file;
+
+    private ObjectClassHandlerConfiguration configuration;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("benchmark", ".csv");
+
+        configuration = new ObjectClassHandlerConfiguration();
+        configuration.setFilePath(file);
+
+        long size = sizeMb * 1024L * 1024L;
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("id;login;firstName;lastName;email;description\n");
+
+            for (long i = 0; file.length() < size; i++) {
+                writer.write(i + ";user" + i + ";John;Doe;user" + i + "@example.com;"
+                        + "\"Description of user " + i + "; with \"\"quotes\"\"\"\n");
+
+                if (i % 100000 == 0) {
+                    writer.flush();
+                }
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public long parser() throws IOException {
+        long length = 0;
+        try (Reader reader = Util.createReader(configuration);
+             CSVParser parser = Util.createCsvFormatReader(configuration).parse(reader)) {
+
+            for (CSVRecord record : parser) {
+                length += record.get(1).length();
+            }
+        }
+
+        return length;
+    }
+
+    @Benchmark
+    public long mapped() throws IOException {
+        long length = 0;
+        try (CsvRowReader reader = new MappedCsvReader(file, configuration)) {
+            CsvRow row;
+            while ((row = reader.next()) != null) {
+                length += row.get(1).length();
+            }
+        }
+
+        return length;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MappedCsvReaderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,130 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-row cost of converting CSV records to connector objects. {@link #legacy(Blackhole)} is the conversion
+ * as it was done before {@link RowDecoder} (column names looked up for every row), {@link #decoder(Blackhole)}
+ * uses precompiled decoder. Password column is left out on purpose, encryption of guarded strings would hide
+ * the difference.
+ * <p>
+ * Not executed by surefire, run it from IDE or using {@link #main(String[])} with test classpath.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowDecoderBenchmark {
+
+    private static final String[] COLUMNS = {"id", "login", "firstName", "lastName", "email", "groups"};
+
+    private static final int ROWS = 1000;
+
+    private ObjectClassHandlerConfiguration configuration;
+
+    private Map<String, Column> header;
+
+    private List<CSVRecord> records;
+
+    private RowDecoder decoder;
+
+    @Setup
+    public void setup() throws IOException {
+        configuration = new ObjectClassHandlerConfiguration();
+        configuration.setUniqueAttribute("id");
+        configuration.setNameAttribute("login");
+        configuration.setMultivalueDelimiter(",");
+
+        header = new HashMap<>();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            header.put(COLUMNS[i], new Column(COLUMNS[i], i));
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ROWS; i++) {
+            sb.append(i).append(";user").append(i).append(";John;Doe")
+                    .append(";user").append(i).append("@example.com;users,admins\n");
+        }
+
+        try (CSVParser parser = CSVFormat.DEFAULT.builder().setDelimiter(';').build()
+                .parse(new StringReader(sb.toString()))) {
+            records = parser.getRecords();
+        }
+
+        decoder = new RowDecoder(configuration, header);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void legacy(Blackhole bh) {
+        for (CSVRecord record : records) {
+            bh.consume(legacyDecode(record));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void decoder(Blackhole bh) {
+        for (CSVRecord record : records) {
+            bh.consume(decoder.decode(record, null));
+        }
+    }
+
+    private Object legacyDecode(CSVRecord record) {
+        ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
+
+        Map<Integer, String> reversed = new HashMap<>();
+        header.forEach((key, value) -> reversed.put(value.getIndex(), key));
+
+        for (int i = 0; i < record.size(); i++) {
+            String name = reversed.get(i);
+            String value = record.get(i);
+
+            if (StringUtil.isEmpty(value)) {
+                continue;
+            }
+
+            if (name.equals(configuration.getUniqueAttribute())) {
+                builder.setUid(value);
+                continue;
+            }
+
+            if (name.equals(configuration.getNameAttribute())) {
+                builder.setName(new Name(value));
+                continue;
+            }
+
+            List<String> values = new ArrayList<>();
+            for (String item : value.split(configuration.getMultivalueDelimiter())) {
+                if (!StringUtil.isEmpty(item)) {
+                    values.add(item);
+                }
+            }
+            builder.addAttribute(name, values);
+        }
+
+        return builder.build();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RowDecoderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
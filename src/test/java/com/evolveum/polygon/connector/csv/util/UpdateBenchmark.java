@@ -0,0 +1,93 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandler;
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Update of one record in CSV file with many records (see {@link #records}), which rewrites the whole file,
+ * with records parsed and printed or copied as raw bytes (see {@link #rawRecordCopy}). Records which aren't
+ * updated are only checked by unique attribute column, run with {@link GCProfiler}
+ * (as {@link #main(String[])} does) to see allocation per operation, gc.alloc.rate.norm divided by number of
+ * records is allocation per record.
+ * <p>
+ * Not executed by surefire, run it from IDE or using {@link #main(String[])} with test classpath. File is
+ * generated to java.io.tmpdir and deleted after the benchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UpdateBenchmark {
+
+    @Param("1000000")
+    public int records;
+
+    @Param({"false", "true"})
+    public boolean rawRecordCopy;
+
+    private File file;
+
+    private ObjectClassHandlerConfiguration configuration;
+
+    private long counter;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("benchmark", ".csv");
+
+        configuration = new ObjectClassHandlerConfiguration();
+        configuration.setFilePath(file);
+        configuration.setTmpFolder(file.getParentFile());
+        configuration.setUniqueAttribute("id");
+        configuration.setNameAttribute("login");
+        configuration.setRawRecordCopyEnabled(rawRecordCopy);
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("id;login;firstName;lastName;email;description\n");
+
+            for (int i = 0; i < records; i++) {
+                writer.write(i + ";user" + i + ";John;Doe;user" + i + "@example.com;"
+                        + "\"Description of user " + i + "; with \"\"quotes\"\"\"\n");
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public Uid update() {
+        ObjectClassHandler handler = new ObjectClassHandler(configuration);
+
+        Uid uid = new Uid(Integer.toString(records / 2));
+        return handler.update(ObjectClass.ACCOUNT, uid,
+                Collections.singleton(AttributeBuilder.build("description", "changed " + counter++)), null);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(UpdateBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}